@@ -0,0 +1,397 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Bounded pool of JDBC connections shared by every database call in the app.
+// Callers borrow with getConnection() and give the connection back by closing it.
+class ConnectionPool {
+
+    // Defaults, overridable with -Dride.pool.<name>=<value>
+    static final int DEFAULT_MIN_SIZE = 2;
+    static final int DEFAULT_MAX_SIZE = 8;
+    static final long DEFAULT_MAX_WAIT_MS = 5000;
+    static final long DEFAULT_IDLE_TIMEOUT_MS = 5 * 60 * 1000;
+    static final long DEFAULT_VALIDATION_INTERVAL_MS = 5000;
+    static final long EVICTION_PERIOD_MS = 30 * 1000;
+    static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int minSize;
+    private final int maxSize;
+    private final long maxWaitMillis;
+    private final long idleTimeoutMillis;
+    private final long validationIntervalMillis;
+
+    // Idle connections, most recently used first
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    // One permit per connection that may be handed out
+    private final Semaphore permits;
+    private final AtomicInteger totalConnections = new AtomicInteger();
+    private final ScheduledExecutorService evictor;
+    private volatile StatementCache statementCache;
+    private volatile SqlTrace sqlTrace;
+    private volatile boolean closed = false;
+
+    // Metrics
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong evictedCount = new AtomicLong();
+    private final AtomicLong validationFailures = new AtomicLong();
+
+    public ConnectionPool(String url, String user, String password, int minSize, int maxSize,
+                          long maxWaitMillis, long idleTimeoutMillis, long validationIntervalMillis) {
+        if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+            throw new IllegalArgumentException("Invalid pool size: min=" + minSize + ", max=" + maxSize);
+        }
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.maxWaitMillis = maxWaitMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.validationIntervalMillis = validationIntervalMillis;
+        this.permits = new Semaphore(maxSize, true);
+        this.evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "connection-pool-evictor");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    // Builds a pool sized from -Dride.pool.minSize, maxSize, maxWaitMs, idleTimeoutMs and validationIntervalMs
+    public static ConnectionPool fromSystemProperties(String url, String user, String password) {
+        return new ConnectionPool(url, user, password,
+            Integer.getInteger("ride.pool.minSize", DEFAULT_MIN_SIZE),
+            Integer.getInteger("ride.pool.maxSize", DEFAULT_MAX_SIZE),
+            Long.getLong("ride.pool.maxWaitMs", DEFAULT_MAX_WAIT_MS),
+            Long.getLong("ride.pool.idleTimeoutMs", DEFAULT_IDLE_TIMEOUT_MS),
+            Long.getLong("ride.pool.validationIntervalMs", DEFAULT_VALIDATION_INTERVAL_MS));
+    }
+
+    // Registered statements are prepared once per connection and reused; set before start()
+    public void setStatementCache(StatementCache statementCache) {
+        this.statementCache = statementCache;
+    }
+
+    public StatementCache getStatementCache() {
+        return statementCache;
+    }
+
+    // Every statement run on connections opened from now on is traced; set before start()
+    public void setSqlTrace(SqlTrace sqlTrace) {
+        this.sqlTrace = sqlTrace;
+    }
+
+    public SqlTrace getSqlTrace() {
+        return sqlTrace;
+    }
+
+    // Opens the minimum number of connections and starts idle eviction.
+    // Fails fast if the database cannot be reached at all.
+    public void start() throws SQLException {
+        idle.offerLast(createConnection());
+        fillToMinimum();
+        evictor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                evictIdleConnections();
+            }
+        }, EVICTION_PERIOD_MS, EVICTION_PERIOD_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+
+        long waitStart = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+        if (!acquired) {
+            timeoutCount.incrementAndGet();
+            throw new SQLTransientConnectionException(
+                "Timed out after " + maxWaitMillis + " ms waiting for a database connection (" + getStats() + ")");
+        }
+        recordWait(System.nanoTime() - waitStart);
+
+        try {
+            PooledConnection pooled;
+            while ((pooled = idle.pollFirst()) != null) {
+                if (isUsable(pooled)) {
+                    return pooled.lease();
+                }
+                validationFailures.incrementAndGet();
+                destroy(pooled);
+            }
+            return createConnection().lease();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private boolean isUsable(PooledConnection pooled) {
+        if (System.currentTimeMillis() - pooled.lastUsed < validationIntervalMillis) {
+            return true;
+        }
+        try {
+            return pooled.physical.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private PooledConnection createConnection() throws SQLException {
+        Connection physical = DriverManager.getConnection(url, user, password);
+        SqlTrace trace = sqlTrace;
+        if (trace != null) {
+            // Under the statement cache, so each execution of a cached statement is recorded
+            physical = trace.wrap(physical);
+        }
+        totalConnections.incrementAndGet();
+        createdCount.incrementAndGet();
+        return new PooledConnection(physical);
+    }
+
+    private void destroy(PooledConnection pooled) {
+        totalConnections.decrementAndGet();
+        if (pooled.statements != null) {
+            pooled.statements.closeAll();
+        }
+        try {
+            pooled.physical.close();
+        } catch (SQLException e) {
+            // Already broken, nothing left to release
+        }
+    }
+
+    private void release(PooledConnection pooled) {
+        boolean reusable = !closed;
+        try {
+            if (reusable && pooled.physical.isClosed()) {
+                reusable = false;
+            }
+            if (reusable && !pooled.physical.getAutoCommit()) {
+                pooled.physical.rollback();
+                pooled.physical.setAutoCommit(true);
+            }
+            if (reusable) {
+                pooled.physical.clearWarnings();
+            }
+        } catch (SQLException e) {
+            reusable = false;
+        }
+
+        if (reusable) {
+            pooled.lastUsed = System.currentTimeMillis();
+            idle.offerFirst(pooled);
+        } else {
+            destroy(pooled);
+        }
+        permits.release();
+    }
+
+    private void recordWait(long nanos) {
+        borrowCount.incrementAndGet();
+        totalWaitNanos.addAndGet(nanos);
+        long max = maxWaitNanos.get();
+        while (nanos > max && !maxWaitNanos.compareAndSet(max, nanos)) {
+            max = maxWaitNanos.get();
+        }
+    }
+
+    // Closes connections idle for longer than the idle timeout, keeping at least minSize open
+    void evictIdleConnections() {
+        long now = System.currentTimeMillis();
+        Iterator<PooledConnection> oldestFirst = idle.descendingIterator();
+        while (oldestFirst.hasNext() && totalConnections.get() > minSize) {
+            PooledConnection pooled = oldestFirst.next();
+            if (now - pooled.lastUsed >= idleTimeoutMillis && idle.removeLastOccurrence(pooled)) {
+                evictedCount.incrementAndGet();
+                destroy(pooled);
+            }
+        }
+        try {
+            fillToMinimum();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void fillToMinimum() throws SQLException {
+        while (!closed && totalConnections.get() < minSize) {
+            idle.offerLast(createConnection());
+        }
+    }
+
+    public void close() {
+        closed = true;
+        evictor.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            destroy(pooled);
+        }
+    }
+
+    public int getTotalCount() {
+        return totalConnections.get();
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    public int getActiveCount() {
+        return maxSize - permits.availablePermits();
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    public double getAverageWaitMillis() {
+        long borrows = borrowCount.get();
+        return borrows == 0 ? 0 : totalWaitNanos.get() / 1_000_000.0 / borrows;
+    }
+
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1_000_000.0;
+    }
+
+    public String getStats() {
+        return String.format("active=%d, idle=%d, total=%d/%d, borrows=%d, avgWait=%.2fms, maxWait=%.2fms, " +
+                "timeouts=%d, created=%d, evicted=%d, validationFailures=%d",
+            getActiveCount(), getIdleCount(), getTotalCount(), maxSize, borrowCount.get(),
+            getAverageWaitMillis(), getMaxWaitMillis(), timeoutCount.get(), createdCount.get(),
+            evictedCount.get(), validationFailures.get());
+    }
+
+    // A physical connection owned by the pool
+    private class PooledConnection {
+        final Connection physical;
+        final StatementCache.ConnectionStatements statements;
+        volatile long lastUsed = System.currentTimeMillis();
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+            this.statements = statementCache == null ? null : statementCache.forConnection(physical);
+        }
+
+        // Hands out a wrapper whose close() returns this connection to the pool
+        Connection lease() {
+            return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[] { Connection.class },
+                new LeaseHandler(this));
+        }
+    }
+
+    private class LeaseHandler implements InvocationHandler {
+        private final PooledConnection pooled;
+        // Uncached statements opened through this lease, closed on return if the caller forgot
+        private final List<Statement> openStatements = new ArrayList<>();
+        private boolean returned = false;
+
+        LeaseHandler(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public synchronized Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("close")) {
+                if (!returned) {
+                    returned = true;
+                    closeLeakedStatements();
+                    release(pooled);
+                }
+                return null;
+            }
+            if (name.equals("isClosed")) {
+                return returned || pooled.physical.isClosed();
+            }
+            if (name.equals("equals")) {
+                return proxy == args[0];
+            }
+            if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            }
+            if (name.equals("toString")) {
+                return "PooledConnection[" + pooled.physical + "]";
+            }
+            if (returned) {
+                throw new SQLException("Connection has already been returned to the pool");
+            }
+            if (name.equals("prepareStatement") && pooled.statements != null
+                    && statementCache.isCacheable((String) args[0])) {
+                if (args.length == 1) {
+                    return pooled.statements.checkOut((String) args[0], Statement.NO_GENERATED_KEYS);
+                }
+                if (args.length == 2 && args[1] instanceof Integer) {
+                    return pooled.statements.checkOut((String) args[0], (Integer) args[1]);
+                }
+            }
+            try {
+                Object result = method.invoke(pooled.physical, args);
+                if (result instanceof Statement) {
+                    openStatements.add((Statement) result);
+                }
+                return result;
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        private void closeLeakedStatements() {
+            int leaked = 0;
+            for (Statement statement : openStatements) {
+                try {
+                    if (!statement.isClosed()) {
+                        leaked++;
+                        statement.close();
+                    }
+                } catch (SQLException e) {
+                    // The connection's own validation decides whether it is still usable
+                }
+            }
+            openStatements.clear();
+            if (pooled.statements != null) {
+                leaked += pooled.statements.reclaimLeaked();
+            }
+            if (leaked > 0 && statementCache != null) {
+                statementCache.recordLeaks(leaked);
+            }
+        }
+    }
+}
@@ -0,0 +1,186 @@
+import javax.swing.JComponent;
+import javax.swing.SwingUtilities;
+import java.awt.Component;
+import java.awt.Cursor;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+// Runs JDBC work on a bounded background executor so the Swing event thread never waits on the database.
+// Each task gets its own pooled connection; results are handed back on the event thread.
+class DataAccess {
+
+    static final int QUEUE_CAPACITY = 500;
+
+    // Work that needs a database connection
+    interface SqlTask<T> {
+        T run(Connection connection) throws SQLException;
+    }
+
+    // Work that must stay off the event thread but manages its own resources, e.g. a dispatch call
+    interface Task<T> {
+        T run() throws Exception;
+    }
+
+    // Receives the outcome of a task on the Swing event thread
+    abstract static class UiCallback<T> {
+        abstract void onSuccess(T result);
+
+        void onFailure(Throwable error) {
+            // Already logged by submit()
+        }
+    }
+
+    // Runs tasks on the event thread
+    static final Executor EDT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            SwingUtilities.invokeLater(command);
+        }
+    };
+
+    private static ConnectionPool pool;
+    private static ThreadPoolExecutor executor;
+
+    // Threads default to the pool's maximum size. DeltaSync, DriverStatsWriter, EarningsBuckets, RideArchiver,
+    // RideSearchIndex and DispatchService handlers borrow from the same pool, so while they hold connections
+    // a worker can still wait for one, up to -Dride.pool.maxWaitMs.
+    static void start(ConnectionPool connectionPool) {
+        pool = connectionPool;
+        int threads = Integer.getInteger("ride.dataAccess.threads", ConnectionPool.DEFAULT_MAX_SIZE);
+        final AtomicInteger threadNumber = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY),
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "data-access-" + threadNumber.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    // Runs the task off the event thread. Failures are logged and complete the future exceptionally.
+    static <T> CompletableFuture<T> submit(final SqlTask<T> task) {
+        return execute(new Supplier<T>() {
+            @Override
+            public T get() {
+                try (Connection connection = pool.getConnection()) {
+                    return task.run(connection);
+                } catch (SQLException e) {
+                    throw new CompletionException(e);
+                }
+            }
+        });
+    }
+
+    static <T> CompletableFuture<T> submit(final Task<T> task) {
+        return execute(new Supplier<T>() {
+            @Override
+            public T get() {
+                try {
+                    return task.run();
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }
+        });
+    }
+
+    private static <T> CompletableFuture<T> execute(Supplier<T> work) {
+        CompletableFuture<T> future;
+        try {
+            future = CompletableFuture.supplyAsync(work, executor);
+        } catch (RuntimeException e) {
+            // Queue full or executor shut down
+            future = new CompletableFuture<>();
+            future.completeExceptionally(new SQLException("Database is busy, please try again", e));
+        }
+        return future.whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T result, Throwable error) {
+                if (error != null) {
+                    unwrap(error).printStackTrace();
+                }
+            }
+        });
+    }
+
+    // Runs the task in the background while the window shows a busy cursor and the given controls are
+    // disabled, then reports the outcome on the event thread. Must be called from the event thread.
+    static <T> CompletableFuture<T> submit(SqlTask<T> task, UiCallback<T> callback,
+                                           Component window, JComponent... busyControls) {
+        return deliver(submit(task), callback, window, busyControls);
+    }
+
+    static <T> CompletableFuture<T> submit(Task<T> task, UiCallback<T> callback,
+                                           Component window, JComponent... busyControls) {
+        return deliver(submit(task), callback, window, busyControls);
+    }
+
+    private static <T> CompletableFuture<T> deliver(CompletableFuture<T> future, final UiCallback<T> callback,
+                                                    final Component window, final JComponent... busyControls) {
+        final boolean[] wasEnabled = new boolean[busyControls.length];
+        for (int i = 0; i < busyControls.length; i++) {
+            wasEnabled[i] = busyControls[i].isEnabled();
+            busyControls[i].setEnabled(false);
+        }
+        if (window != null) {
+            window.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        }
+
+        future.whenCompleteAsync(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T result, Throwable error) {
+                for (int i = 0; i < busyControls.length; i++) {
+                    busyControls[i].setEnabled(wasEnabled[i]);
+                }
+                if (window != null) {
+                    window.setCursor(Cursor.getDefaultCursor());
+                }
+                if (error == null) {
+                    callback.onSuccess(result);
+                } else {
+                    callback.onFailure(unwrap(error));
+                }
+            }
+        }, EDT);
+        return future;
+    }
+
+    static Throwable unwrap(Throwable error) {
+        while (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+
+    // Lets queued writes finish before the pool closes
+    static void shutdown() {
+        if (executor == null) {
+            return;
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                System.out.println("Data access: " + executor.getQueue().size() + " task(s) dropped at shutdown");
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
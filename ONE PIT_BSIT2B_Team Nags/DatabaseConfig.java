@@ -0,0 +1,74 @@
+// Which database the application uses. The default is the XAMPP MySQL server. -Dride.db=memory or
+// -Dride.db=file switch to an embedded H2 database in MySQL mode, which runs the same migrations and
+// queries with no server to install, so demos, the load simulator and benchmarks start in
+// milliseconds. -Dride.db.url, -Dride.db.user and -Dride.db.password override the chosen mode.
+class DatabaseConfig {
+
+    static final String MYSQL_URL = "jdbc:mysql://localhost:3306/ride_assist_db?useServerPrepStmts=true";
+    // MySQL mode accepts the schema's AUTO_INCREMENT and ON UPDATE columns; lower-case names match
+    // what the queries read back
+    static final String H2_OPTIONS = ";MODE=MySQL;DATABASE_TO_LOWER=TRUE";
+    static final String DEFAULT_FILE = "./ride_assist_db";
+
+    final String url;
+    final String user;
+    final String password;
+    // H2 rather than MySQL, in memory or in a file, so there is no XAMPP server to check on
+    final boolean embedded;
+
+    DatabaseConfig(String url, String user, String password) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.embedded = url.startsWith("jdbc:h2:");
+    }
+
+    static DatabaseConfig mysql() {
+        return new DatabaseConfig(MYSQL_URL, "root", "");
+    }
+
+    // Lives until the JVM exits, even while no connection is open
+    static DatabaseConfig memory(String name) {
+        return new DatabaseConfig("jdbc:h2:mem:" + name + H2_OPTIONS + ";DB_CLOSE_DELAY=-1", "sa", "");
+    }
+
+    // Kept in path.mv.db. AUTO_SERVER lets a second process, e.g. a DispatchService and a desktop,
+    // open the same file.
+    static DatabaseConfig file(String path) {
+        return new DatabaseConfig("jdbc:h2:file:" + path + H2_OPTIONS + ";AUTO_SERVER=TRUE", "sa", "");
+    }
+
+    static DatabaseConfig fromSystemProperties() {
+        String mode = System.getProperty("ride.db", "mysql");
+        DatabaseConfig config;
+        if (mode.equals("mysql")) {
+            config = mysql();
+        } else if (mode.equals("memory")) {
+            config = memory("ride_assist_db");
+        } else if (mode.equals("file")) {
+            config = file(System.getProperty("ride.db.file", DEFAULT_FILE));
+        } else {
+            throw new IllegalArgumentException("Unknown -Dride.db=" + mode + " (use mysql, memory or file)");
+        }
+        return new DatabaseConfig(System.getProperty("ride.db.url", config.url),
+            System.getProperty("ride.db.user", config.user),
+            System.getProperty("ride.db.password", config.password));
+    }
+
+    // Registers the JDBC driver for the URL. Both drivers also register themselves when on the class
+    // path; this makes a missing one fail with its class name.
+    void loadDriver() throws ClassNotFoundException {
+        if (embedded) {
+            Class.forName("org.h2.Driver");
+        } else if (url.startsWith("jdbc:mysql:")) {
+            Class.forName("com.mysql.cj.jdbc.Driver");
+        }
+    }
+
+    @Override
+    public String toString() {
+        // Up to the options, which would only repeat H2_OPTIONS
+        int options = url.indexOf(';');
+        return options == -1 ? url : url.substring(0, options);
+    }
+}
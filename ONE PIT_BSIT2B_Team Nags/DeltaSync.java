@@ -0,0 +1,359 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Keeps this process's rides and drivers in step with writes made by other instances sharing the
+// database. Every sync interval it reads only the rows whose updated_at is at or after the watermark,
+// plus recorded deletes, and merges them into the registries, so the cost follows the rate of change
+// rather than the size of the tables. Merged ride transitions are published on RideEvents.
+class DeltaSync {
+
+    static final long DEFAULT_INTERVAL_MS = 2000;
+    // A row can commit after a newer row was already read and still carry the older timestamp, so each
+    // read reaches back this far; rows already applied at the same updated_at are skipped
+    static final long OVERLAP_MS = 5000;
+    // Delete records older than this are purged at startup
+    static final long DELETION_RETENTION_MS = 24 * 60 * 60 * 1000L;
+
+    private static final Metrics.Timer SYNC_TIMER = Metrics.timer("db.sync");
+
+    private static ConnectionPool pool;
+    private static ScheduledExecutorService timer;
+    private static long intervalMillis;
+    // Newest change read so far, on the database clock
+    private static Timestamp watermark;
+    // Rows read within the overlap, by "table:id", with the updated_at that was applied
+    private static final Map<String, Timestamp> applied = new HashMap<>();
+
+    // Held while a ride moves between the registries, here and in LocalDispatch, so a merge never decides
+    // on a registry another thread is changing
+    static final Object RIDE_MOVES = new Object();
+    // Rides rated or declined here, with when, by id. A read already running at the time can still bring
+    // back the old row, and with the ride gone from the registries nothing else says it is stale.
+    private static final Map<Integer, Long> closedRides = new HashMap<>();
+
+    // Metrics
+    private static final AtomicLong cycles = new AtomicLong();
+    private static final AtomicLong rowsRead = new AtomicLong();
+    private static final AtomicLong rowsApplied = new AtomicLong();
+    private static final AtomicLong failures = new AtomicLong();
+    private static final AtomicLong totalNanos = new AtomicLong();
+    private static final AtomicLong maxNanos = new AtomicLong();
+
+    // Call before the startup load reads rides and drivers, so nothing written during the load is missed
+    static synchronized void markStart(Connection connection) throws SQLException {
+        watermark = databaseNow(connection);
+    }
+
+    // Interval can be changed with -Dride.sync.intervalMs; 0 turns syncing off for a single instance
+    static synchronized void start(ConnectionPool connectionPool) {
+        pool = connectionPool;
+        intervalMillis = Long.getLong("ride.sync.intervalMs", DEFAULT_INTERVAL_MS);
+        if (intervalMillis <= 0 || watermark == null) {
+            return;
+        }
+        try (Connection connection = pool.getConnection()) {
+            PreparedStatement pstmt = connection.prepareStatement(RideSql.PURGE_DELETIONS);
+            pstmt.setTimestamp(1, new Timestamp(watermark.getTime() - DELETION_RETENTION_MS));
+            pstmt.executeUpdate();
+            pstmt.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+
+        timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "delta-sync");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        timer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                sync();
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Reads and merges everything changed since the last sync
+    static synchronized void sync() {
+        if (pool == null || watermark == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        Timestamp since = new Timestamp(watermark.getTime() - OVERLAP_MS);
+        Timestamp newest = watermark;
+        boolean succeeded = false;
+        try (Connection connection = pool.getConnection()) {
+            // Drivers first, so rides accepted by a new driver can find them
+            PreparedStatement pstmt = connection.prepareStatement(RideSql.DRIVER_CHANGES);
+            pstmt.setTimestamp(1, since);
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                Timestamp updatedAt = rs.getTimestamp("updated_at");
+                newest = later(newest, updatedAt);
+                if (firstSeen("drivers:" + rs.getInt("id"), updatedAt)) {
+                    mergeDriver(RideAssistGUIwithDriver.driverFromRow(rs));
+                }
+            }
+            rs.close();
+            pstmt.close();
+
+            pstmt = connection.prepareStatement(RideSql.RIDE_CHANGES);
+            pstmt.setTimestamp(1, since);
+            rs = pstmt.executeQuery();
+            while (rs.next()) {
+                Timestamp updatedAt = rs.getTimestamp("updated_at");
+                newest = later(newest, updatedAt);
+                if (firstSeen("rides:" + rs.getInt("id"), updatedAt)) {
+                    mergeRide(RideAssistGUIwithDriver.rideFromRow(rs, rs.getString("driver_name")));
+                }
+            }
+            rs.close();
+            pstmt.close();
+
+            pstmt = connection.prepareStatement(RideSql.DELETIONS_SINCE);
+            pstmt.setTimestamp(1, since);
+            rs = pstmt.executeQuery();
+            while (rs.next()) {
+                Timestamp deletedAt = rs.getTimestamp("deleted_at");
+                String table = rs.getString("table_name");
+                int rowId = rs.getInt("row_id");
+                newest = later(newest, deletedAt);
+                if (firstSeen("deleted " + table + ":" + rowId, deletedAt)) {
+                    applyDeletion(table, rowId);
+                }
+            }
+            rs.close();
+            pstmt.close();
+            succeeded = true;
+        } catch (SQLException e) {
+            failures.incrementAndGet();
+            e.printStackTrace();
+            return;
+        } finally {
+            SYNC_TIMER.stop(start, succeeded);
+        }
+
+        watermark = newest;
+        // Rows older than the next read's start can no longer come back
+        Timestamp nextSince = new Timestamp(watermark.getTime() - OVERLAP_MS);
+        Iterator<Timestamp> seen = applied.values().iterator();
+        while (seen.hasNext()) {
+            if (seen.next().before(nextSince)) {
+                seen.remove();
+            }
+        }
+
+        long nanos = System.nanoTime() - start;
+        cycles.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        if (nanos > maxNanos.get()) {
+            maxNanos.set(nanos);
+        }
+    }
+
+    private static boolean firstSeen(String key, Timestamp updatedAt) {
+        rowsRead.incrementAndGet();
+        if (updatedAt.equals(applied.get(key))) {
+            return false;
+        }
+        applied.put(key, updatedAt);
+        rowsApplied.incrementAndGet();
+        return true;
+    }
+
+    private static Timestamp later(Timestamp a, Timestamp b) {
+        return b != null && b.after(a) ? b : a;
+    }
+
+    private static void mergeDriver(RideAssistGUIwithDriver.Driver fresh) {
+        RideAssistGUIwithDriver.Driver driver = RideAssistGUIwithDriver.drivers.getById(fresh.id);
+        if (driver == null) {
+            RideAssistGUIwithDriver.drivers.add(fresh);
+            RideAssistGUIwithDriver.dispatchGrid.update(fresh);
+            return;
+        }
+        if (!driver.username.equals(fresh.username)) {
+            // Re-index under the new username
+            RideAssistGUIwithDriver.drivers.remove(driver);
+            driver.username = fresh.username;
+            RideAssistGUIwithDriver.drivers.add(driver);
+        }
+        driver.name = fresh.name;
+        driver.vehicle = fresh.vehicle;
+        driver.priceRange = fresh.priceRange;
+        driver.password = fresh.password;
+        driver.isAvailable = fresh.isAvailable;
+        driver.latitude = fresh.latitude;
+        driver.longitude = fresh.longitude;
+        // Totals changed here but not yet written would be overwritten by older values
+        if (!DriverStatsWriter.isDirty(driver.id)) {
+            synchronized (driver) {
+                driver.totalEarnings = fresh.totalEarnings;
+                driver.totalRides = fresh.totalRides;
+                driver.averageRating = fresh.averageRating;
+            }
+        }
+        RideAssistGUIwithDriver.dispatchGrid.update(driver);
+    }
+
+    // Call when a ride leaves the registries for good in this process
+    static void rideClosed(int rideId) {
+        long now = System.currentTimeMillis();
+        synchronized (RIDE_MOVES) {
+            Iterator<Long> closedAt = closedRides.values().iterator();
+            while (closedAt.hasNext()) {
+                if (closedAt.next() < now - OVERLAP_MS) {
+                    closedAt.remove();
+                }
+            }
+            closedRides.put(rideId, now);
+        }
+    }
+
+    // Where a status is in the ride lifecycle; a ride only ever moves forward
+    private static int lifecycleRank(String status) {
+        if ("PENDING".equals(status)) {
+            return 0;
+        } else if ("ACCEPTED".equals(status)) {
+            return 1;
+        } else if ("COMPLETED".equals(status)) {
+            return 2;
+        } else if ("RATED".equals(status)) {
+            return 3;
+        }
+        return -1;
+    }
+
+    // Moves the ride to the registry for its new status. A row no further along than the ride here, or
+    // older than the copy here, was read before a transition already applied and is left alone; that
+    // also skips this process's own writes.
+    private static void mergeRide(RideAssistGUIwithDriver.RideRequest fresh) {
+        synchronized (RIDE_MOVES) {
+            moveRide(fresh);
+        }
+    }
+
+    private static void moveRide(RideAssistGUIwithDriver.RideRequest fresh) {
+        RideAssistGUIwithDriver.RideRequest current = RideAssistGUIwithDriver.pendingRideRequests.get(fresh.id);
+        if (current == null) {
+            current = RideAssistGUIwithDriver.activeRides.get(fresh.id);
+        }
+        if (current == null) {
+            current = RideAssistGUIwithDriver.ridesAwaitingRating.get(fresh.id);
+        }
+        if (current == null && closedRides.containsKey(fresh.id) && !"RATED".equals(fresh.status)) {
+            // Rated or declined here after the row was read
+            return;
+        }
+        if (current != null && (lifecycleRank(fresh.status) <= lifecycleRank(current.status) ||
+                (current.updatedAt != null && fresh.updatedAt != null && fresh.updatedAt.before(current.updatedAt)))) {
+            return;
+        }
+        if (current != null) {
+            RideAssistGUIwithDriver.pendingRideRequests.remove(current);
+            RideAssistGUIwithDriver.activeRides.remove(current);
+            RideAssistGUIwithDriver.ridesAwaitingRating.remove(current);
+        }
+
+        if ("PENDING".equals(fresh.status)) {
+            RideAssistGUIwithDriver.pendingRideRequests.add(fresh);
+            RideEvents.publish(RideEvents.Type.CREATED, fresh);
+        } else if ("ACCEPTED".equals(fresh.status)) {
+            RideAssistGUIwithDriver.activeRides.add(fresh);
+            RideAssistGUIwithDriver.Driver driver = RideAssistGUIwithDriver.drivers.getById(fresh.driverId);
+            if (driver != null) {
+                driver.isAvailable = false;
+                RideAssistGUIwithDriver.dispatchGrid.update(driver);
+            }
+            RideEvents.publish(RideEvents.Type.ACCEPTED, fresh);
+        } else if ("COMPLETED".equals(fresh.status)) {
+            RideAssistGUIwithDriver.ridesAwaitingRating.add(fresh);
+            RideEvents.publish(RideEvents.Type.COMPLETED, fresh);
+        } else if ("RATED".equals(fresh.status)) {
+            RideAssistGUIwithDriver.rideHistory.invalidate();
+            if (current != null) {
+                RideEvents.publish(RideEvents.Type.RATED, fresh);
+            } else {
+                RideSearchIndex.finished(fresh.id);
+            }
+        }
+    }
+
+    private static void applyDeletion(String table, int rowId) {
+        if ("rides".equals(table)) {
+            synchronized (RIDE_MOVES) {
+                RideAssistGUIwithDriver.RideRequest ride = RideAssistGUIwithDriver.pendingRideRequests.get(rowId);
+                if (RideAssistGUIwithDriver.pendingRideRequests.remove(ride)) {
+                    ride.status = "DECLINED";
+                    RideEvents.publish(RideEvents.Type.DECLINED, ride);
+                }
+            }
+        } else if ("drivers".equals(table)) {
+            RideAssistGUIwithDriver.Driver driver = RideAssistGUIwithDriver.drivers.getById(rowId);
+            if (driver != null) {
+                RideAssistGUIwithDriver.drivers.remove(driver);
+                RideAssistGUIwithDriver.dispatchGrid.remove(driver);
+            }
+        }
+    }
+
+    // Records a delete for the other instances; call in the same transaction as the DELETE
+    static void recordDeletion(Connection connection, String table, int rowId) throws SQLException {
+        PreparedStatement pstmt = connection.prepareStatement(RideSql.RECORD_DELETION);
+        pstmt.setString(1, table);
+        pstmt.setInt(2, rowId);
+        pstmt.executeUpdate();
+        pstmt.close();
+    }
+
+    private static Timestamp databaseNow(Connection connection) throws SQLException {
+        PreparedStatement pstmt = connection.prepareStatement(RideSql.DATABASE_NOW);
+        ResultSet rs = pstmt.executeQuery();
+        rs.next();
+        Timestamp now = rs.getTimestamp(1);
+        rs.close();
+        pstmt.close();
+        return now;
+    }
+
+    // Waits for a sync in progress, so nothing merges into the registry after the stats writer's last flush.
+    // Waits outside the class lock, which sync() needs to finish.
+    static void shutdown() {
+        ScheduledExecutorService stopping;
+        synchronized (DeltaSync.class) {
+            stopping = timer;
+        }
+        if (stopping == null) {
+            return;
+        }
+        stopping.shutdownNow();
+        try {
+            stopping.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static String getStats() {
+        long cycleCount = cycles.get();
+        return String.format("cycles=%d, rowsRead=%d, rowsApplied=%d, failures=%d, avgCycle=%.2fms, maxCycle=%.2fms, " +
+                "interval=%dms, watermark=%s",
+            cycleCount, rowsRead.get(), rowsApplied.get(), failures.get(),
+            cycleCount == 0 ? 0 : totalNanos.get() / 1_000_000.0 / cycleCount, maxNanos.get() / 1_000_000.0,
+            intervalMillis, watermark);
+    }
+}
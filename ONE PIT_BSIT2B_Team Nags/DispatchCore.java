@@ -0,0 +1,60 @@
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+
+// Everything that reads or changes live ride and driver state. LocalDispatch runs it in this JVM;
+// RemoteDispatch forwards it to a DispatchService, so several desktops can share one set of rides.
+// Objects handed back by a remote core are copies: change state only through these calls.
+interface DispatchCore {
+
+    // Outcome of a driver trying to claim a pending ride
+    enum ClaimResult { CLAIMED, ALREADY_TAKEN, DRIVER_UNAVAILABLE }
+
+    // Rides
+
+    RideAssistGUIwithDriver.RideRequest requestRide(int passengerId, String passengerName, String passengerNumber,
+                                                    String from, String to) throws SQLException, IOException;
+
+    List<RideAssistGUIwithDriver.RideRequest> pendingRides() throws SQLException, IOException;
+
+    List<RideAssistGUIwithDriver.RideRequest> activeRides() throws SQLException, IOException;
+
+    // Completed rides whose passenger has not rated them yet
+    List<RideAssistGUIwithDriver.RideRequest> ridesAwaitingRating() throws SQLException, IOException;
+
+    // The passenger's pending and accepted rides, and completed rides still waiting for a rating
+    List<RideAssistGUIwithDriver.RideRequest> ridesForPassenger(int passengerId) throws SQLException, IOException;
+
+    ClaimResult acceptRide(int rideId, int driverId) throws SQLException, IOException;
+
+    // False if the ride was no longer pending
+    boolean declineRide(int rideId) throws SQLException, IOException;
+
+    // Completes the driver's current ride; null if the driver has none
+    RideAssistGUIwithDriver.RideRequest completeRide(int driverId) throws SQLException, IOException;
+
+    // Rates a completed ride and frees its driver; null if the ride is not waiting for a rating
+    RideAssistGUIwithDriver.RideRequest rateRide(int rideId, int rating) throws SQLException, IOException;
+
+    // Drivers
+
+    List<RideAssistGUIwithDriver.Driver> drivers() throws SQLException, IOException;
+
+    RideAssistGUIwithDriver.Driver getDriver(int driverId) throws SQLException, IOException;
+
+    // The driver if the username and password match, otherwise null
+    RideAssistGUIwithDriver.Driver driverLogin(String username, String password) throws SQLException, IOException;
+
+    RideAssistGUIwithDriver.Driver setDriverAvailable(int driverId, boolean available) throws SQLException, IOException;
+
+    RideAssistGUIwithDriver.Driver setDriverLocation(int driverId, double latitude, double longitude)
+        throws SQLException, IOException;
+
+    RideAssistGUIwithDriver.Driver addDriver(String name, String vehicle, String priceRange, String username,
+                                             String password) throws SQLException, IOException;
+
+    boolean removeDriver(int driverId) throws SQLException, IOException;
+
+    // Up to k available drivers near the point, closest first
+    List<DriverGrid.Match> nearestDrivers(double latitude, double longitude, int k) throws SQLException, IOException;
+}
@@ -0,0 +1,550 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Headless process that owns the live ride and driver state and serves it to desktop clients as JSON
+// over HTTP, so every terminal sees the same rides. Start it with
+//   java DispatchService [port]
+// and point the desktops at it with -Dride.service.url=http://localhost:8085 (see RemoteDispatch).
+// Binds to the loopback interface only. GET /stats reports per-endpoint throughput and latency.
+// GET /events long-polls ride lifecycle events, holding a handler thread per waiting desktop, so
+// -Dride.service.threads should stay well above the number of desktops.
+class DispatchService {
+
+    static final int DEFAULT_PORT = 8085;
+    static final int DEFAULT_THREADS = 16;
+    // How long GET /events waits for a new event before answering with none
+    static final long EVENT_WAIT_MS = 20000;
+
+    private final DispatchCore core;
+    private final Map<String, EndpointStats> stats = new LinkedHashMap<>();
+    private final long startedNanos = System.nanoTime();
+    private HttpServer server;
+    private ExecutorService executor;
+    // The service main() started in this JVM, stopped by the shutdown hook
+    private static DispatchService running;
+
+    // Request count and latency for one endpoint
+    private static class EndpointStats {
+        final AtomicLong requests = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong totalNanos = new AtomicLong();
+        final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long nanos, boolean failed) {
+            requests.incrementAndGet();
+            if (failed) {
+                errors.incrementAndGet();
+            }
+            totalNanos.addAndGet(nanos);
+            long max = maxNanos.get();
+            while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+                max = maxNanos.get();
+            }
+        }
+    }
+
+    // One endpoint: reads its parameters and returns the value to send back as JSON
+    private abstract class Endpoint implements HttpHandler {
+        final String path;
+        final String method;
+        final EndpointStats endpointStats = new EndpointStats();
+
+        Endpoint(String method, String path) {
+            this.method = method;
+            this.path = path;
+        }
+
+        abstract Object handle(Map<String, Object> params) throws Exception;
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            long start = System.nanoTime();
+            int status = 200;
+            Object body;
+            try {
+                if (!exchange.getRequestURI().getPath().equals(path)) {
+                    status = 404;
+                    body = error("No such endpoint: " + exchange.getRequestURI().getPath());
+                } else if (!exchange.getRequestMethod().equalsIgnoreCase(method)) {
+                    status = 405;
+                    body = error(path + " expects " + method);
+                } else {
+                    body = handle(readParams(exchange));
+                }
+            } catch (IllegalArgumentException e) {
+                status = 400;
+                body = error(e.getMessage());
+            } catch (Exception e) {
+                e.printStackTrace();
+                status = 500;
+                body = error(e.getMessage());
+            }
+
+            byte[] bytes = Json.write(body).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(status, bytes.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(bytes);
+            out.close();
+            endpointStats.record(System.nanoTime() - start, status != 200);
+        }
+    }
+
+    DispatchService(DispatchCore core) {
+        this.core = core;
+    }
+
+    void start(int port, int threads) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        final AtomicInteger threadNumber = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "dispatch-http-" + threadNumber.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        server.setExecutor(executor);
+
+        add(new Endpoint("POST", "/rides") {
+            @Override
+            Object handle(Map<String, Object> params) throws Exception {
+                return rideToJson(core.requestRide(intParam(params, "passengerId"), stringParam(params, "passengerName"),
+                    stringParam(params, "passengerNumber"), stringParam(params, "from"), stringParam(params, "to")));
+            }
+        });
+        add(new Endpoint("GET", "/rides/pending") {
+            @Override
+            Object handle(Map<String, Object> params) throws Exception {
+                return ridesToJson(core.pendingRides());
+            }
+        });
+        add(new Endpoint("GET", "/rides/active") {
+            @Override
+            Object handle(Map<String, Object> params) throws Exception {
+                return ridesToJson(core.activeRides());
+            }
+        });
+        add(new Endpoint("GET", "/rides/awaiting-rating") {
+            @Override
+            Object handle(Map<String, Object> params) throws Exception {
+                return ridesToJson(core.ridesAwaitingRating());
+            }
+        });
+        add(new Endpoint("GET", "/rides/passenger") {
+            @Override
+            Object handle(Map<String, Object> params) throws Exception {
+                return ridesToJson(core.ridesForPassenger(intParam(params, "passengerId")));
+            }
+        });
+        add(new Endpoint("POST", "/rides/accept") {
+            @Override
+            Object handle(Map<String, Object> params) throws Exception {
+                return core.acceptRide(intParam(params, "rideId"), intParam(params, "driverId")).name();
+            }
+        });
+        add(new Endpoint("POST", "/rides/decline") {
+            @Override
+            Object handle(Map<String, Object> params) throws Exception {
+                return core.declineRide(intParam(params, "rideId"));
+            }
+        });
+        add(new Endpoint("POST", "/rides/complete") {
+            @Override
+            Object handle(Map<String, Object> params) throws Exception {
+                return rideToJson(core.completeRide(intParam(params, "driverId")));
+            }
+        });
+        add(new Endpoint("POST", "/rides/rate") {
+            @Override
+            Object handle(Map<String, Object> params) throws Exception {
+                int rating = intParam(params, "rating");
+                if (rating < 1 || rating > 5) {
+                    throw new IllegalArgumentException("rating must be 1-5");
+                }
+                return rideToJson(core.rateRide(intParam(params, "rideId"), rating));
+            }
+        });
+        add(new Endpoint("GET", "/drivers") {
+            @Override
+            Object handle(Map<String, Object> params) throws Exception {
+                List<Object> list = new ArrayList<>();
+                for (RideAssistGUIwithDriver.Driver driver : core.drivers()) {
+                    list.add(driverToJson(driver));
+                }
+                return list;
+            }
+        });
+        add(new Endpoint("GET", "/drivers/get") {
+            @Override
+            Object handle(Map<String, Object> params) throws Exception {
+                return driverToJson(core.getDriver(intParam(params, "driverId")));
+            }
+        });
+        add(new Endpoint("POST", "/drivers/login") {
+            @Override
+            Object handle(Map<String, Object> params) throws Exception {
+                return driverToJson(core.driverLogin(stringParam(params, "username"), stringParam(params, "password")));
+            }
+        });
+        add(new Endpoint("POST", "/drivers/availability") {
+            @Override
+            Object handle(Map<String, Object> params) throws Exception {
+                return driverToJson(core.setDriverAvailable(intParam(params, "driverId"), booleanParam(params, "available")));
+            }
+        });
+        add(new Endpoint("POST", "/drivers/location") {
+            @Override
+            Object handle(Map<String, Object> params) throws Exception {
+                return driverToJson(core.setDriverLocation(intParam(params, "driverId"),
+                    doubleParam(params, "latitude"), doubleParam(params, "longitude")));
+            }
+        });
+        add(new Endpoint("POST", "/drivers/add") {
+            @Override
+            Object handle(Map<String, Object> params) throws Exception {
+                return driverToJson(core.addDriver(stringParam(params, "name"), stringParam(params, "vehicle"),
+                    stringParam(params, "priceRange"), stringParam(params, "username"), stringParam(params, "password")));
+            }
+        });
+        add(new Endpoint("POST", "/drivers/remove") {
+            @Override
+            Object handle(Map<String, Object> params) throws Exception {
+                return core.removeDriver(intParam(params, "driverId"));
+            }
+        });
+        add(new Endpoint("GET", "/drivers/nearest") {
+            @Override
+            Object handle(Map<String, Object> params) throws Exception {
+                List<Object> list = new ArrayList<>();
+                for (DriverGrid.Match match : core.nearestDrivers(doubleParam(params, "latitude"),
+                        doubleParam(params, "longitude"), intParam(params, "k"))) {
+                    Map<String, Object> json = new LinkedHashMap<>();
+                    json.put("driver", driverToJson(match.driver));
+                    json.put("distanceKm", match.distanceKm);
+                    list.add(json);
+                }
+                return list;
+            }
+        });
+        add(new Endpoint("GET", "/events") {
+            @Override
+            Object handle(Map<String, Object> params) throws Exception {
+                long after = longParam(params, "after");
+                // A client ahead of us saw a previous run of the service; answer at once so it can resync
+                long wait = after > RideEvents.lastSequence() ? 0 : EVENT_WAIT_MS;
+                List<Object> events = new ArrayList<>();
+                for (RideEvents.Event event : RideEvents.eventsAfter(after, wait)) {
+                    events.add(eventToJson(event));
+                }
+                Map<String, Object> json = new LinkedHashMap<>();
+                json.put("lastSequence", RideEvents.lastSequence());
+                json.put("events", events);
+                return json;
+            }
+        });
+        add(new Endpoint("GET", "/stats") {
+            @Override
+            Object handle(Map<String, Object> params) {
+                return getStats();
+            }
+        });
+
+        server.start();
+    }
+
+    private void add(Endpoint endpoint) {
+        stats.put(endpoint.method + " " + endpoint.path, endpoint.endpointStats);
+        server.createContext(endpoint.path, endpoint);
+    }
+
+    // Stops the service main() started, if any, so no request changes a driver after the final stats flush
+    static synchronized void stopRunning() {
+        if (running != null) {
+            running.stop();
+            running = null;
+        }
+    }
+
+    void stop() {
+        server.stop(1);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Requests, errors, requests/second since start and latency per endpoint
+    Map<String, Object> getStats() {
+        double seconds = (System.nanoTime() - startedNanos) / 1e9;
+        long total = 0;
+        Map<String, Object> endpoints = new LinkedHashMap<>();
+        for (Map.Entry<String, EndpointStats> entry : stats.entrySet()) {
+            EndpointStats endpoint = entry.getValue();
+            long requests = endpoint.requests.get();
+            total += requests;
+            if (requests == 0) {
+                continue;
+            }
+            Map<String, Object> json = new LinkedHashMap<>();
+            json.put("requests", requests);
+            json.put("errors", endpoint.errors.get());
+            json.put("perSecond", requests / seconds);
+            json.put("avgMs", endpoint.totalNanos.get() / 1e6 / requests);
+            json.put("maxMs", endpoint.maxNanos.get() / 1e6);
+            endpoints.put(entry.getKey(), json);
+        }
+
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("uptimeSeconds", seconds);
+        json.put("requests", total);
+        json.put("perSecond", total / seconds);
+        json.put("endpoints", endpoints);
+        if (RideAssistGUIwithDriver.pool != null) {
+            json.put("connectionPool", RideAssistGUIwithDriver.pool.getStats());
+        }
+        return json;
+    }
+
+    // Wire format
+
+    static Map<String, Object> rideToJson(RideAssistGUIwithDriver.RideRequest ride) {
+        if (ride == null) {
+            return null;
+        }
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("id", ride.id);
+        json.put("passengerName", ride.passengerName);
+        json.put("passengerNumber", ride.passengerNumber);
+        json.put("from", ride.from);
+        json.put("to", ride.to);
+        json.put("status", ride.status);
+        json.put("driverAssigned", ride.driverAssigned);
+        json.put("fare", ride.fare);
+        json.put("rating", ride.rating);
+        json.put("passengerId", ride.passengerId);
+        json.put("driverId", ride.driverId);
+        json.put("pickupLat", ride.pickupLat);
+        json.put("pickupLon", ride.pickupLon);
+        return json;
+    }
+
+    static RideAssistGUIwithDriver.RideRequest rideFromJson(Object value) {
+        if (value == null) {
+            return null;
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, Object> json = (Map<String, Object>) value;
+        RideAssistGUIwithDriver.RideRequest ride = new RideAssistGUIwithDriver.RideRequest(
+            intParam(json, "id"), (String) json.get("passengerName"), (String) json.get("passengerNumber"),
+            (String) json.get("from"), (String) json.get("to"), (String) json.get("status"),
+            (String) json.get("driverAssigned"), intParam(json, "fare"), intParam(json, "rating"),
+            intParam(json, "passengerId"), intParam(json, "driverId"));
+        ride.pickupLat = coordinate(json, "pickupLat");
+        ride.pickupLon = coordinate(json, "pickupLon");
+        return ride;
+    }
+
+    static List<Object> ridesToJson(List<RideAssistGUIwithDriver.RideRequest> rides) {
+        List<Object> list = new ArrayList<>();
+        for (RideAssistGUIwithDriver.RideRequest ride : rides) {
+            list.add(rideToJson(ride));
+        }
+        return list;
+    }
+
+    static Map<String, Object> eventToJson(RideEvents.Event event) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("sequence", event.sequence);
+        json.put("type", event.type.name());
+        json.put("ride", rideToJson(event.ride));
+        return json;
+    }
+
+    static RideEvents.Event eventFromJson(Object value) {
+        @SuppressWarnings("unchecked")
+        Map<String, Object> json = (Map<String, Object>) value;
+        return new RideEvents.Event(longParam(json, "sequence"), RideEvents.Type.valueOf(stringParam(json, "type")),
+            rideFromJson(json.get("ride")));
+    }
+
+    // Never includes the password
+    static Map<String, Object> driverToJson(RideAssistGUIwithDriver.Driver driver) {
+        if (driver == null) {
+            return null;
+        }
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("id", driver.id);
+        json.put("name", driver.name);
+        json.put("vehicle", driver.vehicle);
+        json.put("priceRange", driver.priceRange);
+        json.put("username", driver.username);
+        json.put("isAvailable", driver.isAvailable);
+        synchronized (driver) {
+            json.put("totalEarnings", driver.totalEarnings);
+            json.put("totalRides", driver.totalRides);
+            json.put("averageRating", driver.averageRating);
+        }
+        json.put("latitude", driver.latitude);
+        json.put("longitude", driver.longitude);
+        return json;
+    }
+
+    static RideAssistGUIwithDriver.Driver driverFromJson(Object value) {
+        if (value == null) {
+            return null;
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, Object> json = (Map<String, Object>) value;
+        RideAssistGUIwithDriver.Driver driver = new RideAssistGUIwithDriver.Driver(intParam(json, "id"),
+            (String) json.get("name"), (String) json.get("vehicle"), (String) json.get("priceRange"),
+            (String) json.get("username"), null);
+        driver.isAvailable = booleanParam(json, "isAvailable");
+        driver.totalEarnings = doubleParam(json, "totalEarnings");
+        driver.totalRides = intParam(json, "totalRides");
+        driver.averageRating = doubleParam(json, "averageRating");
+        driver.latitude = coordinate(json, "latitude");
+        driver.longitude = coordinate(json, "longitude");
+        return driver;
+    }
+
+    // Parameters arrive as JSON values in a POST body or as strings in a GET query
+
+    private static Map<String, Object> readParams(HttpExchange exchange) throws IOException {
+        if ("POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+            InputStream in = exchange.getRequestBody();
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                body.write(buffer, 0, read);
+            }
+            String text = body.toString("UTF-8").trim();
+            if (text.isEmpty()) {
+                return new LinkedHashMap<>();
+            }
+            Object parsed = Json.parse(text);
+            if (!(parsed instanceof Map)) {
+                throw new IllegalArgumentException("Request body must be a JSON object");
+            }
+            @SuppressWarnings("unchecked")
+            Map<String, Object> params = (Map<String, Object>) parsed;
+            return params;
+        }
+
+        Map<String, Object> params = new LinkedHashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query != null) {
+            for (String pair : query.split("&")) {
+                int eq = pair.indexOf('=');
+                if (eq > 0) {
+                    params.put(decode(pair.substring(0, eq)), decode(pair.substring(eq + 1)));
+                }
+            }
+        }
+        return params;
+    }
+
+    private static String decode(String s) throws UnsupportedEncodingException {
+        return URLDecoder.decode(s, "UTF-8");
+    }
+
+    private static Object required(Map<String, Object> params, String name) {
+        if (!params.containsKey(name) || params.get(name) == null) {
+            throw new IllegalArgumentException("Missing parameter: " + name);
+        }
+        return params.get(name);
+    }
+
+    static String stringParam(Map<String, Object> params, String name) {
+        return required(params, name).toString();
+    }
+
+    static int intParam(Map<String, Object> params, String name) {
+        Object value = required(params, name);
+        try {
+            return value instanceof Number ? ((Number) value).intValue() : Integer.parseInt(value.toString());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Parameter " + name + " must be a number");
+        }
+    }
+
+    static long longParam(Map<String, Object> params, String name) {
+        Object value = required(params, name);
+        try {
+            return value instanceof Number ? ((Number) value).longValue() : Long.parseLong(value.toString());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Parameter " + name + " must be a number");
+        }
+    }
+
+    static double doubleParam(Map<String, Object> params, String name) {
+        Object value = required(params, name);
+        try {
+            return value instanceof Number ? ((Number) value).doubleValue() : Double.parseDouble(value.toString());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Parameter " + name + " must be a number");
+        }
+    }
+
+    static boolean booleanParam(Map<String, Object> params, String name) {
+        Object value = required(params, name);
+        return value instanceof Boolean ? (Boolean) value : Boolean.parseBoolean(value.toString());
+    }
+
+    // Unknown coordinates travel as null
+    private static double coordinate(Map<String, Object> json, String name) {
+        Object value = json.get(name);
+        return value instanceof Number ? ((Number) value).doubleValue() : Double.NaN;
+    }
+
+    static Map<String, Object> error(String message) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("error", message);
+        return json;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : Integer.getInteger("ride.service.port", DEFAULT_PORT);
+        int threads = Integer.getInteger("ride.service.threads", DEFAULT_THREADS);
+
+        // Same startup phases as the desktop, without the UI
+        RideAssistGUIwithDriver.startLoading(null);
+        try {
+            RideAssistGUIwithDriver.ridesReady.join();
+        } catch (Exception e) {
+            System.out.println("Dispatch service could not load its data: " + DataAccess.unwrap(e).getMessage());
+            System.exit(1);
+        }
+
+        DispatchService service = new DispatchService(RideAssistGUIwithDriver.dispatch);
+        service.start(port, threads);
+        synchronized (DispatchService.class) {
+            running = service;
+        }
+        System.out.println("Dispatch service listening on http://localhost:" + port + " with " + threads + " threads");
+    }
+}
@@ -0,0 +1,50 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// All known drivers keyed by database id, with a secondary index on the login username.
+// Rides refer to drivers by id, so two drivers with the same display name are never confused.
+class DriverDirectory {
+
+    private final Map<Integer, RideAssistGUIwithDriver.Driver> byId = new LinkedHashMap<>();
+    private final Map<String, RideAssistGUIwithDriver.Driver> byUsername = new HashMap<>();
+
+    public synchronized void add(RideAssistGUIwithDriver.Driver driver) {
+        remove(byId.get(driver.id));
+        remove(byUsername.get(driver.username));
+        byId.put(driver.id, driver);
+        byUsername.put(driver.username, driver);
+    }
+
+    public synchronized boolean remove(RideAssistGUIwithDriver.Driver driver) {
+        if (driver == null || byId.get(driver.id) != driver) {
+            return false;
+        }
+        byId.remove(driver.id);
+        byUsername.remove(driver.username);
+        return true;
+    }
+
+    public synchronized RideAssistGUIwithDriver.Driver getById(int driverId) {
+        return byId.get(driverId);
+    }
+
+    public synchronized RideAssistGUIwithDriver.Driver getByUsername(String username) {
+        return username == null ? null : byUsername.get(username);
+    }
+
+    public synchronized int size() {
+        return byId.size();
+    }
+
+    public synchronized boolean isEmpty() {
+        return byId.isEmpty();
+    }
+
+    // Copy of all drivers in the order they were added, for building UI lists and reports
+    public synchronized List<RideAssistGUIwithDriver.Driver> snapshot() {
+        return new ArrayList<>(byId.values());
+    }
+}
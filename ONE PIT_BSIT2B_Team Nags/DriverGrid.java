@@ -0,0 +1,145 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Available drivers with a known location, bucketed into a grid of square cells. A nearest-driver query
+// looks at the pickup's cell and then rings of cells around it, stopping as soon as no unvisited cell can
+// hold anyone closer, so it touches only the drivers near the pickup instead of every driver in the city.
+// Call update() whenever a driver's availability or location changes.
+class DriverGrid {
+
+    // About 1.1 km per cell
+    static final double DEFAULT_CELL_DEGREES = 0.01;
+    private static final double KM_PER_DEGREE = Math.PI * Places.EARTH_RADIUS_KM / 180;
+
+    static class Match {
+        final RideAssistGUIwithDriver.Driver driver;
+        final double distanceKm;
+
+        Match(RideAssistGUIwithDriver.Driver driver, double distanceKm) {
+            this.driver = driver;
+            this.distanceKm = distanceKm;
+        }
+    }
+
+    // Where a driver was indexed; kept so a driver can be moved without trusting its current fields
+    private static class Entry {
+        final RideAssistGUIwithDriver.Driver driver;
+        final double latitude;
+        final double longitude;
+        final long cell;
+
+        Entry(RideAssistGUIwithDriver.Driver driver, double latitude, double longitude, long cell) {
+            this.driver = driver;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.cell = cell;
+        }
+    }
+
+    private static final Comparator<Match> BY_DISTANCE = new Comparator<Match>() {
+        @Override
+        public int compare(Match a, Match b) {
+            return Double.compare(a.distanceKm, b.distanceKm);
+        }
+    };
+
+    private final double cellDegrees;
+    private final Map<Long, List<Entry>> cells = new HashMap<>();
+    private final Map<Integer, Entry> byDriver = new HashMap<>();
+
+    public DriverGrid(double cellDegrees) {
+        this.cellDegrees = cellDegrees;
+    }
+
+    // Indexes the driver if available and located, otherwise takes it out of the grid
+    public synchronized void update(RideAssistGUIwithDriver.Driver driver) {
+        remove(driver);
+        if (!driver.isAvailable || !driver.hasLocation()) {
+            return;
+        }
+        long cell = cellKey(row(driver.latitude), column(driver.longitude));
+        Entry entry = new Entry(driver, driver.latitude, driver.longitude, cell);
+        List<Entry> cellEntries = cells.get(cell);
+        if (cellEntries == null) {
+            cellEntries = new ArrayList<>();
+            cells.put(cell, cellEntries);
+        }
+        cellEntries.add(entry);
+        byDriver.put(driver.id, entry);
+    }
+
+    public synchronized void remove(RideAssistGUIwithDriver.Driver driver) {
+        Entry entry = byDriver.remove(driver.id);
+        if (entry == null) {
+            return;
+        }
+        List<Entry> cellEntries = cells.get(entry.cell);
+        cellEntries.remove(entry);
+        if (cellEntries.isEmpty()) {
+            cells.remove(entry.cell);
+        }
+    }
+
+    public synchronized int size() {
+        return byDriver.size();
+    }
+
+    // Up to k available drivers within maxKm of the point, closest first
+    public synchronized List<Match> nearest(double latitude, double longitude, int k, double maxKm) {
+        List<Match> found = new ArrayList<>();
+        if (k <= 0 || byDriver.isEmpty() || Double.isNaN(latitude) || Double.isNaN(longitude)) {
+            return found;
+        }
+
+        // Narrowest side of a cell near the pickup; fine at city scale where latitude barely changes
+        double cellKm = cellDegrees * KM_PER_DEGREE * Math.cos(Math.toRadians(Math.abs(latitude)));
+        int maxRing = (int) Math.ceil(maxKm / cellKm) + 1;
+        int centerRow = row(latitude);
+        int centerColumn = column(longitude);
+
+        for (int ring = 0; ring <= maxRing; ring++) {
+            for (int r = centerRow - ring; r <= centerRow + ring; r++) {
+                // Inner rows only need the two cells on the edge of the ring
+                int step = (r == centerRow - ring || r == centerRow + ring) ? 1 : Math.max(1, 2 * ring);
+                for (int c = centerColumn - ring; c <= centerColumn + ring; c += step) {
+                    List<Entry> cellEntries = cells.get(cellKey(r, c));
+                    if (cellEntries == null) {
+                        continue;
+                    }
+                    for (Entry entry : cellEntries) {
+                        double distance = Places.distanceKm(latitude, longitude, entry.latitude, entry.longitude);
+                        if (distance <= maxKm) {
+                            found.add(new Match(entry.driver, distance));
+                        }
+                    }
+                }
+            }
+            // Anything beyond this ring is at least ring * cellKm away
+            if (found.size() >= k) {
+                Collections.sort(found, BY_DISTANCE);
+                if (found.get(k - 1).distanceKm <= ring * cellKm) {
+                    break;
+                }
+            }
+        }
+
+        Collections.sort(found, BY_DISTANCE);
+        return found.size() > k ? new ArrayList<>(found.subList(0, k)) : found;
+    }
+
+    private int row(double latitude) {
+        return (int) Math.floor(latitude / cellDegrees);
+    }
+
+    private int column(double longitude) {
+        return (int) Math.floor(longitude / cellDegrees);
+    }
+
+    private static long cellKey(int row, int column) {
+        return ((long) row << 32) | (column & 0xffffffffL);
+    }
+}
@@ -0,0 +1,123 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Map;
+
+// Per-driver totals kept in the driver_stats table. Each ride transition adds to its driver's row in the
+// same transaction that changes the ride, so the totals never miss or double-count a ride, and the admin
+// screens read every driver's totals with one primary-key scan instead of aggregating rides. Ratings
+// are stored as a sum and a count, so the average is exact however many rides there are. Deleting a
+// ride from the history leaves its driver's totals alone, as it does for the totals on Driver.
+class DriverStatsRollup {
+
+    private static final Metrics.Timer LOAD_TIMER = Metrics.timer("db.driverStats.load");
+
+    // One driver's row
+    static class Totals {
+        int rideCount;
+        double earnings;
+        long ratingSum;
+        int ratingCount;
+        // Completion time of the driver's latest ride, null before the first one
+        Timestamp lastRideAt;
+
+        double averageRating() {
+            return ratingCount == 0 ? 0 : (double) ratingSum / ratingCount;
+        }
+    }
+
+    // Drivers with no completed ride yet have no row
+    static final Totals NONE = new Totals();
+
+    // Call in the same transaction as RideSql.COMPLETE_RIDE, once it has updated the ride
+    static void recordCompletedRide(Connection connection, int driverId, int fare) throws SQLException {
+        PreparedStatement pstmt = connection.prepareStatement(RideSql.ROLLUP_COMPLETED_RIDE);
+        pstmt.setInt(1, driverId);
+        pstmt.setInt(2, fare);
+        pstmt.setInt(3, fare);
+        pstmt.executeUpdate();
+        pstmt.close();
+    }
+
+    // Call in the same transaction as RideSql.RATE_RIDE, once it has updated the ride
+    static void recordRating(Connection connection, int driverId, int rating) throws SQLException {
+        PreparedStatement pstmt = connection.prepareStatement(RideSql.ROLLUP_RATING);
+        pstmt.setInt(1, driverId);
+        pstmt.setInt(2, rating);
+        pstmt.setInt(3, rating);
+        pstmt.executeUpdate();
+        pstmt.close();
+    }
+
+    // Every driver's totals by driver id
+    static Map<Integer, Totals> load(Connection connection) throws SQLException {
+        Map<Integer, Totals> totals = new HashMap<>();
+        long start = System.nanoTime();
+        boolean succeeded = false;
+        try {
+            PreparedStatement pstmt = connection.prepareStatement(RideSql.LOAD_DRIVER_STATS);
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                totals.put(rs.getInt("driver_id"), totalsFromRow(rs));
+            }
+            rs.close();
+            pstmt.close();
+            succeeded = true;
+        } finally {
+            LOAD_TIMER.stop(start, succeeded);
+        }
+        return totals;
+    }
+
+    // One driver's totals, NONE if the driver has no completed ride yet
+    static Totals load(Connection connection, int driverId) throws SQLException {
+        Totals totals = NONE;
+        long start = System.nanoTime();
+        boolean succeeded = false;
+        try {
+            PreparedStatement pstmt = connection.prepareStatement(RideSql.LOAD_ONE_DRIVER_STATS);
+            pstmt.setInt(1, driverId);
+            ResultSet rs = pstmt.executeQuery();
+            if (rs.next()) {
+                totals = totalsFromRow(rs);
+            }
+            rs.close();
+            pstmt.close();
+            succeeded = true;
+        } finally {
+            LOAD_TIMER.stop(start, succeeded);
+        }
+        return totals;
+    }
+
+    private static Totals totalsFromRow(ResultSet rs) throws SQLException {
+        Totals row = new Totals();
+        row.rideCount = rs.getInt("ride_count");
+        row.earnings = rs.getDouble("earnings");
+        row.ratingSum = rs.getLong("rating_sum");
+        row.ratingCount = rs.getInt("rating_count");
+        row.lastRideAt = rs.getTimestamp("last_ride_at");
+        return row;
+    }
+
+    // Recomputes every row from the rides table; used by the migration that adds the table, and safe to
+    // run again since it replaces whatever is there
+    static void rebuild(Connection connection) throws SQLException {
+        Statement stmt = connection.createStatement();
+        stmt.executeUpdate("DELETE FROM driver_stats");
+        stmt.executeUpdate("INSERT INTO driver_stats " +
+                "(driver_id, ride_count, earnings, rating_sum, rating_count, last_ride_at) " +
+                "SELECT driver_id, COUNT(*), SUM(fare), " +
+                "SUM(CASE WHEN status = 'RATED' THEN rating ELSE 0 END), " +
+                "SUM(CASE WHEN status = 'RATED' THEN 1 ELSE 0 END), " +
+                "MAX(COALESCE(completed_at, created_at)) " +
+                "FROM rides " +
+                "WHERE driver_id IS NOT NULL AND status IN ('COMPLETED', 'RATED') " +
+                "GROUP BY driver_id");
+        stmt.close();
+    }
+}
@@ -0,0 +1,167 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Write-behind for driver earnings, ride count and rating. Changing a driver only marks it dirty;
+// every flush interval all dirty drivers are written in one JDBC batch, so any number of changes to a
+// driver between flushes cost a single UPDATE. At most one flush interval of changes is lost on a crash;
+// a normal shutdown flushes everything.
+class DriverStatsWriter {
+
+    static final long DEFAULT_FLUSH_INTERVAL_MS = 500;
+
+    private static final Metrics.Timer FLUSH_TIMER = Metrics.timer("db.drivers.stats");
+
+    private static ConnectionPool pool;
+    private static ScheduledExecutorService flusher;
+    private static long flushIntervalMillis;
+
+    // Dirty drivers by id, with the time they first became dirty since the last flush
+    private static final ConcurrentHashMap<Integer, DirtyDriver> dirty = new ConcurrentHashMap<>();
+
+    // Metrics
+    private static final AtomicLong changes = new AtomicLong();
+    private static final AtomicLong rowsWritten = new AtomicLong();
+    private static final AtomicLong batches = new AtomicLong();
+    private static final AtomicLong failedBatches = new AtomicLong();
+    private static final AtomicLong totalLagNanos = new AtomicLong();
+    private static final AtomicLong maxLagNanos = new AtomicLong();
+
+    private static class DirtyDriver {
+        final RideAssistGUIwithDriver.Driver driver;
+        final long dirtySince;
+
+        DirtyDriver(RideAssistGUIwithDriver.Driver driver, long dirtySince) {
+            this.driver = driver;
+            this.dirtySince = dirtySince;
+        }
+    }
+
+    // Flush interval (the durability bound) can be changed with -Dride.driverStats.flushIntervalMs
+    static synchronized void start(ConnectionPool connectionPool) {
+        pool = connectionPool;
+        flushIntervalMillis = Long.getLong("ride.driverStats.flushIntervalMs", DEFAULT_FLUSH_INTERVAL_MS);
+        flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "driver-stats-writer");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        flusher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Call after changing a driver's totals; the write happens on the next flush. Every change puts a new
+    // entry, keeping the first dirty time, so a flush can tell whether the driver changed after it read it.
+    static void markDirty(RideAssistGUIwithDriver.Driver driver) {
+        changes.incrementAndGet();
+        while (true) {
+            DirtyDriver current = dirty.get(driver.id);
+            if (current == null) {
+                if (dirty.putIfAbsent(driver.id, new DirtyDriver(driver, System.nanoTime())) == null) {
+                    return;
+                }
+            } else if (dirty.replace(driver.id, current, new DirtyDriver(driver, current.dirtySince))) {
+                return;
+            }
+        }
+    }
+
+    // Writes every dirty driver in one batch. Drivers stay dirty until the batch commits, so DeltaSync
+    // never copies older totals from the database over them meanwhile; a driver is then only taken off
+    // if it has not changed since its entry was read, otherwise the next flush writes it again.
+    static synchronized void flush() {
+        if (dirty.isEmpty() || pool == null) {
+            return;
+        }
+
+        List<DirtyDriver> batch = new ArrayList<>(dirty.values());
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        boolean succeeded = false;
+        try (Connection connection = pool.getConnection()) {
+            connection.setAutoCommit(false);
+            PreparedStatement pstmt = connection.prepareStatement(RideSql.UPDATE_DRIVER_STATS);
+            for (DirtyDriver entry : batch) {
+                RideAssistGUIwithDriver.Driver driver = entry.driver;
+                synchronized (driver) {
+                    pstmt.setDouble(1, driver.totalEarnings);
+                    pstmt.setInt(2, driver.totalRides);
+                    pstmt.setDouble(3, driver.averageRating);
+                }
+                pstmt.setInt(4, driver.id);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+            pstmt.close();
+            connection.commit();
+            connection.setAutoCommit(true);
+            succeeded = true;
+        } catch (SQLException e) {
+            failedBatches.incrementAndGet();
+            e.printStackTrace();
+            // Still dirty, so the next flush tries again
+            return;
+        } finally {
+            FLUSH_TIMER.stop(start, succeeded);
+        }
+
+        long now = System.nanoTime();
+        batches.incrementAndGet();
+        rowsWritten.addAndGet(batch.size());
+        for (DirtyDriver entry : batch) {
+            dirty.remove(entry.driver.id, entry);
+            long lag = now - entry.dirtySince;
+            totalLagNanos.addAndGet(lag);
+            if (lag > maxLagNanos.get()) {
+                maxLagNanos.set(lag);
+            }
+        }
+    }
+
+    // Stops the timer and writes whatever is still dirty
+    static synchronized void shutdown() {
+        if (flusher == null) {
+            return;
+        }
+        flusher.shutdownNow();
+        flush();
+    }
+
+    // True while the driver has changes that are not written yet
+    static boolean isDirty(int driverId) {
+        return dirty.containsKey(driverId);
+    }
+
+    public static int getDirtyCount() {
+        return dirty.size();
+    }
+
+    public static String getStats() {
+        long rows = rowsWritten.get();
+        long changeCount = changes.get();
+        return String.format("changes=%d, rowsWritten=%d, batches=%d, failedBatches=%d, coalesced=%.1f%%, " +
+                "avgFlushLag=%.1fms, maxFlushLag=%.1fms, flushInterval=%dms, dirty=%d",
+            changeCount, rows, batches.get(), failedBatches.get(),
+            changeCount == 0 ? 0 : 100.0 * (changeCount - rows) / changeCount,
+            rows == 0 ? 0 : totalLagNanos.get() / 1_000_000.0 / rows, maxLagNanos.get() / 1_000_000.0,
+            flushIntervalMillis, dirty.size());
+    }
+}
@@ -0,0 +1,334 @@
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Rides and earnings per driver per hour and per day, for the earnings breakdowns. Completing a ride adds
+// it to its hour and day bucket in the ride's transaction, so a range is answered by summing whole days
+// plus the hours at either end instead of reading rides.completed_at. Rides completed before the buckets
+// existed are added by a background catch-up that works through the rides table in chunks of ride ids,
+// recording its progress in earnings_backfill so a restart resumes where it stopped.
+class EarningsBuckets {
+
+    static final int DEFAULT_BACKFILL_CHUNK = 5000;
+    static final long BACKFILL_PAUSE_MS = 50;
+    // Days listed one by one in a driver's breakdown
+    static final int BREAKDOWN_DAYS = 7;
+
+    private static final Metrics.Timer RANGE_TIMER = Metrics.timer("db.earnings.range");
+    private static final Metrics.Timer BACKFILL_TIMER = Metrics.timer("db.earnings.backfill");
+
+    private static ConnectionPool pool;
+    private static ScheduledExecutorService backfiller;
+    private static int chunkSize;
+    private static volatile boolean backfillDone;
+
+    // Metrics
+    private static final AtomicLong backfilledRides = new AtomicLong();
+    private static final AtomicLong backfillChunks = new AtomicLong();
+
+    // Rides and earnings over some range
+    static class Totals {
+        int rides;
+        double earnings;
+
+        void add(int rideCount, double amount) {
+            rides += rideCount;
+            earnings += amount;
+        }
+    }
+
+    // One hour of one driver's rides, summed during a backfill chunk
+    private static class HourBucket {
+        final int driverId;
+        final LocalDateTime hour;
+        final Totals totals = new Totals();
+
+        HourBucket(int driverId, LocalDateTime hour) {
+            this.driverId = driverId;
+            this.hour = hour;
+        }
+    }
+
+    // What a driver's earnings screen shows
+    static class Breakdown {
+        final Totals today;
+        final Totals thisWeek;
+        final Totals thisMonth;
+        // The last BREAKDOWN_DAYS days, oldest first, including days without rides
+        final Map<LocalDate, Totals> days;
+
+        Breakdown(Totals today, Totals thisWeek, Totals thisMonth, Map<LocalDate, Totals> days) {
+            this.today = today;
+            this.thisWeek = thisWeek;
+            this.thisMonth = thisMonth;
+            this.days = days;
+        }
+    }
+
+    // Call in the same transaction as RideSql.COMPLETE_RIDE, with the completed_at it wrote, and only when it
+    // updated the ride; a ride that was already completed is in the buckets
+    static void recordCompletedRide(Connection connection, int driverId, int fare, Timestamp completedAt)
+            throws SQLException {
+        LocalDateTime time = completedAt.toLocalDateTime();
+        addToBuckets(connection, driverId, time.truncatedTo(ChronoUnit.HOURS), time.toLocalDate(), 1, fare);
+    }
+
+    private static void addToBuckets(Connection connection, int driverId, LocalDateTime hour, LocalDate day,
+                                     int rideCount, double earnings) throws SQLException {
+        PreparedStatement pstmt = connection.prepareStatement(RideSql.ADD_HOURLY_EARNINGS);
+        pstmt.setInt(1, driverId);
+        pstmt.setTimestamp(2, Timestamp.valueOf(hour));
+        pstmt.setInt(3, rideCount);
+        pstmt.setDouble(4, earnings);
+        pstmt.setInt(5, rideCount);
+        pstmt.setDouble(6, earnings);
+        pstmt.executeUpdate();
+        pstmt.close();
+
+        pstmt = connection.prepareStatement(RideSql.ADD_DAILY_EARNINGS);
+        pstmt.setInt(1, driverId);
+        pstmt.setDate(2, Date.valueOf(day));
+        pstmt.setInt(3, rideCount);
+        pstmt.setDouble(4, earnings);
+        pstmt.setInt(5, rideCount);
+        pstmt.setDouble(6, earnings);
+        pstmt.executeUpdate();
+        pstmt.close();
+    }
+
+    // Totals for rides completed in [from, to), to the hour: whole days come from the daily buckets and
+    // the partial days at either end from the hourly ones
+    static Totals range(Connection connection, int driverId, LocalDateTime from, LocalDateTime to) throws SQLException {
+        LocalDateTime fromHour = from.truncatedTo(ChronoUnit.HOURS);
+        LocalDateTime toHour = to.truncatedTo(ChronoUnit.HOURS);
+        if (toHour.isBefore(to)) {
+            toHour = toHour.plusHours(1);
+        }
+        LocalDate firstWholeDay = fromHour.toLocalDate();
+        if (!fromHour.equals(firstWholeDay.atStartOfDay())) {
+            firstWholeDay = firstWholeDay.plusDays(1);
+        }
+        LocalDate endOfWholeDays = toHour.toLocalDate();
+
+        Totals totals = new Totals();
+        long start = System.nanoTime();
+        boolean succeeded = false;
+        try {
+            LocalDateTime leadingEnd = toHour;
+            LocalDateTime trailingStart = toHour;
+            if (firstWholeDay.isBefore(endOfWholeDays)) {
+                PreparedStatement pstmt = connection.prepareStatement(RideSql.DAILY_EARNINGS_BETWEEN);
+                pstmt.setInt(1, driverId);
+                pstmt.setDate(2, Date.valueOf(firstWholeDay));
+                pstmt.setDate(3, Date.valueOf(endOfWholeDays));
+                addSums(pstmt, totals);
+                leadingEnd = firstWholeDay.atStartOfDay();
+                trailingStart = endOfWholeDays.atStartOfDay();
+            }
+
+            PreparedStatement pstmt = connection.prepareStatement(RideSql.HOURLY_EARNINGS_BETWEEN);
+            pstmt.setInt(1, driverId);
+            pstmt.setTimestamp(2, Timestamp.valueOf(fromHour));
+            pstmt.setTimestamp(3, Timestamp.valueOf(leadingEnd));
+            pstmt.setTimestamp(4, Timestamp.valueOf(trailingStart));
+            pstmt.setTimestamp(5, Timestamp.valueOf(toHour));
+            addSums(pstmt, totals);
+            succeeded = true;
+        } finally {
+            RANGE_TIMER.stop(start, succeeded);
+        }
+        return totals;
+    }
+
+    private static void addSums(PreparedStatement pstmt, Totals totals) throws SQLException {
+        ResultSet rs = pstmt.executeQuery();
+        if (rs.next()) {
+            totals.add(rs.getInt(1), rs.getDouble(2));
+        }
+        rs.close();
+        pstmt.close();
+    }
+
+    // Today, this week (from Monday), this month and the last few days, as of now
+    static Breakdown breakdown(Connection connection, int driverId, LocalDateTime now) throws SQLException {
+        LocalDate today = now.toLocalDate();
+        LocalDate monday = today.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+        Totals todayTotals = range(connection, driverId, today.atStartOfDay(), now);
+        Totals weekTotals = range(connection, driverId, monday.atStartOfDay(), now);
+        Totals monthTotals = range(connection, driverId, today.withDayOfMonth(1).atStartOfDay(), now);
+
+        Map<LocalDate, Totals> days = new LinkedHashMap<>();
+        LocalDate firstDay = today.minusDays(BREAKDOWN_DAYS - 1);
+        for (LocalDate day = firstDay; !day.isAfter(today); day = day.plusDays(1)) {
+            days.put(day, new Totals());
+        }
+        PreparedStatement pstmt = connection.prepareStatement(RideSql.DAILY_EARNINGS_ROWS);
+        pstmt.setInt(1, driverId);
+        pstmt.setDate(2, Date.valueOf(firstDay));
+        pstmt.setDate(3, Date.valueOf(today.plusDays(1)));
+        ResultSet rs = pstmt.executeQuery();
+        while (rs.next()) {
+            Totals day = days.get(rs.getDate("bucket_date").toLocalDate());
+            if (day != null) {
+                day.add(rs.getInt("ride_count"), rs.getDouble("earnings"));
+            }
+        }
+        rs.close();
+        pstmt.close();
+        return new Breakdown(todayTotals, weekTotals, monthTotals, days);
+    }
+
+    // Every driver's totals from the start of the given day until now, by driver id
+    static Map<Integer, Totals> byDriverSince(Connection connection, LocalDate since) throws SQLException {
+        Map<Integer, Totals> totals = new HashMap<>();
+        PreparedStatement pstmt = connection.prepareStatement(RideSql.DAILY_EARNINGS_BY_DRIVER);
+        pstmt.setDate(1, Date.valueOf(since));
+        ResultSet rs = pstmt.executeQuery();
+        while (rs.next()) {
+            Totals driverTotals = new Totals();
+            driverTotals.add(rs.getInt("ride_count"), rs.getDouble("earnings"));
+            totals.put(rs.getInt("driver_id"), driverTotals);
+        }
+        rs.close();
+        pstmt.close();
+        return totals;
+    }
+
+    // Starts the catch-up if the migration left one to do. Chunk size can be changed with
+    // -Dride.earnings.backfillChunk.
+    static synchronized void startBackfill(ConnectionPool connectionPool) {
+        pool = connectionPool;
+        chunkSize = Integer.getInteger("ride.earnings.backfillChunk", DEFAULT_BACKFILL_CHUNK);
+        backfiller = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "earnings-backfill");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        backfiller.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                if (backfillDone) {
+                    return;
+                }
+                try {
+                    backfillChunk();
+                } catch (SQLException e) {
+                    // Tried again after the pause
+                    e.printStackTrace();
+                }
+                if (backfillDone) {
+                    backfiller.shutdown();
+                }
+            }
+        }, 0, BACKFILL_PAUSE_MS, TimeUnit.MILLISECONDS);
+    }
+
+    // Adds the next chunk of older rides to the buckets and moves the progress marker past them, in one
+    // transaction, so each ride is counted exactly once even with several instances catching up
+    static void backfillChunk() throws SQLException {
+        long start = System.nanoTime();
+        boolean succeeded = false;
+        try (Connection connection = pool.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                PreparedStatement pstmt = connection.prepareStatement(RideSql.EARNINGS_BACKFILL_STATE);
+                ResultSet rs = pstmt.executeQuery();
+                if (!rs.next()) {
+                    rs.close();
+                    pstmt.close();
+                    connection.commit();
+                    backfillDone = true;
+                    succeeded = true;
+                    return;
+                }
+                int lastRideId = rs.getInt("last_ride_id");
+                Timestamp until = rs.getTimestamp("until_at");
+                rs.close();
+                pstmt.close();
+
+                // Summed per bucket first, so each bucket costs one write per chunk
+                Map<String, HourBucket> buckets = new LinkedHashMap<>();
+                int rows = 0;
+                pstmt = connection.prepareStatement(RideSql.EARNINGS_BACKFILL_RIDES);
+                pstmt.setInt(1, lastRideId);
+                pstmt.setTimestamp(2, until);
+                pstmt.setInt(3, chunkSize);
+                rs = pstmt.executeQuery();
+                while (rs.next()) {
+                    rows++;
+                    lastRideId = rs.getInt("id");
+                    int driverId = rs.getInt("driver_id");
+                    LocalDateTime hour = rs.getTimestamp("completed_at").toLocalDateTime().truncatedTo(ChronoUnit.HOURS);
+                    String key = driverId + "@" + hour;
+                    HourBucket bucket = buckets.get(key);
+                    if (bucket == null) {
+                        bucket = new HourBucket(driverId, hour);
+                        buckets.put(key, bucket);
+                    }
+                    bucket.totals.add(1, rs.getInt("fare"));
+                }
+                rs.close();
+                pstmt.close();
+
+                for (HourBucket bucket : buckets.values()) {
+                    addToBuckets(connection, bucket.driverId, bucket.hour, bucket.hour.toLocalDate(),
+                        bucket.totals.rides, bucket.totals.earnings);
+                }
+
+                if (rows < chunkSize) {
+                    pstmt = connection.prepareStatement(RideSql.FINISH_EARNINGS_BACKFILL);
+                } else {
+                    pstmt = connection.prepareStatement(RideSql.ADVANCE_EARNINGS_BACKFILL);
+                    pstmt.setInt(1, lastRideId);
+                }
+                pstmt.executeUpdate();
+                pstmt.close();
+                connection.commit();
+
+                backfilledRides.addAndGet(rows);
+                backfillChunks.incrementAndGet();
+                if (rows < chunkSize) {
+                    backfillDone = true;
+                }
+                succeeded = true;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } finally {
+            BACKFILL_TIMER.stop(start, succeeded);
+        }
+    }
+
+    static synchronized void shutdown() {
+        if (backfiller != null) {
+            backfiller.shutdownNow();
+        }
+    }
+
+    public static String getStats() {
+        return String.format("backfilledRides=%d, backfillChunks=%d, backfillDone=%b",
+            backfilledRides.get(), backfillChunks.get(), backfillDone);
+    }
+}
@@ -0,0 +1,89 @@
+import javax.swing.SwingUtilities;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Measures how responsive the Swing event thread is. A watchdog thread posts a probe event every few
+// milliseconds and records how long it waits to run; a wait over the stall threshold means the UI was
+// frozen for at least that long. Probes keep running inside modal dialogs, so open dialogs are not stalls.
+class EdtMonitor {
+
+    static final long PROBE_INTERVAL_MS = 20;
+    static final long DEFAULT_STALL_THRESHOLD_MS = 100;
+
+    private static EdtMonitor instance;
+
+    private final long stallThresholdNanos;
+    private final AtomicLong probeCount = new AtomicLong();
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+    private final AtomicLong stallCount = new AtomicLong();
+    private final AtomicLong stallNanos = new AtomicLong();
+    private volatile long pendingProbePostedAt = 0;
+
+    private EdtMonitor(long stallThresholdMillis) {
+        this.stallThresholdNanos = stallThresholdMillis * 1_000_000;
+    }
+
+    // Threshold can be changed with -Dride.edt.stallThresholdMs
+    static synchronized void install() {
+        if (instance != null) {
+            return;
+        }
+        instance = new EdtMonitor(Long.getLong("ride.edt.stallThresholdMs", DEFAULT_STALL_THRESHOLD_MS));
+        Thread watchdog = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                instance.probeLoop();
+            }
+        }, "edt-monitor");
+        watchdog.setDaemon(true);
+        watchdog.start();
+    }
+
+    static synchronized String getStats() {
+        return instance == null ? "not installed" : instance.describe();
+    }
+
+    private void probeLoop() {
+        while (true) {
+            // Only one probe in flight, so a frozen EDT is measured once rather than flooded
+            if (pendingProbePostedAt == 0) {
+                final long postedAt = System.nanoTime();
+                pendingProbePostedAt = postedAt;
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        record(System.nanoTime() - postedAt);
+                        pendingProbePostedAt = 0;
+                    }
+                });
+            }
+            try {
+                Thread.sleep(PROBE_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void record(long latencyNanos) {
+        probeCount.incrementAndGet();
+        totalLatencyNanos.addAndGet(latencyNanos);
+        long max = maxLatencyNanos.get();
+        while (latencyNanos > max && !maxLatencyNanos.compareAndSet(max, latencyNanos)) {
+            max = maxLatencyNanos.get();
+        }
+        if (latencyNanos >= stallThresholdNanos) {
+            stallCount.incrementAndGet();
+            stallNanos.addAndGet(latencyNanos);
+            System.err.println("EDT stall: event thread blocked for " + latencyNanos / 1_000_000 + " ms");
+        }
+    }
+
+    private String describe() {
+        long probes = probeCount.get();
+        return String.format("probes=%d, avgLatency=%.3fms, maxLatency=%.1fms, stalls(>=%dms)=%d, stallTime=%dms",
+            probes, probes == 0 ? 0 : totalLatencyNanos.get() / 1_000_000.0 / probes,
+            maxLatencyNanos.get() / 1_000_000.0, stallThresholdNanos / 1_000_000,
+            stallCount.get(), stallNanos.get() / 1_000_000);
+    }
+}
@@ -0,0 +1,155 @@
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+// Fares from distance: base + per-km, never below the minimum. Both ends are resolved against the Places
+// gazetteer and the distance comes from a table built once at startup, so a quote is pure arithmetic and
+// never touches the database. The same pair of places always costs the same. Quotes for recently seen
+// from/to text are kept in an LRU cache, which skips the text matching as well.
+class FareEngine {
+
+    static final double DEFAULT_BASE_FARE = 40;
+    static final double DEFAULT_PER_KM = 8;
+    static final double DEFAULT_MINIMUM_FARE = 50;
+    // Streets are not straight lines; road distance is roughly this much longer than the crow flies
+    static final double DEFAULT_ROAD_FACTOR = 1.3;
+    // Used when either end is not a known place, so unknown trips still get a stable price
+    static final double DEFAULT_UNKNOWN_DISTANCE_KM = 3;
+    static final int DEFAULT_CACHE_SIZE = 1024;
+
+    static class Quote {
+        final double distanceKm;
+        final int fare;
+        // False when an end was not recognised and the default distance was used
+        final boolean exact;
+
+        Quote(double distanceKm, int fare, boolean exact) {
+            this.distanceKm = distanceKm;
+            this.fare = fare;
+            this.exact = exact;
+        }
+    }
+
+    private final double baseFare;
+    private final double perKm;
+    private final double minimumFare;
+    private final double unknownDistanceKm;
+    // Road distance in km between every pair of places, indexed by Place.index
+    private final double[][] distances;
+    private final Map<String, Quote> cache;
+
+    private long hits;
+    private long misses;
+
+    public FareEngine(double baseFare, double perKm, double minimumFare, double roadFactor,
+                      double unknownDistanceKm, final int cacheSize) {
+        this.baseFare = baseFare;
+        this.perKm = perKm;
+        this.minimumFare = minimumFare;
+        this.unknownDistanceKm = unknownDistanceKm;
+
+        List<Places.Place> places = Places.all();
+        distances = new double[places.size()][places.size()];
+        for (Places.Place a : places) {
+            for (Places.Place b : places) {
+                distances[a.index][b.index] = roadFactor * Places.distanceKm(a.latitude, a.longitude, b.latitude, b.longitude);
+            }
+        }
+
+        cache = new LinkedHashMap<String, Quote>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Quote> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    // Rates can be changed with -Dride.fare.base, .perKm, .minimum, .roadFactor, .unknownKm and .cacheSize
+    static FareEngine fromSystemProperties() {
+        return new FareEngine(
+            doubleProperty("ride.fare.base", DEFAULT_BASE_FARE),
+            doubleProperty("ride.fare.perKm", DEFAULT_PER_KM),
+            doubleProperty("ride.fare.minimum", DEFAULT_MINIMUM_FARE),
+            doubleProperty("ride.fare.roadFactor", DEFAULT_ROAD_FACTOR),
+            doubleProperty("ride.fare.unknownKm", DEFAULT_UNKNOWN_DISTANCE_KM),
+            Integer.getInteger("ride.fare.cacheSize", DEFAULT_CACHE_SIZE));
+    }
+
+    private static double doubleProperty(String name, double defaultValue) {
+        String value = System.getProperty(name);
+        return value == null ? defaultValue : Double.parseDouble(value);
+    }
+
+    public Quote quote(String from, String to) {
+        String key = from + "\n" + to;
+        synchronized (this) {
+            Quote cached = cache.get(key);
+            if (cached != null) {
+                hits++;
+                return cached;
+            }
+            misses++;
+        }
+
+        Places.Place start = Places.lookup(from);
+        Places.Place end = Places.lookup(to);
+        boolean exact = start != null && end != null;
+        double distanceKm = exact ? distances[start.index][end.index] : unknownDistanceKm;
+        Quote quote = new Quote(distanceKm, fareFor(distanceKm), exact);
+
+        synchronized (this) {
+            cache.put(key, quote);
+        }
+        return quote;
+    }
+
+    int fareFor(double distanceKm) {
+        return (int) Math.round(Math.max(minimumFare, baseFare + perKm * distanceKm));
+    }
+
+    public synchronized String getStats() {
+        long lookups = hits + misses;
+        return String.format("quotes=%d, cacheHits=%d, hitRate=%.1f%%, cached=%d",
+            lookups, hits, lookups == 0 ? 0 : 100.0 * hits / lookups, cache.size());
+    }
+
+    // Quick throughput check: java FareEngine [quotes]
+    public static void main(String[] args) {
+        int quotes = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        List<Places.Place> places = Places.all();
+        String[] texts = new String[places.size() * 2];
+        for (int i = 0; i < places.size(); i++) {
+            texts[2 * i] = places.get(i).name;
+            texts[2 * i + 1] = "near " + places.get(i).name.toLowerCase();
+        }
+
+        FareEngine engine = fromSystemProperties();
+        Random random = new Random(42);
+        long checksum = 0;
+        // Warm up the JIT before timing
+        for (int i = 0; i < 100_000; i++) {
+            checksum += engine.quote(texts[random.nextInt(texts.length)], texts[random.nextInt(texts.length)]).fare;
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < quotes; i++) {
+            checksum += engine.quote(texts[random.nextInt(texts.length)], texts[random.nextInt(texts.length)]).fare;
+        }
+        long cachedNanos = System.nanoTime() - start;
+
+        FareEngine uncached = new FareEngine(DEFAULT_BASE_FARE, DEFAULT_PER_KM, DEFAULT_MINIMUM_FARE,
+            DEFAULT_ROAD_FACTOR, DEFAULT_UNKNOWN_DISTANCE_KM, 0);
+        start = System.nanoTime();
+        for (int i = 0; i < quotes; i++) {
+            checksum += uncached.quote(texts[random.nextInt(texts.length)], texts[random.nextInt(texts.length)]).fare;
+        }
+        long uncachedNanos = System.nanoTime() - start;
+
+        System.out.printf("cached:   %,d quotes in %.1fms, %.2fus/quote, %,.0f quotes/s (%s)%n",
+            quotes, cachedNanos / 1e6, cachedNanos / 1e3 / quotes, quotes / (cachedNanos / 1e9), engine.getStats());
+        System.out.printf("uncached: %,d quotes in %.1fms, %.2fus/quote, %,.0f quotes/s%n",
+            quotes, uncachedNanos / 1e6, uncachedNanos / 1e3 / quotes, quotes / (uncachedNanos / 1e9));
+        System.out.println("checksum " + checksum);
+    }
+}
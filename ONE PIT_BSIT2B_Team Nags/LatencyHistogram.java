@@ -0,0 +1,85 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Counts latencies in log-linear buckets: each power of two is split into SUB_BUCKETS equal parts, so a
+// percentile is off by at most about 3% whatever the range, in a fixed ~15 KB. Safe to record into
+// from many threads at once.
+class LatencyHistogram {
+
+    private static final int PRECISION_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << PRECISION_BITS;
+    private static final int BUCKETS = (64 - PRECISION_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(bucket(nanos));
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    long count() {
+        return count.get();
+    }
+
+    long maxNanos() {
+        return maxNanos.get();
+    }
+
+    double meanNanos() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) totalNanos.get() / n;
+    }
+
+    // Smallest recorded latency that percent of the samples are at or below, e.g. 99.9 for p999
+    long percentileNanos(double percent) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percent / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(highestValue(i), maxNanos.get());
+            }
+        }
+        return maxNanos.get();
+    }
+
+    // Values below SUB_BUCKETS get a bucket each; above that, the top PRECISION_BITS + 1 bits pick it
+    private static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int mantissa = (int) (value >>> (exponent - PRECISION_BITS));
+        return (exponent - PRECISION_BITS + 1) * SUB_BUCKETS + mantissa - SUB_BUCKETS;
+    }
+
+    private static long highestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + PRECISION_BITS - 1;
+        long mantissa = bucket % SUB_BUCKETS + SUB_BUCKETS;
+        return ((mantissa + 1) << (exponent - PRECISION_BITS)) - 1;
+    }
+
+    String summary() {
+        return String.format("count=%d, p50=%.2fms, p99=%.2fms, p999=%.2fms, max=%.2fms, avg=%.2fms",
+            count(), percentileNanos(50) / 1_000_000.0, percentileNanos(99) / 1_000_000.0,
+            percentileNanos(99.9) / 1_000_000.0, maxNanos() / 1_000_000.0, meanNanos() / 1_000_000.0);
+    }
+}
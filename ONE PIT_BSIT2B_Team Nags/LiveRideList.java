@@ -0,0 +1,98 @@
+import javax.swing.DefaultListModel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Rows of a JList that follow RideEvents: a ride's row is added, replaced or removed when an event for
+// it arrives, so an open screen stays current without rebuilding its list. Subclasses choose which rides
+// belong in the list, how a row reads and, optionally, the row order. Used on the event thread only.
+abstract class LiveRideList implements RideEvents.Listener {
+
+    final DefaultListModel<String> model = new DefaultListModel<>();
+    // Rides shown, kept in step with model
+    private final List<RideAssistGUIwithDriver.RideRequest> rides = new ArrayList<>();
+    // Rides that already had an event; the initial snapshot may be older than that, so it is skipped for them
+    private final Set<Integer> updatedByEvents = new HashSet<>();
+
+    abstract boolean shows(RideAssistGUIwithDriver.RideRequest ride);
+
+    abstract String describe(RideAssistGUIwithDriver.RideRequest ride);
+
+    // Row order; the default keeps rides in the order they arrived
+    int compare(RideAssistGUIwithDriver.RideRequest a, RideAssistGUIwithDriver.RideRequest b) {
+        return 0;
+    }
+
+    // Called after the rows change
+    void changed() {
+    }
+
+    // Subscribe before fetching the snapshot so no change between the two is missed
+    void load(List<RideAssistGUIwithDriver.RideRequest> snapshot) {
+        for (RideAssistGUIwithDriver.RideRequest ride : snapshot) {
+            if (!updatedByEvents.contains(ride.id) && shows(ride)) {
+                put(ride);
+            }
+        }
+        changed();
+    }
+
+    @Override
+    public void rideChanged(RideEvents.Event event) {
+        updatedByEvents.add(event.ride.id);
+        if (shows(event.ride)) {
+            put(event.ride);
+        } else {
+            remove(event.ride.id);
+        }
+        changed();
+    }
+
+    RideAssistGUIwithDriver.RideRequest get(int index) {
+        return rides.get(index);
+    }
+
+    int size() {
+        return rides.size();
+    }
+
+    boolean remove(int rideId) {
+        int index = indexOf(rideId);
+        if (index == -1) {
+            return false;
+        }
+        rides.remove(index);
+        model.remove(index);
+        return true;
+    }
+
+    private void put(RideAssistGUIwithDriver.RideRequest ride) {
+        int index = indexOf(ride.id);
+        if (index != -1 && compare(rides.get(index), ride) == 0) {
+            // Same place in the order: replace the row where it is
+            rides.set(index, ride);
+            model.set(index, describe(ride));
+            return;
+        }
+        if (index != -1) {
+            rides.remove(index);
+            model.remove(index);
+        }
+        int position = rides.size();
+        while (position > 0 && compare(rides.get(position - 1), ride) > 0) {
+            position--;
+        }
+        rides.add(position, ride);
+        model.add(position, describe(ride));
+    }
+
+    private int indexOf(int rideId) {
+        for (int i = 0; i < rides.size(); i++) {
+            if (rides.get(i).id == rideId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
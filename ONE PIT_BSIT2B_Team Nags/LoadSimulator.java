@@ -0,0 +1,353 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Headless load generator: synthetic passengers request rides at a Poisson arrival rate and synthetic
+// drivers poll for them, accept, drive, complete, and the passenger rates, all through the same
+// DispatchCore the desktop uses (this JVM's LocalDispatch, or a DispatchService when
+// -Dride.service.url is set). Reports rides per minute, latency percentiles per transition and
+// error/conflict counts. Every run adds its passengers, drivers and rides to the database, so point it
+// at a scratch database, or run it on an embedded one:
+//
+//   java -Dride.db=memory -Dride.sim.ridesPerMinute=1200 -Dride.sim.durationSeconds=120 -cp ... LoadSimulator
+class LoadSimulator {
+
+    static final int DEFAULT_PASSENGERS = 2000;
+    static final int DEFAULT_DRIVERS = 500;
+    static final int DEFAULT_RIDES_PER_MINUTE = 600;
+    static final int DEFAULT_DURATION_SECONDS = 60;
+    // How long the ride itself takes, between accept and complete
+    static final int DEFAULT_TRIP_MS = 2000;
+    // How long the passenger takes to rate after the ride is completed
+    static final int DEFAULT_RATING_DELAY_MS = 500;
+    // How often an idle driver looks at the pending requests
+    static final int DEFAULT_DRIVER_POLL_MS = 1000;
+    static final int DEFAULT_THREADS = 32;
+    // After the run, rides already requested get this long to finish before the report
+    static final int DEFAULT_DRAIN_SECONDS = 30;
+    // Drivers pick among the oldest few pending rides, so some go for the same ride as in real use
+    static final int DRIVER_CHOICES = 5;
+
+    enum Transition { REQUEST, POLL, ACCEPT, COMPLETE, RATE }
+
+    private static class TransitionStats {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLong errors = new AtomicLong();
+        // Lost races and calls that found nothing to do, e.g. a ride another driver claimed first
+        final AtomicLong conflicts = new AtomicLong();
+    }
+
+    private final DispatchCore dispatch;
+    private final int tripMillis;
+    private final int ratingDelayMillis;
+    private final int driverPollMillis;
+    private final ScheduledExecutorService workers;
+
+    private final TransitionStats[] stats = new TransitionStats[Transition.values().length];
+    // From request to accept, and from request to rating
+    private final LatencyHistogram pickupWait = new LatencyHistogram();
+    private final LatencyHistogram rideTotal = new LatencyHistogram();
+    private final ConcurrentLinkedQueue<Integer> idlePassengers = new ConcurrentLinkedQueue<>();
+    private final AtomicLong requested = new AtomicLong();
+    private final AtomicLong rated = new AtomicLong();
+    private final AtomicLong arrivalsDropped = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    // When each ride still in flight was requested, by ride id
+    private final ConcurrentHashMap<Integer, Long> requestTimes = new ConcurrentHashMap<>();
+
+    LoadSimulator(DispatchCore dispatch, int threads, int tripMillis, int ratingDelayMillis, int driverPollMillis) {
+        this.dispatch = dispatch;
+        this.tripMillis = tripMillis;
+        this.ratingDelayMillis = ratingDelayMillis;
+        this.driverPollMillis = driverPollMillis;
+        for (Transition transition : Transition.values()) {
+            stats[transition.ordinal()] = new TransitionStats();
+        }
+        workers = Executors.newScheduledThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger threadNumber = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "load-sim-" + threadNumber.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    // Inserts the synthetic passengers; the tag keeps phone numbers apart from earlier runs
+    void addPassengers(Connection connection, int count, String tag) throws SQLException {
+        List<Integer> ids = new ArrayList<>();
+        PreparedStatement pstmt = connection.prepareStatement(RideSql.INSERT_PASSENGER, Statement.RETURN_GENERATED_KEYS);
+        for (int i = 0; i < count; i++) {
+            pstmt.setString(1, "Sim Passenger " + i);
+            pstmt.setString(2, "s" + tag + "-" + i);
+            pstmt.setString(3, "sim");
+            pstmt.executeUpdate();
+            ResultSet generatedKeys = pstmt.getGeneratedKeys();
+            if (generatedKeys.next()) {
+                ids.add(generatedKeys.getInt(1));
+            }
+            generatedKeys.close();
+        }
+        pstmt.close();
+        Collections.shuffle(ids);
+        idlePassengers.addAll(ids);
+    }
+
+    // Registers the synthetic drivers and starts each one polling at a random offset
+    void addDrivers(int count, String tag) throws Exception {
+        for (int i = 0; i < count; i++) {
+            RideAssistGUIwithDriver.Driver driver = dispatch.addDriver("Sim Driver " + i, "Tricycle", "50-100",
+                "sim-" + tag + "-" + i, "sim");
+            schedulePoll(driver.id, ThreadLocalRandom.current().nextInt(driverPollMillis));
+        }
+    }
+
+    // Sends requests at exponentially distributed intervals until the duration is up. A request that
+    // arrives while every passenger already has a ride is dropped and counted.
+    void run(double ridesPerMinute, long durationMillis) throws InterruptedException {
+        double meanIntervalNanos = 60_000_000_000.0 / ridesPerMinute;
+        long end = System.nanoTime() + durationMillis * 1_000_000L;
+        long next = System.nanoTime();
+        while (true) {
+            next += (long) (-Math.log(1 - ThreadLocalRandom.current().nextDouble()) * meanIntervalNanos);
+            if (next >= end) {
+                break;
+            }
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            final Integer passengerId = idlePassengers.poll();
+            if (passengerId == null) {
+                arrivalsDropped.incrementAndGet();
+                continue;
+            }
+            workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    requestRide(passengerId);
+                }
+            });
+        }
+    }
+
+    // Waits for requested rides to be rated
+    boolean drain(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (inFlight.get() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        return inFlight.get() == 0;
+    }
+
+    void shutdown() {
+        workers.shutdownNow();
+    }
+
+    private void requestRide(int passengerId) {
+        List<Places.Place> places = Places.all();
+        int from = ThreadLocalRandom.current().nextInt(places.size());
+        int to = (from + 1 + ThreadLocalRandom.current().nextInt(places.size() - 1)) % places.size();
+        // Counted before the call, since a driver can take the ride before it returns
+        inFlight.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            RideAssistGUIwithDriver.RideRequest ride = dispatch.requestRide(passengerId, "Sim Passenger", "sim",
+                places.get(from).name, places.get(to).name);
+            record(Transition.REQUEST, start);
+            requestTimes.put(ride.id, start);
+            requested.incrementAndGet();
+        } catch (Exception e) {
+            failed(Transition.REQUEST, start);
+            inFlight.decrementAndGet();
+            idlePassengers.add(passengerId);
+        }
+    }
+
+    private void schedulePoll(final int driverId, long delayMillis) {
+        workers.schedule(new Runnable() {
+            @Override
+            public void run() {
+                poll(driverId);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void poll(int driverId) {
+        long start = System.nanoTime();
+        List<RideAssistGUIwithDriver.RideRequest> pending;
+        try {
+            pending = dispatch.pendingRides();
+            record(Transition.POLL, start);
+        } catch (Exception e) {
+            failed(Transition.POLL, start);
+            schedulePoll(driverId, driverPollMillis);
+            return;
+        }
+        if (pending.isEmpty()) {
+            schedulePoll(driverId, driverPollMillis);
+            return;
+        }
+
+        RideAssistGUIwithDriver.RideRequest choice =
+            pending.get(ThreadLocalRandom.current().nextInt(Math.min(DRIVER_CHOICES, pending.size())));
+        start = System.nanoTime();
+        try {
+            DispatchCore.ClaimResult result = dispatch.acceptRide(choice.id, driverId);
+            record(Transition.ACCEPT, start);
+            if (result == DispatchCore.ClaimResult.CLAIMED) {
+                Long requestedAt = requestTimes.get(choice.id);
+                if (requestedAt != null) {
+                    pickupWait.record(System.nanoTime() - requestedAt);
+                }
+                scheduleComplete(driverId, choice, tripMillis);
+                return;
+            }
+            conflict(Transition.ACCEPT);
+        } catch (Exception e) {
+            failed(Transition.ACCEPT, start);
+        }
+        // Lost the race: look again right away, as a driver would
+        schedulePoll(driverId, 0);
+    }
+
+    private void scheduleComplete(final int driverId, final RideAssistGUIwithDriver.RideRequest ride, long delayMillis) {
+        workers.schedule(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                try {
+                    RideAssistGUIwithDriver.RideRequest completed = dispatch.completeRide(driverId);
+                    record(Transition.COMPLETE, start);
+                    if (completed == null) {
+                        // The ride is gone; give up on it
+                        conflict(Transition.COMPLETE);
+                        requestTimes.remove(ride.id);
+                        inFlight.decrementAndGet();
+                        idlePassengers.add(ride.passengerId);
+                        schedulePoll(driverId, 0);
+                        return;
+                    }
+                    scheduleRate(driverId, completed, ratingDelayMillis);
+                } catch (Exception e) {
+                    failed(Transition.COMPLETE, start);
+                    scheduleComplete(driverId, ride, tripMillis);
+                }
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void scheduleRate(final int driverId, final RideAssistGUIwithDriver.RideRequest ride, long delayMillis) {
+        workers.schedule(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                try {
+                    RideAssistGUIwithDriver.RideRequest result =
+                        dispatch.rateRide(ride.id, 1 + ThreadLocalRandom.current().nextInt(5));
+                    record(Transition.RATE, start);
+                    Long requestedAt = requestTimes.remove(ride.id);
+                    if (result == null) {
+                        conflict(Transition.RATE);
+                    } else {
+                        if (requestedAt != null) {
+                            rideTotal.record(System.nanoTime() - requestedAt);
+                        }
+                        rated.incrementAndGet();
+                    }
+                    inFlight.decrementAndGet();
+                    idlePassengers.add(ride.passengerId);
+                    // The rating frees the driver
+                    schedulePoll(driverId, 0);
+                } catch (Exception e) {
+                    failed(Transition.RATE, start);
+                    scheduleRate(driverId, ride, ratingDelayMillis);
+                }
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void record(Transition transition, long startNanos) {
+        stats[transition.ordinal()].latency.record(System.nanoTime() - startNanos);
+    }
+
+    private void failed(Transition transition, long startNanos) {
+        record(transition, startNanos);
+        stats[transition.ordinal()].errors.incrementAndGet();
+    }
+
+    private void conflict(Transition transition) {
+        stats[transition.ordinal()].conflicts.incrementAndGet();
+    }
+
+    String report(long durationMillis, long ratedInRun) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Rides: requested=%d, rated=%d, ratedDuringRun=%d, throughput=%.1f rides/min, " +
+                "arrivalsDropped=%d, unfinished=%d%n",
+            requested.get(), rated.get(), ratedInRun, ratedInRun * 60_000.0 / durationMillis,
+            arrivalsDropped.get(), inFlight.get()));
+        for (Transition transition : Transition.values()) {
+            TransitionStats transitionStats = stats[transition.ordinal()];
+            sb.append(String.format("%-8s %s, errors=%d, conflicts=%d%n", transition,
+                transitionStats.latency.summary(), transitionStats.errors.get(), transitionStats.conflicts.get()));
+        }
+        sb.append("Pickup wait: ").append(pickupWait.summary()).append("\n");
+        sb.append("Ride total:  ").append(rideTotal.summary());
+        return sb.toString();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int passengers = Integer.getInteger("ride.sim.passengers", DEFAULT_PASSENGERS);
+        int driverCount = Integer.getInteger("ride.sim.drivers", DEFAULT_DRIVERS);
+        double ridesPerMinute = Double.parseDouble(System.getProperty("ride.sim.ridesPerMinute",
+            String.valueOf(DEFAULT_RIDES_PER_MINUTE)));
+        long durationMillis = Integer.getInteger("ride.sim.durationSeconds", DEFAULT_DURATION_SECONDS) * 1000L;
+
+        // Same startup phases as the desktop, without the UI
+        RideAssistGUIwithDriver.startLoading(System.getProperty("ride.service.url"));
+        try {
+            RideAssistGUIwithDriver.ridesReady.join();
+        } catch (Exception e) {
+            System.out.println("Load simulator could not load its data: " + DataAccess.unwrap(e).getMessage());
+            System.exit(1);
+        }
+
+        LoadSimulator simulator = new LoadSimulator(RideAssistGUIwithDriver.dispatch,
+            Integer.getInteger("ride.sim.threads", DEFAULT_THREADS),
+            Integer.getInteger("ride.sim.tripMillis", DEFAULT_TRIP_MS),
+            Integer.getInteger("ride.sim.ratingDelayMillis", DEFAULT_RATING_DELAY_MS),
+            Integer.getInteger("ride.sim.driverPollMillis", DEFAULT_DRIVER_POLL_MS));
+        String tag = Long.toString(System.currentTimeMillis() % 1_000_000_000L, 36);
+        try (Connection connection = RideAssistGUIwithDriver.pool.getConnection()) {
+            simulator.addPassengers(connection, passengers, tag);
+        }
+        System.out.println(String.format("Load simulation: %d passengers, %d drivers, %.0f rides/min for %ds",
+            passengers, driverCount, ridesPerMinute, durationMillis / 1000));
+        simulator.addDrivers(driverCount, tag);
+
+        simulator.run(ridesPerMinute, durationMillis);
+        long ratedInRun = simulator.rated.get();
+        if (!simulator.drain(Integer.getInteger("ride.sim.drainSeconds", DEFAULT_DRAIN_SECONDS) * 1000L)) {
+            System.out.println("Some rides were still unfinished when the drain time ran out");
+        }
+        simulator.shutdown();
+        System.out.println(simulator.report(durationMillis, ratedInRun));
+        System.exit(0);
+    }
+}
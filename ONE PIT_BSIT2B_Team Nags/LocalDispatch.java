@@ -0,0 +1,519 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+// Dispatch state held in this JVM: the ride registries, driver directory and dispatch grid loaded at
+// startup, kept in step with the database. Used directly by a standalone desktop, and behind
+// DispatchService when several desktops share one service. Calls block on the database, so the UI
+// runs them on a DataAccess worker. Every ride transition is published on RideEvents.
+class LocalDispatch implements DispatchCore {
+
+    // Time spent in the database per call, and ride transitions by outcome; see Metrics
+    private static final Metrics.Timer INSERT_RIDE_TIMER = Metrics.timer("db.rides.insert");
+    private static final Metrics.Timer CLAIM_RIDE_TIMER = Metrics.timer("db.rides.claim");
+    private static final Metrics.Timer DECLINE_RIDE_TIMER = Metrics.timer("db.rides.decline");
+    private static final Metrics.Timer COMPLETE_RIDE_TIMER = Metrics.timer("db.rides.complete");
+    private static final Metrics.Timer RATE_RIDE_TIMER = Metrics.timer("db.rides.rate");
+    private static final Metrics.Timer DRIVER_AVAILABILITY_TIMER = Metrics.timer("db.drivers.availability");
+    private static final Metrics.Timer DRIVER_LOCATION_TIMER = Metrics.timer("db.drivers.location");
+    private static final Metrics.Timer INSERT_DRIVER_TIMER = Metrics.timer("db.drivers.insert");
+    private static final Metrics.Timer DELETE_DRIVER_TIMER = Metrics.timer("db.drivers.delete");
+    private static final Metrics.Counter RIDES_REQUESTED = Metrics.counter("rides.requested");
+    private static final Metrics.Counter RIDES_ACCEPTED = Metrics.counter("rides.accepted");
+    private static final Metrics.Counter CLAIM_CONFLICTS = Metrics.counter("rides.claimConflicts");
+    private static final Metrics.Counter RIDES_DECLINED = Metrics.counter("rides.declined");
+    private static final Metrics.Counter RIDES_COMPLETED = Metrics.counter("rides.completed");
+    private static final Metrics.Counter RIDES_RATED = Metrics.counter("rides.rated");
+
+    LocalDispatch() {
+        Metrics.gauge(new Metrics.Gauge("rides.pending") {
+            @Override
+            long value() {
+                return RideAssistGUIwithDriver.pendingRideRequests.size();
+            }
+        });
+        Metrics.gauge(new Metrics.Gauge("rides.active") {
+            @Override
+            long value() {
+                return RideAssistGUIwithDriver.activeRides.size();
+            }
+        });
+        Metrics.gauge(new Metrics.Gauge("rides.awaitingRating") {
+            @Override
+            long value() {
+                return RideAssistGUIwithDriver.ridesAwaitingRating.size();
+            }
+        });
+        Metrics.gauge(new Metrics.Gauge("drivers.available") {
+            @Override
+            long value() {
+                int available = 0;
+                for (RideAssistGUIwithDriver.Driver driver : RideAssistGUIwithDriver.drivers.snapshot()) {
+                    if (driver.isAvailable) {
+                        available++;
+                    }
+                }
+                return available;
+            }
+        });
+    }
+
+    @Override
+    public RideAssistGUIwithDriver.RideRequest requestRide(int passengerId, String passengerName, String passengerNumber,
+                                                           String from, String to) throws SQLException {
+        RideAssistGUIwithDriver.RideRequest ride =
+            new RideAssistGUIwithDriver.RideRequest(passengerName, passengerNumber, from, to, passengerId);
+        long start = System.nanoTime();
+        boolean succeeded = false;
+        try (Connection connection = RideAssistGUIwithDriver.pool.getConnection()) {
+            PreparedStatement pstmt = connection.prepareStatement(RideSql.INSERT_RIDE, Statement.RETURN_GENERATED_KEYS);
+            pstmt.setInt(1, passengerId);
+            pstmt.setString(2, from);
+            pstmt.setString(3, to);
+            pstmt.setInt(4, ride.fare);
+            Places.setCoordinate(pstmt, 5, ride.pickupLat);
+            Places.setCoordinate(pstmt, 6, ride.pickupLon);
+            pstmt.executeUpdate();
+
+            ResultSet generatedKeys = pstmt.getGeneratedKeys();
+            if (generatedKeys.next()) {
+                ride.id = generatedKeys.getInt(1);
+            }
+            generatedKeys.close();
+            pstmt.close();
+            succeeded = true;
+        } finally {
+            INSERT_RIDE_TIMER.stop(start, succeeded);
+        }
+        RIDES_REQUESTED.increment();
+        RideAssistGUIwithDriver.pendingRideRequests.add(ride);
+        RideEvents.publish(RideEvents.Type.CREATED, ride);
+        return ride;
+    }
+
+    @Override
+    public List<RideAssistGUIwithDriver.RideRequest> pendingRides() {
+        return RideAssistGUIwithDriver.pendingRideRequests.snapshot();
+    }
+
+    @Override
+    public List<RideAssistGUIwithDriver.RideRequest> activeRides() {
+        return RideAssistGUIwithDriver.activeRides.snapshot();
+    }
+
+    @Override
+    public List<RideAssistGUIwithDriver.RideRequest> ridesAwaitingRating() {
+        return RideAssistGUIwithDriver.ridesAwaitingRating.snapshot();
+    }
+
+    @Override
+    public List<RideAssistGUIwithDriver.RideRequest> ridesForPassenger(int passengerId) {
+        List<RideAssistGUIwithDriver.RideRequest> rides = new ArrayList<>();
+        rides.addAll(RideAssistGUIwithDriver.pendingRideRequests.findByPassenger(passengerId));
+        rides.addAll(RideAssistGUIwithDriver.activeRides.findByPassenger(passengerId));
+        rides.addAll(RideAssistGUIwithDriver.ridesAwaitingRating.findByPassenger(passengerId));
+        return rides;
+    }
+
+    @Override
+    public ClaimResult acceptRide(int rideId, int driverId) throws SQLException {
+        RideAssistGUIwithDriver.Driver driver = RideAssistGUIwithDriver.drivers.getById(driverId);
+        if (driver == null) {
+            return ClaimResult.DRIVER_UNAVAILABLE;
+        }
+
+        // Looked up before the claim: a driver who loses the race removes the ride from pending, and that
+        // can happen before the winner gets here
+        RideAssistGUIwithDriver.RideRequest ride = RideAssistGUIwithDriver.pendingRideRequests.get(rideId);
+        ClaimResult result = null;
+        long start = System.nanoTime();
+        try (Connection connection = RideAssistGUIwithDriver.pool.getConnection()) {
+            result = claimRideInDB(connection, rideId, driverId);
+        } finally {
+            CLAIM_RIDE_TIMER.stop(start, result != null);
+        }
+        if (result == ClaimResult.CLAIMED) {
+            RIDES_ACCEPTED.increment();
+        } else if (result == ClaimResult.ALREADY_TAKEN) {
+            // A busy driver is not a race for the ride
+            CLAIM_CONFLICTS.increment();
+        }
+
+        if (result == ClaimResult.ALREADY_TAKEN && ride != null) {
+            // Another driver got there first
+            synchronized (DeltaSync.RIDE_MOVES) {
+                RideAssistGUIwithDriver.pendingRideRequests.remove(ride);
+            }
+        } else if (result == ClaimResult.CLAIMED) {
+            driver.isAvailable = false;
+            RideAssistGUIwithDriver.dispatchGrid.update(driver);
+            if (ride == null) {
+                // Requested on another desktop and not synced here yet
+                ride = loadRide(rideId);
+            }
+            // Move request to active rides (ids must not change while registered)
+            synchronized (DeltaSync.RIDE_MOVES) {
+                if (ride != null) {
+                    RideAssistGUIwithDriver.pendingRideRequests.remove(ride);
+                    ride.status = "ACCEPTED";
+                    ride.driverAssigned = driver.name;
+                    ride.driverId = driver.id;
+                    RideAssistGUIwithDriver.activeRides.add(ride);
+                    RideEvents.publish(RideEvents.Type.ACCEPTED, ride);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean declineRide(int rideId) throws SQLException {
+        int deleted;
+        long start = System.nanoTime();
+        boolean succeeded = false;
+        try (Connection connection = RideAssistGUIwithDriver.pool.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                // Only a ride nobody has claimed yet can be declined
+                PreparedStatement pstmt = connection.prepareStatement(RideSql.DELETE_PENDING_RIDE);
+                pstmt.setInt(1, rideId);
+                deleted = pstmt.executeUpdate();
+                pstmt.close();
+                if (deleted > 0) {
+                    DeltaSync.recordDeletion(connection, "rides", rideId);
+                }
+                connection.commit();
+                succeeded = true;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } finally {
+            DECLINE_RIDE_TIMER.stop(start, succeeded);
+        }
+        if (deleted > 0) {
+            RIDES_DECLINED.increment();
+        }
+        // Either way it is no longer pending
+        synchronized (DeltaSync.RIDE_MOVES) {
+            RideAssistGUIwithDriver.RideRequest ride = RideAssistGUIwithDriver.pendingRideRequests.get(rideId);
+            if (RideAssistGUIwithDriver.pendingRideRequests.remove(ride) && deleted > 0) {
+                ride.status = "DECLINED";
+                RideEvents.publish(RideEvents.Type.DECLINED, ride);
+            }
+            if (deleted > 0) {
+                DeltaSync.rideClosed(rideId);
+            }
+        }
+        return deleted > 0;
+    }
+
+    @Override
+    public RideAssistGUIwithDriver.RideRequest completeRide(int driverId) throws SQLException {
+        RideAssistGUIwithDriver.RideRequest ride = RideAssistGUIwithDriver.activeRides.findByDriver(driverId);
+        if (ride == null) {
+            return null;
+        }
+        long start = System.nanoTime();
+        boolean succeeded = false;
+        try (Connection connection = RideAssistGUIwithDriver.pool.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                Timestamp completedAt = new Timestamp(System.currentTimeMillis());
+                PreparedStatement pstmt = connection.prepareStatement(RideSql.COMPLETE_RIDE);
+                pstmt.setTimestamp(1, completedAt);
+                pstmt.setInt(2, ride.id);
+                int completed = pstmt.executeUpdate();
+                pstmt.close();
+                if (completed != 1) {
+                    // Already completed, e.g. from another desktop; its totals were added then
+                    connection.rollback();
+                    succeeded = true;
+                    return null;
+                }
+                DriverStatsRollup.recordCompletedRide(connection, driverId, ride.fare);
+                EarningsBuckets.recordCompletedRide(connection, driverId, ride.fare, completedAt);
+                connection.commit();
+                succeeded = true;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } finally {
+            COMPLETE_RIDE_TIMER.stop(start, succeeded);
+        }
+        RIDES_COMPLETED.increment();
+        // The driver stays busy until the passenger rates the ride
+        synchronized (DeltaSync.RIDE_MOVES) {
+            RideAssistGUIwithDriver.activeRides.remove(ride);
+            ride.status = "COMPLETED";
+            RideAssistGUIwithDriver.ridesAwaitingRating.add(ride);
+            RideEvents.publish(RideEvents.Type.COMPLETED, ride);
+        }
+        return ride;
+    }
+
+    @Override
+    public RideAssistGUIwithDriver.RideRequest rateRide(int rideId, int rating) throws SQLException {
+        RideAssistGUIwithDriver.RideRequest ride = RideAssistGUIwithDriver.ridesAwaitingRating.get(rideId);
+        if (ride == null) {
+            return null;
+        }
+        RideAssistGUIwithDriver.Driver driver = RideAssistGUIwithDriver.drivers.getById(ride.driverId);
+
+        long start = System.nanoTime();
+        boolean succeeded = false;
+        try (Connection connection = RideAssistGUIwithDriver.pool.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                PreparedStatement pstmt = connection.prepareStatement(RideSql.RATE_RIDE);
+                pstmt.setInt(1, rating);
+                pstmt.setInt(2, ride.id);
+                int rated = pstmt.executeUpdate();
+                pstmt.close();
+                if (rated != 1) {
+                    // Already rated, or no longer completed
+                    connection.rollback();
+                    succeeded = true;
+                    return null;
+                }
+                DriverStatsRollup.recordRating(connection, ride.driverId, rating);
+                if (driver != null) {
+                    // Make driver available again
+                    updateDriverAvailabilityInDB(connection, driver.id, true);
+                }
+                connection.commit();
+                succeeded = true;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } finally {
+            RATE_RIDE_TIMER.stop(start, succeeded);
+        }
+        RIDES_RATED.increment();
+
+        synchronized (DeltaSync.RIDE_MOVES) {
+            ride.rating = rating;
+            ride.status = "RATED";
+            RideAssistGUIwithDriver.ridesAwaitingRating.remove(ride);
+            DeltaSync.rideClosed(ride.id);
+        }
+        if (driver != null) {
+            driver.addRideEarnings(ride.fare);
+            driver.addRating(rating);
+            driver.isAvailable = true;
+            RideAssistGUIwithDriver.dispatchGrid.update(driver);
+        }
+        // Ride history pages now include this ride
+        RideAssistGUIwithDriver.rideHistory.invalidate();
+        RideEvents.publish(RideEvents.Type.RATED, ride);
+        return ride;
+    }
+
+    @Override
+    public List<RideAssistGUIwithDriver.Driver> drivers() {
+        return RideAssistGUIwithDriver.drivers.snapshot();
+    }
+
+    @Override
+    public RideAssistGUIwithDriver.Driver getDriver(int driverId) {
+        return RideAssistGUIwithDriver.drivers.getById(driverId);
+    }
+
+    @Override
+    public RideAssistGUIwithDriver.Driver driverLogin(String username, String password) {
+        RideAssistGUIwithDriver.Driver driver = RideAssistGUIwithDriver.drivers.getByUsername(username);
+        if (driver == null || !driver.password.equals(password)) {
+            return null;
+        }
+        return driver;
+    }
+
+    @Override
+    public RideAssistGUIwithDriver.Driver setDriverAvailable(int driverId, boolean available) throws SQLException {
+        RideAssistGUIwithDriver.Driver driver = RideAssistGUIwithDriver.drivers.getById(driverId);
+        if (driver == null) {
+            return null;
+        }
+        long start = System.nanoTime();
+        boolean succeeded = false;
+        try (Connection connection = RideAssistGUIwithDriver.pool.getConnection()) {
+            updateDriverAvailabilityInDB(connection, driverId, available);
+            succeeded = true;
+        } finally {
+            DRIVER_AVAILABILITY_TIMER.stop(start, succeeded);
+        }
+        driver.isAvailable = available;
+        RideAssistGUIwithDriver.dispatchGrid.update(driver);
+        return driver;
+    }
+
+    @Override
+    public RideAssistGUIwithDriver.Driver setDriverLocation(int driverId, double latitude, double longitude) throws SQLException {
+        RideAssistGUIwithDriver.Driver driver = RideAssistGUIwithDriver.drivers.getById(driverId);
+        if (driver == null) {
+            return null;
+        }
+        long start = System.nanoTime();
+        boolean succeeded = false;
+        try (Connection connection = RideAssistGUIwithDriver.pool.getConnection()) {
+            PreparedStatement pstmt = connection.prepareStatement(RideSql.SET_DRIVER_LOCATION);
+            Places.setCoordinate(pstmt, 1, latitude);
+            Places.setCoordinate(pstmt, 2, longitude);
+            pstmt.setInt(3, driverId);
+            pstmt.executeUpdate();
+            pstmt.close();
+            succeeded = true;
+        } finally {
+            DRIVER_LOCATION_TIMER.stop(start, succeeded);
+        }
+        driver.latitude = latitude;
+        driver.longitude = longitude;
+        RideAssistGUIwithDriver.dispatchGrid.update(driver);
+        return driver;
+    }
+
+    @Override
+    public RideAssistGUIwithDriver.Driver addDriver(String name, String vehicle, String priceRange, String username,
+                                                    String password) throws SQLException {
+        int id = -1;
+        long start = System.nanoTime();
+        boolean succeeded = false;
+        try (Connection connection = RideAssistGUIwithDriver.pool.getConnection()) {
+            PreparedStatement pstmt = connection.prepareStatement(RideSql.INSERT_DRIVER, Statement.RETURN_GENERATED_KEYS);
+            pstmt.setString(1, name);
+            pstmt.setString(2, vehicle);
+            pstmt.setString(3, priceRange);
+            pstmt.setString(4, username);
+            pstmt.setString(5, password);
+            pstmt.executeUpdate();
+
+            ResultSet generatedKeys = pstmt.getGeneratedKeys();
+            if (generatedKeys.next()) {
+                id = generatedKeys.getInt(1);
+            }
+            generatedKeys.close();
+            pstmt.close();
+            succeeded = true;
+        } finally {
+            INSERT_DRIVER_TIMER.stop(start, succeeded);
+        }
+        if (id == -1) {
+            return null;
+        }
+        RideAssistGUIwithDriver.Driver driver =
+            new RideAssistGUIwithDriver.Driver(id, name, vehicle, priceRange, username, password);
+        RideAssistGUIwithDriver.drivers.add(driver);
+        return driver;
+    }
+
+    @Override
+    public boolean removeDriver(int driverId) throws SQLException {
+        long start = System.nanoTime();
+        boolean succeeded = false;
+        try (Connection connection = RideAssistGUIwithDriver.pool.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                PreparedStatement pstmt = connection.prepareStatement(RideSql.DELETE_DRIVER);
+                pstmt.setInt(1, driverId);
+                if (pstmt.executeUpdate() > 0) {
+                    DeltaSync.recordDeletion(connection, "drivers", driverId);
+                }
+                pstmt.close();
+                connection.commit();
+                succeeded = true;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } finally {
+            DELETE_DRIVER_TIMER.stop(start, succeeded);
+        }
+        RideAssistGUIwithDriver.Driver driver = RideAssistGUIwithDriver.drivers.getById(driverId);
+        if (driver == null) {
+            return false;
+        }
+        RideAssistGUIwithDriver.drivers.remove(driver);
+        RideAssistGUIwithDriver.dispatchGrid.remove(driver);
+        return true;
+    }
+
+    @Override
+    public List<DriverGrid.Match> nearestDrivers(double latitude, double longitude, int k) {
+        return RideAssistGUIwithDriver.dispatchGrid.nearest(latitude, longitude, k,
+            RideAssistGUIwithDriver.DISPATCH_RADIUS_KM);
+    }
+
+    // Claims the ride only if it is still PENDING and the driver is still available, both in one short
+    // transaction, so when several drivers accept the same request exactly one of them wins.
+    private static ClaimResult claimRideInDB(Connection connection, int rideId, int driverId) throws SQLException {
+        connection.setAutoCommit(false);
+        try {
+            PreparedStatement pstmt = connection.prepareStatement(RideSql.CLAIM_RIDE);
+            pstmt.setInt(1, driverId);
+            pstmt.setInt(2, rideId);
+            int claimed = pstmt.executeUpdate();
+            pstmt.close();
+            if (claimed == 0) {
+                connection.rollback();
+                return ClaimResult.ALREADY_TAKEN;
+            }
+
+            // Update driver availability in database
+            pstmt = connection.prepareStatement(RideSql.CLAIM_DRIVER);
+            pstmt.setInt(1, driverId);
+            int driverClaimed = pstmt.executeUpdate();
+            pstmt.close();
+            if (driverClaimed == 0) {
+                connection.rollback();
+                return ClaimResult.DRIVER_UNAVAILABLE;
+            }
+
+            connection.commit();
+            return ClaimResult.CLAIMED;
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    // The ride as it is in the database now, or null if it is gone
+    private static RideAssistGUIwithDriver.RideRequest loadRide(int rideId) throws SQLException {
+        RideAssistGUIwithDriver.RideRequest ride = null;
+        try (Connection connection = RideAssistGUIwithDriver.pool.getConnection()) {
+            PreparedStatement pstmt = connection.prepareStatement(RideSql.LOAD_RIDE);
+            pstmt.setInt(1, rideId);
+            ResultSet rs = pstmt.executeQuery();
+            if (rs.next()) {
+                ride = RideAssistGUIwithDriver.rideFromRow(rs, rs.getString("driver_name"));
+            }
+            rs.close();
+            pstmt.close();
+        }
+        return ride;
+    }
+
+    private static void updateDriverAvailabilityInDB(Connection connection, int driverId, boolean isAvailable) throws SQLException {
+        PreparedStatement pstmt = connection.prepareStatement(RideSql.SET_DRIVER_AVAILABILITY);
+        pstmt.setBoolean(1, isAvailable);
+        pstmt.setInt(2, driverId);
+        pstmt.executeUpdate();
+        pstmt.close();
+    }
+}
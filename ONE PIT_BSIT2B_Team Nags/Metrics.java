@@ -0,0 +1,249 @@
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Named timers, counters and gauges for the persistence calls and dispatch state. Each metric is
+// registered as an MBean under "RideAssist:type=...,name=..." when it is created, so a running desktop,
+// DispatchService or LoadSimulator can be watched with JConsole or any JMX client; report() prints them
+// all at shutdown. Metrics are created once into static fields and are safe to update from any thread.
+class Metrics {
+
+    static final String JMX_DOMAIN = "RideAssist";
+
+    private static final Map<String, Metric> metrics = new LinkedHashMap<>();
+    // Every failed timed call; the timer that failed has its own count too
+    private static final Counter sqlErrors = counter("sql.errors");
+
+    private abstract static class Metric {
+        final String name;
+
+        Metric(String name) {
+            this.name = name;
+        }
+
+        abstract String type();
+
+        // Attribute name to current value, in display order
+        abstract Map<String, Object> values();
+    }
+
+    // Latency and failures of one operation
+    static class Timer extends Metric {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLong errors = new AtomicLong();
+
+        Timer(String name) {
+            super(name);
+        }
+
+        // Call from a finally block with the System.nanoTime() taken before the call
+        void stop(long startNanos, boolean succeeded) {
+            latency.record(System.nanoTime() - startNanos);
+            if (!succeeded) {
+                errors.incrementAndGet();
+                sqlErrors.increment();
+            }
+        }
+
+        @Override
+        String type() {
+            return "Timer";
+        }
+
+        @Override
+        Map<String, Object> values() {
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put("Count", latency.count());
+            values.put("Errors", errors.get());
+            values.put("MeanMillis", latency.meanNanos() / 1_000_000.0);
+            values.put("P50Millis", latency.percentileNanos(50) / 1_000_000.0);
+            values.put("P99Millis", latency.percentileNanos(99) / 1_000_000.0);
+            values.put("P999Millis", latency.percentileNanos(99.9) / 1_000_000.0);
+            values.put("MaxMillis", latency.maxNanos() / 1_000_000.0);
+            return values;
+        }
+    }
+
+    static class Counter extends Metric {
+        private final AtomicLong count = new AtomicLong();
+
+        Counter(String name) {
+            super(name);
+        }
+
+        void increment() {
+            count.incrementAndGet();
+        }
+
+        long count() {
+            return count.get();
+        }
+
+        @Override
+        String type() {
+            return "Counter";
+        }
+
+        @Override
+        Map<String, Object> values() {
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put("Count", count.get());
+            return values;
+        }
+    }
+
+    // A value read when asked for, e.g. a queue size
+    abstract static class Gauge extends Metric {
+        Gauge(String name) {
+            super(name);
+        }
+
+        abstract long value();
+
+        @Override
+        String type() {
+            return "Gauge";
+        }
+
+        @Override
+        Map<String, Object> values() {
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put("Value", value());
+            return values;
+        }
+    }
+
+    static synchronized Timer timer(String name) {
+        Metric existing = metrics.get(name);
+        if (existing instanceof Timer) {
+            return (Timer) existing;
+        }
+        Timer timer = new Timer(name);
+        register(timer);
+        return timer;
+    }
+
+    static synchronized Counter counter(String name) {
+        Metric existing = metrics.get(name);
+        if (existing instanceof Counter) {
+            return (Counter) existing;
+        }
+        Counter counter = new Counter(name);
+        register(counter);
+        return counter;
+    }
+
+    // Replaces an earlier gauge of the same name, e.g. when the dispatch state is set up again
+    static synchronized void gauge(Gauge gauge) {
+        register(gauge);
+    }
+
+    private static void register(Metric metric) {
+        metrics.put(metric.name, metric);
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(JMX_DOMAIN + ":type=" + metric.type() + ",name=" + metric.name);
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(new MetricBean(metric), objectName);
+        } catch (JMException e) {
+            // Still counted and reported, just not visible over JMX
+            System.out.println("Metrics: could not register " + metric.name + " with JMX: " + e.getMessage());
+        }
+    }
+
+    // One line per metric, for the shutdown report
+    static synchronized String report() {
+        StringBuilder sb = new StringBuilder();
+        for (Metric metric : metrics.values()) {
+            if (sb.length() > 0) {
+                sb.append("\n");
+            }
+            sb.append("  ").append(metric.name).append(": ");
+            boolean first = true;
+            for (Map.Entry<String, Object> value : metric.values().entrySet()) {
+                if (!first) {
+                    sb.append(", ");
+                }
+                first = false;
+                sb.append(value.getKey()).append("=");
+                if (value.getValue() instanceof Double) {
+                    sb.append(String.format("%.2f", (Double) value.getValue()));
+                } else {
+                    sb.append(value.getValue());
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    // Read-only MBean whose attributes are the metric's values
+    private static class MetricBean implements DynamicMBean {
+        private final Metric metric;
+
+        MetricBean(Metric metric) {
+            this.metric = metric;
+        }
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Object value = metric.values().get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value;
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Object> values = metric.values();
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                if (values.containsKey(attribute)) {
+                    list.add(new Attribute(attribute, values.get(attribute)));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            Map<String, Object> values = metric.values();
+            MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[values.size()];
+            int i = 0;
+            for (Map.Entry<String, Object> value : values.entrySet()) {
+                attributes[i++] = new MBeanAttributeInfo(value.getKey(), value.getValue().getClass().getName(),
+                    value.getKey(), true, false, false);
+            }
+            return new MBeanInfo(getClass().getName(), metric.type() + " " + metric.name, attributes,
+                null, null, null);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Known pickup and drop-off places around Oroquieta City with approximate coordinates, used to turn the
+// free-text locations passengers type into positions. Coordinates are good to a few hundred metres,
+// which is enough to rank drivers by distance.
+class Places {
+
+    static class Place {
+        // Position in all(), for tables indexed by place
+        final int index;
+        final String name;
+        final double latitude;
+        final double longitude;
+
+        Place(int index, String name, double latitude, double longitude) {
+            this.index = index;
+            this.name = name;
+            this.latitude = latitude;
+            this.longitude = longitude;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    static final double EARTH_RADIUS_KM = 6371.0;
+
+    private static final List<Place> PLACES = new ArrayList<>();
+    private static final Map<String, Place> BY_KEY = new HashMap<>();
+    // Longest names first, so "Upper Lamac" wins over "Lamac" when matching inside longer text
+    private static final List<String> KEYS_LONGEST_FIRST;
+
+    static {
+        add("City Hall", 8.4857, 123.8040);
+        add("Provincial Capitol", 8.4872, 123.8026);
+        add("Public Market", 8.4845, 123.8058);
+        add("Port", 8.4905, 123.8090);
+        add("Plaza", 8.4853, 123.8049);
+        add("Misamis University", 8.4830, 123.8030);
+        add("Poblacion I", 8.4862, 123.8055);
+        add("Poblacion II", 8.4838, 123.8041);
+        add("Lower Lamac", 8.4925, 123.8035);
+        add("Upper Lamac", 8.4950, 123.7960);
+        add("Mobod", 8.4735, 123.8010);
+        add("Taboc Norte", 8.4980, 123.8050);
+        add("Taboc Sur", 8.4955, 123.8000);
+        add("Canubay", 8.4700, 123.7900);
+        add("Villaflor", 8.4790, 123.7920);
+        add("Talairon", 8.5120, 123.8000);
+        add("Layawan", 8.4600, 123.7960);
+        add("Langcangan", 8.4720, 123.7850);
+        add("Pines", 8.4680, 123.7700);
+        add("Sebucal", 8.5050, 123.7850);
+        add("Bunga", 8.4550, 123.7870);
+        add("Dolipos Bajo", 8.5200, 123.7960);
+
+        List<String> keys = new ArrayList<>(BY_KEY.keySet());
+        Collections.sort(keys, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return b.length() - a.length();
+            }
+        });
+        KEYS_LONGEST_FIRST = keys;
+    }
+
+    private static void add(String name, double latitude, double longitude) {
+        Place place = new Place(PLACES.size(), name, latitude, longitude);
+        PLACES.add(place);
+        BY_KEY.put(normalize(name), place);
+    }
+
+    // Lower case, punctuation and repeated spaces removed
+    private static String normalize(String text) {
+        // Hand-rolled instead of regex replaceAll; this runs on every fare quote and pickup lookup
+        StringBuilder sb = new StringBuilder(text.length());
+        boolean pendingSpace = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = Character.toLowerCase(text.charAt(i));
+            if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')) {
+                if (pendingSpace && sb.length() > 0) {
+                    sb.append(' ');
+                }
+                pendingSpace = false;
+                sb.append(c);
+            } else {
+                pendingSpace = true;
+            }
+        }
+        return sb.toString();
+    }
+
+    // The place named in the text, e.g. "Mobod" or "near the public market"; null if none is recognised
+    static Place lookup(String text) {
+        if (text == null) {
+            return null;
+        }
+        String key = normalize(text);
+        Place exact = BY_KEY.get(key);
+        if (exact != null) {
+            return exact;
+        }
+        String padded = " " + key + " ";
+        for (String candidate : KEYS_LONGEST_FIRST) {
+            if (padded.contains(" " + candidate + " ")) {
+                return BY_KEY.get(candidate);
+            }
+        }
+        return null;
+    }
+
+    static List<Place> all() {
+        return Collections.unmodifiableList(PLACES);
+    }
+
+    // Great-circle distance
+    static double distanceKm(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) +
+            Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.sqrt(a));
+    }
+
+    // Coordinates are stored as nullable DOUBLE columns; NaN in memory means unknown
+    static void setCoordinate(PreparedStatement pstmt, int index, double value) throws SQLException {
+        if (Double.isNaN(value)) {
+            pstmt.setNull(index, Types.DOUBLE);
+        } else {
+            pstmt.setDouble(index, value);
+        }
+    }
+
+    static double getCoordinate(ResultSet rs, String column) throws SQLException {
+        double value = rs.getDouble(column);
+        return rs.wasNull() ? Double.NaN : value;
+    }
+}
@@ -0,0 +1,96 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+// Runs EXPLAIN on the hot ride queries and fails if MySQL would read the rides table with a full scan
+// (access type ALL), or would sort the rows of a paged query (Using filesort) instead of reading them in
+// index order, which reads every matching row for each page. Run it after adding a query or changing an
+// index:
+//   java QueryPlanCheck
+// The optimizer may still pick a scan on a table with only a handful of rows, so check against a
+// database with realistic data.
+class QueryPlanCheck {
+
+    private static class HotQuery {
+        final String name;
+        // Read a page at a time, so the rows must come in index order
+        final boolean paged;
+        final String sql;
+        final Object[] params;
+
+        HotQuery(String name, boolean paged, String sql, Object... params) {
+            this.name = name;
+            this.paged = paged;
+            this.sql = sql;
+            this.params = params;
+        }
+    }
+
+    private static List<HotQuery> hotQueries() {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        List<HotQuery> queries = new ArrayList<>();
+        queries.add(new HotQuery("load pending rides", false, RideSql.LOAD_PENDING_RIDES));
+        queries.add(new HotQuery("load accepted rides", false, RideSql.LOAD_ACCEPTED_RIDES));
+        queries.add(new HotQuery("history first page", true, RideSql.HISTORY_FIRST_PAGE, 21));
+        queries.add(new HotQuery("history next page", true, RideSql.HISTORY_NEXT_PAGE, now, now, 1, 21));
+        queries.add(new HotQuery("claim ride", false, RideSql.CLAIM_RIDE, 1, 1));
+        queries.add(new HotQuery("complete ride", false, RideSql.COMPLETE_RIDE, now, 1));
+        queries.add(new HotQuery("rate ride", false, RideSql.RATE_RIDE, 5, 1));
+        queries.add(new HotQuery("delete finished ride", false, RideSql.DELETE_FINISHED_RIDE, 1));
+        queries.add(new HotQuery("earnings backfill chunk", true, RideSql.EARNINGS_BACKFILL_RIDES, 0, now, 5000));
+        queries.add(new HotQuery("archive candidates", false, RideSql.ARCHIVE_CANDIDATES, now, 50000));
+        return queries;
+    }
+
+    // Returns one line per query that scans the rides table or sorts a page; empty if every plan uses an index
+    static List<String> check(Connection connection) throws SQLException {
+        List<String> failures = new ArrayList<>();
+        for (HotQuery query : hotQueries()) {
+            PreparedStatement pstmt = connection.prepareStatement("EXPLAIN " + query.sql);
+            for (int i = 0; i < query.params.length; i++) {
+                pstmt.setObject(i + 1, query.params[i]);
+            }
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                String table = rs.getString("table");
+                String type = rs.getString("type");
+                if (("r".equals(table) || "rides".equals(table)) && "ALL".equalsIgnoreCase(type)) {
+                    failures.add(query.name + ": full scan of rides (possible_keys=" + rs.getString("possible_keys") + ")");
+                }
+                String extra = rs.getString("Extra");
+                if (query.paged && extra != null && extra.contains("Using filesort")) {
+                    failures.add(query.name + ": sorts every matching row of " + table + " (key=" + rs.getString("key") + ")");
+                }
+            }
+            rs.close();
+            pstmt.close();
+        }
+        return failures;
+    }
+
+    public static void main(String[] args) throws Exception {
+        DatabaseConfig database = DatabaseConfig.fromSystemProperties();
+        if (database.embedded) {
+            // EXPLAIN output differs, and the plans that matter are MySQL's
+            System.out.println("Query plans can only be checked against MySQL, not " + database);
+            System.exit(1);
+        }
+        database.loadDriver();
+        try (Connection connection = DriverManager.getConnection(database.url, database.user, database.password)) {
+            List<String> failures = check(connection);
+            if (failures.isEmpty()) {
+                System.out.println("All " + hotQueries().size() + " hot queries use an index on rides, and paged ones read it in order.");
+                return;
+            }
+            for (String failure : failures) {
+                System.out.println("FAIL " + failure);
+            }
+            System.exit(1);
+        }
+    }
+}
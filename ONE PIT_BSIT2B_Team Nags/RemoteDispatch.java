@@ -0,0 +1,258 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// DispatchCore that forwards every call to a DispatchService over HTTP. Used by the desktop when
+// -Dride.service.url is set; returned rides and drivers are copies of the service's state.
+class RemoteDispatch implements DispatchCore {
+
+    static final int CONNECT_TIMEOUT_MS = 2000;
+    static final int READ_TIMEOUT_MS = 10000;
+    static final long EVENT_RETRY_MS = 2000;
+
+    private final String baseUrl;
+
+    RemoteDispatch(String baseUrl) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+    }
+
+    @Override
+    public RideAssistGUIwithDriver.RideRequest requestRide(int passengerId, String passengerName, String passengerNumber,
+                                                           String from, String to) throws IOException {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("passengerId", passengerId);
+        body.put("passengerName", passengerName);
+        body.put("passengerNumber", passengerNumber);
+        body.put("from", from);
+        body.put("to", to);
+        return DispatchService.rideFromJson(post("/rides", body));
+    }
+
+    @Override
+    public List<RideAssistGUIwithDriver.RideRequest> pendingRides() throws IOException {
+        return rides(get("/rides/pending"));
+    }
+
+    @Override
+    public List<RideAssistGUIwithDriver.RideRequest> activeRides() throws IOException {
+        return rides(get("/rides/active"));
+    }
+
+    @Override
+    public List<RideAssistGUIwithDriver.RideRequest> ridesAwaitingRating() throws IOException {
+        return rides(get("/rides/awaiting-rating"));
+    }
+
+    @Override
+    public List<RideAssistGUIwithDriver.RideRequest> ridesForPassenger(int passengerId) throws IOException {
+        return rides(get("/rides/passenger?passengerId=" + passengerId));
+    }
+
+    @Override
+    public ClaimResult acceptRide(int rideId, int driverId) throws IOException {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("rideId", rideId);
+        body.put("driverId", driverId);
+        return ClaimResult.valueOf((String) post("/rides/accept", body));
+    }
+
+    @Override
+    public boolean declineRide(int rideId) throws IOException {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("rideId", rideId);
+        return (Boolean) post("/rides/decline", body);
+    }
+
+    @Override
+    public RideAssistGUIwithDriver.RideRequest completeRide(int driverId) throws IOException {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("driverId", driverId);
+        return DispatchService.rideFromJson(post("/rides/complete", body));
+    }
+
+    @Override
+    public RideAssistGUIwithDriver.RideRequest rateRide(int rideId, int rating) throws IOException {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("rideId", rideId);
+        body.put("rating", rating);
+        return DispatchService.rideFromJson(post("/rides/rate", body));
+    }
+
+    @Override
+    public List<RideAssistGUIwithDriver.Driver> drivers() throws IOException {
+        List<RideAssistGUIwithDriver.Driver> drivers = new ArrayList<>();
+        for (Object json : (List<?>) get("/drivers")) {
+            drivers.add(DispatchService.driverFromJson(json));
+        }
+        return drivers;
+    }
+
+    @Override
+    public RideAssistGUIwithDriver.Driver getDriver(int driverId) throws IOException {
+        return DispatchService.driverFromJson(get("/drivers/get?driverId=" + driverId));
+    }
+
+    @Override
+    public RideAssistGUIwithDriver.Driver driverLogin(String username, String password) throws IOException {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("username", username);
+        body.put("password", password);
+        return DispatchService.driverFromJson(post("/drivers/login", body));
+    }
+
+    @Override
+    public RideAssistGUIwithDriver.Driver setDriverAvailable(int driverId, boolean available) throws IOException {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("driverId", driverId);
+        body.put("available", available);
+        return DispatchService.driverFromJson(post("/drivers/availability", body));
+    }
+
+    @Override
+    public RideAssistGUIwithDriver.Driver setDriverLocation(int driverId, double latitude, double longitude) throws IOException {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("driverId", driverId);
+        body.put("latitude", latitude);
+        body.put("longitude", longitude);
+        return DispatchService.driverFromJson(post("/drivers/location", body));
+    }
+
+    @Override
+    public RideAssistGUIwithDriver.Driver addDriver(String name, String vehicle, String priceRange, String username,
+                                                    String password) throws IOException {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("name", name);
+        body.put("vehicle", vehicle);
+        body.put("priceRange", priceRange);
+        body.put("username", username);
+        body.put("password", password);
+        return DispatchService.driverFromJson(post("/drivers/add", body));
+    }
+
+    @Override
+    public boolean removeDriver(int driverId) throws IOException {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("driverId", driverId);
+        return (Boolean) post("/drivers/remove", body);
+    }
+
+    @Override
+    public List<DriverGrid.Match> nearestDrivers(double latitude, double longitude, int k) throws IOException {
+        List<DriverGrid.Match> matches = new ArrayList<>();
+        for (Object item : (List<?>) get("/drivers/nearest?latitude=" + latitude + "&longitude=" + longitude + "&k=" + k)) {
+            Map<?, ?> json = (Map<?, ?>) item;
+            matches.add(new DriverGrid.Match(DispatchService.driverFromJson(json.get("driver")),
+                ((Number) json.get("distanceKm")).doubleValue()));
+        }
+        return matches;
+    }
+
+    // Long-polls the service's ride events on a background thread and hands them to this desktop's
+    // RideEvents subscribers, so open screens update as they do with a local core
+    void followEvents() {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                // Past the end on purpose: the first reply only tells us where the service is now
+                long after = Long.MAX_VALUE;
+                while (true) {
+                    try {
+                        Map<?, ?> json = (Map<?, ?>) call("GET", "/events?after=" + after, null,
+                            READ_TIMEOUT_MS + (int) DispatchService.EVENT_WAIT_MS);
+                        for (Object item : (List<?>) json.get("events")) {
+                            RideEvents.Event event = DispatchService.eventFromJson(item);
+                            RideEvents.deliver(event);
+                            after = event.sequence;
+                        }
+                        // Behind our position means the service restarted and numbers events from scratch
+                        long last = ((Number) json.get("lastSequence")).longValue();
+                        if (last < after) {
+                            after = last;
+                        }
+                    } catch (IOException e) {
+                        try {
+                            Thread.sleep(EVENT_RETRY_MS);
+                        } catch (InterruptedException interrupted) {
+                            return;
+                        }
+                    }
+                }
+            }
+        }, "dispatch-events");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static List<RideAssistGUIwithDriver.RideRequest> rides(Object json) {
+        List<RideAssistGUIwithDriver.RideRequest> rides = new ArrayList<>();
+        for (Object item : (List<?>) json) {
+            rides.add(DispatchService.rideFromJson(item));
+        }
+        return rides;
+    }
+
+    Object get(String path) throws IOException {
+        return call("GET", path, null);
+    }
+
+    Object post(String path, Map<String, Object> body) throws IOException {
+        return call("POST", path, body);
+    }
+
+    // Sends the request and returns the parsed JSON response; error responses become IOExceptions
+    // carrying the service's message
+    private Object call(String method, String path, Map<String, Object> body) throws IOException {
+        return call(method, path, body, READ_TIMEOUT_MS);
+    }
+
+    private Object call(String method, String path, Map<String, Object> body, int readTimeoutMillis) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(readTimeoutMillis);
+        if (body != null) {
+            byte[] bytes = Json.write(body).getBytes(StandardCharsets.UTF_8);
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+            connection.setFixedLengthStreamingMode(bytes.length);
+            OutputStream out = connection.getOutputStream();
+            out.write(bytes);
+            out.close();
+        }
+
+        int status = connection.getResponseCode();
+        InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        String text = "";
+        if (in != null) {
+            // Read to the end so the connection can be reused
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                response.write(buffer, 0, read);
+            }
+            in.close();
+            text = response.toString("UTF-8");
+        }
+
+        Object json;
+        try {
+            json = text.isEmpty() ? null : Json.parse(text);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Bad response from dispatch service: " + e.getMessage());
+        }
+        if (status >= 400) {
+            Object message = json instanceof Map ? ((Map<?, ?>) json).get("error") : null;
+            throw new IOException("Dispatch service error " + status + (message != null ? ": " + message : ""));
+        }
+        return json;
+    }
+}
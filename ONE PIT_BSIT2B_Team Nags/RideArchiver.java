@@ -0,0 +1,726 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Moves finished rides older than the archive age out of the rides table into compressed segment files,
+// so the hot table and everything that scans it stays the size of recent activity. Each run writes the
+// oldest rides to a new segment, newest ride first, as gzip blocks of BLOCK_RIDES rides; a small sparse
+// index beside it holds each block's offset, length and ride id range, so a read decompresses only the
+// blocks it needs. Segments are never changed once written. A run claims its segment id with an
+// uncommitted row in archive_segments before writing any file, and the rides are deleted in the
+// transaction that commits that row, so a crash leaves either the rides or the segment.
+// RideHistory reads the archive after the hot rides when the history is shown newest first.
+//
+// Archiving is off unless -Dride.archive.ageDays is set. The archive is on local disk: instances sharing
+// a database should share the archive directory and turn archiving on for one of them.
+class RideArchiver {
+
+    static final String DEFAULT_DIR = "ride-archive";
+    // Off; archiving deletes rides from the table, so it is turned on deliberately
+    static final int DEFAULT_AGE_DAYS = 0;
+    static final long DEFAULT_INTERVAL_MS = 6 * 60 * 60 * 1000L;
+    // How often the segment list is read again, for segments other instances archived
+    static final long DEFAULT_REFRESH_MS = 5 * 60 * 1000L;
+    // Files and claims of a run that never committed are only removed once this old; a younger one may
+    // belong to a run still going on another instance
+    static final long DEFAULT_ORPHAN_GRACE_MS = 24 * 60 * 60 * 1000L;
+    static final int DEFAULT_SEGMENT_RIDES = 50000;
+    static final int BLOCK_RIDES = 256;
+    // Decompressed blocks kept for paging back and forth
+    static final int CACHED_BLOCKS = 16;
+
+    private static final int INDEX_MAGIC = 0x52494458;
+    // Tries at a segment id before giving up on a run, when other runs keep taking the next one first
+    private static final int CLAIM_ATTEMPTS = 5;
+
+    private static final Metrics.Timer RUN_TIMER = Metrics.timer("archive.run");
+    private static final Metrics.Timer READ_TIMER = Metrics.timer("archive.read");
+
+    // One finished ride as stored in a segment
+    static class ArchivedRide {
+        final RideHistory.Entry entry;
+        final int passengerId;
+        final int driverId;
+        final String status;
+        final Timestamp completedAt;
+
+        ArchivedRide(RideHistory.Entry entry, int passengerId, int driverId, String status, Timestamp completedAt) {
+            this.entry = entry;
+            this.passengerId = passengerId;
+            this.driverId = driverId;
+            this.status = status;
+            this.completedAt = completedAt;
+        }
+    }
+
+    // Called for every archived ride, e.g. by RideSearchIndex
+    interface Visitor {
+        void visit(ArchivedRide ride);
+    }
+
+    // A sparse index entry: one gzip block of a segment, rides in descending id order
+    private static class Block {
+        final long offset;
+        final int length;
+        final int rides;
+        final int maxRideId;
+        final int minRideId;
+
+        Block(long offset, int length, int rides, int maxRideId, int minRideId) {
+            this.offset = offset;
+            this.length = length;
+            this.rides = rides;
+            this.maxRideId = maxRideId;
+            this.minRideId = minRideId;
+        }
+    }
+
+    private static class Segment {
+        final int id;
+        final File file;
+        final List<Block> blocks;
+        final int rides;
+
+        Segment(int id, File file, List<Block> blocks) {
+            this.id = id;
+            this.file = file;
+            this.blocks = blocks;
+            int total = 0;
+            for (Block block : blocks) {
+                total += block.rides;
+            }
+            this.rides = total;
+        }
+    }
+
+    private static File dir;
+    private static ConnectionPool pool;
+    private static ScheduledExecutorService timer;
+    private static int ageDays;
+    private static int segmentRides;
+    private static long orphanGraceMillis;
+    // Committed segments with no file here, last reported
+    private static int missingSegments;
+    // Newest segment first, the order the history reads them in
+    private static final List<Segment> segments = new ArrayList<>();
+    private static int archivedRides;
+    private static final Map<String, List<ArchivedRide>> blockCache =
+        new LinkedHashMap<String, List<ArchivedRide>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<ArchivedRide>> eldest) {
+                return size() > CACHED_BLOCKS;
+            }
+        };
+
+    // Metrics
+    private static final AtomicLong runs = new AtomicLong();
+    private static final AtomicLong ridesArchived = new AtomicLong();
+    private static final AtomicLong blocksRead = new AtomicLong();
+    private static final AtomicLong blockCacheHits = new AtomicLong();
+
+    // Opens the archive in -Dride.archive.dir, reads the segment list again every -Dride.archive.refreshMs
+    // and, when -Dride.archive.ageDays is set, archives rides older than that many days every
+    // -Dride.archive.intervalMs, in segments of -Dride.archive.segmentRides. Runs that never committed are
+    // cleared after -Dride.archive.orphanGraceMs.
+    static void start(ConnectionPool connectionPool) throws SQLException, IOException {
+        synchronized (RideArchiver.class) {
+            pool = connectionPool;
+            dir = new File(System.getProperty("ride.archive.dir", DEFAULT_DIR));
+            ageDays = Integer.getInteger("ride.archive.ageDays", DEFAULT_AGE_DAYS);
+            segmentRides = Integer.getInteger("ride.archive.segmentRides", DEFAULT_SEGMENT_RIDES);
+            orphanGraceMillis = Long.getLong("ride.archive.orphanGraceMs", DEFAULT_ORPHAN_GRACE_MS);
+            segments.clear();
+            blockCache.clear();
+            archivedRides = 0;
+            missingSegments = 0;
+            try (Connection connection = pool.getConnection()) {
+                removeOrphans(connection);
+                openNewSegments(connection);
+            }
+        }
+        long intervalMillis = Long.getLong("ride.archive.intervalMs", DEFAULT_INTERVAL_MS);
+        long refreshMillis = Long.getLong("ride.archive.refreshMs", DEFAULT_REFRESH_MS);
+        boolean archiving = ageDays > 0 && intervalMillis > 0;
+        if (!archiving && refreshMillis <= 0) {
+            return;
+        }
+        timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "ride-archiver");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        if (archiving) {
+            timer.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        archiveOldRides();
+                    } catch (SQLException | IOException e) {
+                        // Tried again next interval
+                        e.printStackTrace();
+                    }
+                }
+            }, 0, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+        if (refreshMillis > 0) {
+            timer.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        refresh();
+                    } catch (SQLException | IOException e) {
+                        // Tried again next interval
+                        e.printStackTrace();
+                    }
+                }
+            }, refreshMillis, refreshMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Removes claims and files of runs that never committed, once they are older than the grace period.
+    // Files whose names are not segment names are left alone.
+    private static void removeOrphans(Connection connection) throws SQLException, IOException {
+        long cutoff = System.currentTimeMillis() - orphanGraceMillis;
+        PreparedStatement pstmt = connection.prepareStatement(RideSql.DELETE_STALE_ARCHIVE_CLAIMS);
+        pstmt.setTimestamp(1, new Timestamp(cutoff));
+        pstmt.executeUpdate();
+        pstmt.close();
+
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Set<Integer> committed = committedSegments(connection);
+        for (File file : files) {
+            String name = file.getName();
+            int id = segmentId(name);
+            if (id == -1 || file.lastModified() >= cutoff) {
+                continue;
+            }
+            if (name.endsWith(".tmp") || !committed.contains(id)) {
+                System.out.println("Ride archive: removing uncommitted " + name);
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+    }
+
+    // The segment id in a segment, index or temporary file name, or -1 for any other name
+    private static int segmentId(String name) {
+        String base = name.endsWith(".tmp") ? name.substring(0, name.length() - ".tmp".length()) : name;
+        if (!base.startsWith("rides-") || !(base.endsWith(".seg") || base.endsWith(".idx"))) {
+            return -1;
+        }
+        try {
+            int id = Integer.parseInt(base.substring("rides-".length(), base.length() - ".seg".length()));
+            return id > 0 ? id : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static Set<Integer> committedSegments(Connection connection) throws SQLException {
+        Set<Integer> committed = new HashSet<>();
+        PreparedStatement pstmt = connection.prepareStatement(RideSql.ARCHIVE_SEGMENTS);
+        ResultSet rs = pstmt.executeQuery();
+        while (rs.next()) {
+            committed.add(rs.getInt("id"));
+        }
+        rs.close();
+        pstmt.close();
+        return committed;
+    }
+
+    // Loads the sparse index of every committed segment not open yet, e.g. ones another instance archived,
+    // and returns them
+    private static List<Segment> openNewSegments(Connection connection) throws SQLException, IOException {
+        Set<Integer> committed = committedSegments(connection);
+        synchronized (RideArchiver.class) {
+            for (Segment segment : segments) {
+                committed.remove(segment.id);
+            }
+        }
+        List<Segment> opened = new ArrayList<>();
+        int missing = 0;
+        for (int id : committed) {
+            File file = segmentFile(id);
+            File index = indexFile(id);
+            if (file.isFile() && index.isFile()) {
+                opened.add(new Segment(id, file, readIndex(index)));
+            } else {
+                missing++;
+            }
+        }
+
+        synchronized (RideArchiver.class) {
+            for (Segment segment : opened) {
+                addSegment(segment);
+            }
+            if (missing > 0 && missing != missingSegments) {
+                System.out.println("Ride archive: " + missing + " segment(s) missing from " +
+                    dir.getAbsolutePath() + "; their rides are not shown");
+            }
+            missingSegments = missing;
+        }
+        return opened;
+    }
+
+    // Call holding the class lock; a segment already open is not added again
+    private static void addSegment(Segment added) {
+        for (Segment segment : segments) {
+            if (segment.id == added.id) {
+                return;
+            }
+        }
+        segments.add(added);
+        // Newest first
+        Collections.sort(segments, new Comparator<Segment>() {
+            @Override
+            public int compare(Segment a, Segment b) {
+                return Integer.compare(b.id, a.id);
+            }
+        });
+        archivedRides += added.rides;
+    }
+
+    // Opens segments committed since the last look, and shows their rides in the history and search
+    static void refresh() throws SQLException, IOException {
+        try (Connection connection = pool.getConnection()) {
+            refresh(connection);
+        }
+    }
+
+    // As refresh(), on a connection the caller already holds; does nothing before start()
+    static void refresh(Connection connection) throws SQLException, IOException {
+        synchronized (RideArchiver.class) {
+            if (dir == null) {
+                return;
+            }
+        }
+        List<Segment> opened = openNewSegments(connection);
+        if (opened.isEmpty()) {
+            return;
+        }
+        for (Segment segment : opened) {
+            List<ArchivedRide> rides = new ArrayList<>(segment.rides);
+            for (int b = 0; b < segment.blocks.size(); b++) {
+                rides.addAll(decodeBlock(segment, b));
+            }
+            RideSearchIndex.addArchived(rides);
+        }
+        RideAssistGUIwithDriver.rideHistory.invalidate();
+    }
+
+    // Archives rides older than the archive age, one segment at a time, until none are left
+    static void archiveOldRides() throws SQLException, IOException {
+        Timestamp before = new Timestamp(System.currentTimeMillis() - ageDays * 24L * 60 * 60 * 1000);
+        while (archiveSegment(before) == segmentRides) {
+            // A full segment; there may be more
+        }
+    }
+
+    // Writes one segment of rides created before the given time and deletes them from the rides table.
+    // Returns the number of rides archived.
+    static int archiveSegment(Timestamp before) throws SQLException, IOException {
+        long start = System.nanoTime();
+        boolean succeeded = false;
+        try (Connection connection = pool.getConnection()) {
+            List<ArchivedRide> rides = new ArrayList<>();
+            PreparedStatement pstmt = connection.prepareStatement(RideSql.ARCHIVE_CANDIDATES);
+            pstmt.setTimestamp(1, before);
+            pstmt.setInt(2, segmentRides);
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                rides.add(rideFromRow(rs));
+            }
+            rs.close();
+            pstmt.close();
+            if (rides.isEmpty()) {
+                succeeded = true;
+                return 0;
+            }
+
+            int id = claimSegment(connection);
+            // Read newest first, so write the oldest-first candidates in reverse
+            List<ArchivedRide> newestFirst = new ArrayList<>();
+            for (int i = rides.size() - 1; i >= 0; i--) {
+                newestFirst.add(rides.get(i));
+            }
+            // Files this run created; a failed run removes these and nothing else
+            List<File> created = new ArrayList<>();
+            Segment segment;
+            try {
+                dir.mkdirs();
+                segment = writeSegment(id, newestFirst, created);
+                commitSegment(connection, id, rides.get(0).entry.rideId, newestFirst);
+            } catch (SQLException | IOException e) {
+                for (File file : created) {
+                    Files.deleteIfExists(file.toPath());
+                }
+                try {
+                    pstmt = connection.prepareStatement(RideSql.RELEASE_ARCHIVE_SEGMENT);
+                    pstmt.setInt(1, id);
+                    pstmt.executeUpdate();
+                    pstmt.close();
+                } catch (SQLException releaseError) {
+                    // Left for openSegments to clear once it is old
+                    e.addSuppressed(releaseError);
+                }
+                throw e;
+            }
+
+            synchronized (RideArchiver.class) {
+                addSegment(segment);
+            }
+            runs.incrementAndGet();
+            ridesArchived.addAndGet(segment.rides);
+            RideSearchIndex.addArchived(newestFirst);
+            RideAssistGUIwithDriver.rideHistory.invalidate();
+            succeeded = true;
+            return segment.rides;
+        } finally {
+            RUN_TIMER.stop(start, succeeded);
+        }
+    }
+
+    // Takes the next segment id by inserting its uncommitted row. A run that took the same id first makes
+    // the insert fail on the primary key, and the next id is tried.
+    private static int claimSegment(Connection connection) throws SQLException {
+        for (int attempt = 1; ; attempt++) {
+            PreparedStatement pstmt = connection.prepareStatement(RideSql.NEXT_ARCHIVE_SEGMENT);
+            ResultSet rs = pstmt.executeQuery();
+            rs.next();
+            int id = rs.getInt(1);
+            rs.close();
+            pstmt.close();
+
+            pstmt = connection.prepareStatement(RideSql.CLAIM_ARCHIVE_SEGMENT);
+            pstmt.setInt(1, id);
+            try {
+                pstmt.executeUpdate();
+                return id;
+            } catch (SQLException e) {
+                // SQL state class 23 is a constraint violation, here the primary key
+                boolean taken = e.getSQLState() != null && e.getSQLState().startsWith("23");
+                if (!taken || attempt == CLAIM_ATTEMPTS) {
+                    throw e;
+                }
+            } finally {
+                pstmt.close();
+            }
+        }
+    }
+
+    // Commits the claimed segment row and deletes its rides in one transaction
+    private static void commitSegment(Connection connection, int id, int minRideId, List<ArchivedRide> newestFirst)
+            throws SQLException {
+        connection.setAutoCommit(false);
+        try {
+            PreparedStatement pstmt = connection.prepareStatement(RideSql.COMMIT_ARCHIVE_SEGMENT);
+            pstmt.setInt(1, newestFirst.size());
+            pstmt.setInt(2, minRideId);
+            pstmt.setInt(3, newestFirst.get(0).entry.rideId);
+            pstmt.setInt(4, id);
+            int claimed = pstmt.executeUpdate();
+            pstmt.close();
+            if (claimed != 1) {
+                throw new SQLException("Ride archive: the claim on segment " + id + " was cleared while it was written");
+            }
+
+            pstmt = connection.prepareStatement(RideSql.DELETE_FINISHED_RIDE);
+            for (ArchivedRide ride : newestFirst) {
+                pstmt.setInt(1, ride.entry.rideId);
+                pstmt.addBatch();
+            }
+            int[] deleted = pstmt.executeBatch();
+            pstmt.close();
+            for (int count : deleted) {
+                if (count == 0) {
+                    // Deleted or archived elsewhere since it was read
+                    throw new SQLException("Ride archive: rides changed while segment " + id + " was written");
+                }
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    private static ArchivedRide rideFromRow(ResultSet rs) throws SQLException {
+        int passengerId = rs.getInt("passenger_id");
+        if (rs.wasNull()) {
+            passengerId = -1;
+        }
+        int driverId = rs.getInt("driver_id");
+        if (rs.wasNull()) {
+            driverId = -1;
+        }
+        RideHistory.Entry entry = new RideHistory.Entry(rs.getInt("id"), rs.getTimestamp("created_at"),
+            rs.getString("from_location"), rs.getString("to_location"), rs.getString("driver_name"),
+            rs.getInt("fare"), rs.getInt("rating"));
+        return new ArchivedRide(entry, passengerId, driverId, rs.getString("status"), rs.getTimestamp("completed_at"));
+    }
+
+    // Writes the segment and its index under temporary names, synced to disk, then renames them. Fails
+    // rather than replace a file that is already there; every file it creates is added to created.
+    private static Segment writeSegment(int id, List<ArchivedRide> rides, List<File> created) throws IOException {
+        File segmentFile = segmentFile(id);
+        File tmp = new File(dir, segmentFile.getName() + ".tmp");
+        List<Block> blocks = new ArrayList<>();
+        createNew(tmp, created);
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            long offset = 0;
+            for (int first = 0; first < rides.size(); first += BLOCK_RIDES) {
+                List<ArchivedRide> blockRides = rides.subList(first, Math.min(first + BLOCK_RIDES, rides.size()));
+                byte[] compressed = compress(blockRides);
+                out.write(compressed);
+                blocks.add(new Block(offset, compressed.length, blockRides.size(),
+                    blockRides.get(0).entry.rideId, blockRides.get(blockRides.size() - 1).entry.rideId));
+                offset += compressed.length;
+            }
+            out.getFD().sync();
+        }
+
+        File indexFile = indexFile(id);
+        File indexTmp = new File(dir, indexFile.getName() + ".tmp");
+        createNew(indexTmp, created);
+        try (FileOutputStream file = new FileOutputStream(indexTmp)) {
+            DataOutputStream out = new DataOutputStream(file);
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(blocks.size());
+            for (Block block : blocks) {
+                out.writeLong(block.offset);
+                out.writeInt(block.length);
+                out.writeInt(block.rides);
+                out.writeInt(block.maxRideId);
+                out.writeInt(block.minRideId);
+            }
+            out.flush();
+            file.getFD().sync();
+        }
+        moveNew(tmp, segmentFile, created);
+        moveNew(indexTmp, indexFile, created);
+        return new Segment(id, segmentFile, blocks);
+    }
+
+    private static void createNew(File file, List<File> created) throws IOException {
+        if (!file.createNewFile()) {
+            throw new IOException("Ride archive: " + file + " already exists");
+        }
+        created.add(file);
+    }
+
+    // Without REPLACE_EXISTING the move fails if the target is there
+    private static void moveNew(File from, File to, List<File> created) throws IOException {
+        Files.move(from.toPath(), to.toPath());
+        created.set(created.indexOf(from), to);
+    }
+
+    private static byte[] compress(List<ArchivedRide> rides) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bytes));
+        out.writeInt(rides.size());
+        for (ArchivedRide ride : rides) {
+            RideHistory.Entry entry = ride.entry;
+            out.writeInt(entry.rideId);
+            out.writeInt(ride.passengerId);
+            out.writeInt(ride.driverId);
+            out.writeLong(entry.createdAt == null ? -1 : entry.createdAt.getTime());
+            out.writeLong(ride.completedAt == null ? -1 : ride.completedAt.getTime());
+            out.writeUTF(entry.from);
+            out.writeUTF(entry.to);
+            out.writeUTF(entry.driverName == null ? "" : entry.driverName);
+            out.writeInt(entry.fare);
+            out.writeInt(entry.rating);
+            out.writeUTF(ride.status);
+        }
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static List<Block> readIndex(File indexFile) throws IOException {
+        List<Block> blocks = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new FileInputStream(indexFile))) {
+            if (in.readInt() != INDEX_MAGIC) {
+                throw new IOException("Not a ride archive index: " + indexFile);
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                blocks.add(new Block(in.readLong(), in.readInt(), in.readInt(), in.readInt(), in.readInt()));
+            }
+        }
+        return blocks;
+    }
+
+    // One block's rides, newest first; call holding the class lock
+    private static List<ArchivedRide> readBlock(Segment segment, int blockNumber) throws IOException {
+        String key = segment.id + ":" + blockNumber;
+        List<ArchivedRide> rides = blockCache.get(key);
+        if (rides != null) {
+            blockCacheHits.incrementAndGet();
+            return rides;
+        }
+        rides = decodeBlock(segment, blockNumber);
+        blockCache.put(key, rides);
+        return rides;
+    }
+
+    // Segment files never change, so this needs no lock
+    private static List<ArchivedRide> decodeBlock(Segment segment, int blockNumber) throws IOException {
+        Block block = segment.blocks.get(blockNumber);
+        byte[] compressed = new byte[block.length];
+        try (RandomAccessFile file = new RandomAccessFile(segment.file, "r")) {
+            file.seek(block.offset);
+            file.readFully(compressed);
+        }
+        DataInputStream in = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(compressed)));
+        int count = in.readInt();
+        List<ArchivedRide> rides = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int rideId = in.readInt();
+            int passengerId = in.readInt();
+            int driverId = in.readInt();
+            long createdAt = in.readLong();
+            long completedAt = in.readLong();
+            String from = in.readUTF();
+            String to = in.readUTF();
+            String driverName = in.readUTF();
+            int fare = in.readInt();
+            int rating = in.readInt();
+            String status = in.readUTF();
+            RideHistory.Entry entry = new RideHistory.Entry(rideId, createdAt == -1 ? null : new Timestamp(createdAt),
+                from, to, driverName.isEmpty() ? null : driverName, fare, rating);
+            rides.add(new ArchivedRide(entry, passengerId, driverId, status,
+                completedAt == -1 ? null : new Timestamp(completedAt)));
+        }
+        in.close();
+        blocksRead.incrementAndGet();
+        return rides;
+    }
+
+    // Number of archived rides
+    static synchronized int count() {
+        return archivedRides;
+    }
+
+    // Up to limit archived rides, newest first, starting after skipping that many
+    static synchronized List<RideHistory.Entry> read(int skip, int limit) throws IOException {
+        long start = System.nanoTime();
+        boolean succeeded = false;
+        try {
+            List<RideHistory.Entry> entries = new ArrayList<>();
+            for (Segment segment : segments) {
+                if (skip >= segment.rides) {
+                    skip -= segment.rides;
+                    continue;
+                }
+                for (int b = 0; b < segment.blocks.size() && entries.size() < limit; b++) {
+                    Block block = segment.blocks.get(b);
+                    if (skip >= block.rides) {
+                        skip -= block.rides;
+                        continue;
+                    }
+                    List<ArchivedRide> rides = readBlock(segment, b);
+                    for (int i = skip; i < rides.size() && entries.size() < limit; i++) {
+                        entries.add(rides.get(i).entry);
+                    }
+                    skip = 0;
+                }
+                if (entries.size() >= limit) {
+                    break;
+                }
+            }
+            succeeded = true;
+            return entries;
+        } finally {
+            READ_TIMER.stop(start, succeeded);
+        }
+    }
+
+    // The archived ride with this id, or null; the sparse index narrows it to one block
+    static synchronized RideHistory.Entry find(int rideId) throws IOException {
+        for (Segment segment : segments) {
+            for (int b = 0; b < segment.blocks.size(); b++) {
+                Block block = segment.blocks.get(b);
+                if (rideId > block.maxRideId || rideId < block.minRideId) {
+                    continue;
+                }
+                for (ArchivedRide ride : readBlock(segment, b)) {
+                    if (ride.entry.rideId == rideId) {
+                        return ride.entry;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    // Every archived ride, oldest segment first; blocks read here are not cached
+    static void forEach(Visitor visitor) throws IOException {
+        List<Segment> oldestFirst;
+        synchronized (RideArchiver.class) {
+            oldestFirst = new ArrayList<>(segments);
+        }
+        for (int s = oldestFirst.size() - 1; s >= 0; s--) {
+            Segment segment = oldestFirst.get(s);
+            for (int b = 0; b < segment.blocks.size(); b++) {
+                for (ArchivedRide ride : decodeBlock(segment, b)) {
+                    visitor.visit(ride);
+                }
+            }
+        }
+    }
+
+    private static File segmentFile(int id) {
+        return new File(dir, String.format("rides-%06d.seg", id));
+    }
+
+    private static File indexFile(int id) {
+        return new File(dir, String.format("rides-%06d.idx", id));
+    }
+
+    static void shutdown() {
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+    }
+
+    public static synchronized String getStats() {
+        return String.format("segments=%d, archivedRides=%d, runs=%d, ridesArchivedNow=%d, blocksRead=%d, " +
+                "blockCacheHits=%d, ageDays=%d, dir=%s",
+            segments.size(), archivedRides, runs.get(), ridesArchived.get(), blocksRead.get(), blockCacheHits.get(),
+            ageDays, dir == null ? "-" : dir.getPath());
+    }
+}
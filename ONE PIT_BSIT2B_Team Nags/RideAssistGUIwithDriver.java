@@ -1,19 +1,27 @@
 import javax.swing.*;
+import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.awt.event.*;
+import java.io.IOException;
 import java.sql.*;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.TemporalAdjusters;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
 
 public class RideAssistGUIwithDriver {
 
-    // Database connection
-    static final String DB_URL = "jdbc:mysql://localhost:3306/ride_assist_db";
-    static final String DB_USER = "root";
-    static final String DB_PASSWORD = "";
-    static Connection connection;
+    // Database connection: MySQL, or an embedded database with -Dride.db; see DatabaseConfig
+    static DatabaseConfig database;
+    static ConnectionPool pool;
 
     // Passenger data
     static String savedFullName = "";
@@ -27,14 +35,34 @@ public class RideAssistGUIwithDriver {
     static boolean isAdminLoggedIn = false;
 
     // Ride and driver data
-    static List<String> rideHistory = new ArrayList<>();
-    static List<RideRequest> pendingRideRequests = new ArrayList<>();
-    static List<RideRequest> activeRides = new ArrayList<>();
-    static Map<String, Driver> drivers = new HashMap<>();
+    static RideHistory rideHistory = new RideHistory(
+        Integer.getInteger("ride.history.pageSize", RideHistory.DEFAULT_PAGE_SIZE),
+        Integer.getInteger("ride.history.cachedPages", RideHistory.DEFAULT_CACHED_PAGES));
+    static RideRegistry pendingRideRequests = new RideRegistry();
+    static RideRegistry activeRides = new RideRegistry();
+    static DriverDirectory drivers = new DriverDirectory();
+    // Available drivers by location, for nearest-driver dispatch
+    static DriverGrid dispatchGrid = new DriverGrid(DriverGrid.DEFAULT_CELL_DEGREES);
+    static final int NEAREST_DRIVERS_SHOWN = 3;
+    static final double DISPATCH_RADIUS_KM = 10;
+    static FareEngine fareEngine = FareEngine.fromSystemProperties();
     static String currentDriverLoggedIn = null;
-    
-    // Track rides pending rating
-    static Map<String, RideRequest> ridesPendingRating = new HashMap<>();
+    static int currentDriverId = -1;
+    // Where screens read and change live rides and drivers: this JVM's registries, or a shared
+    // DispatchService when -Dride.service.url is set
+    static DispatchCore dispatch;
+
+    // Startup phases; see startLoading()
+    static CompletableFuture<Void> databaseReady;
+    static CompletableFuture<Void> driversReady;
+    static CompletableFuture<Void> ridesReady;
+
+    // Completed rides waiting for the passenger's rating; their drivers stay busy until then
+    static RideRegistry ridesAwaitingRating = new RideRegistry();
+
+    // Login query timings; the dispatch calls are timed in LocalDispatch
+    static final Metrics.Timer PASSENGER_LOGIN_TIMER = Metrics.timer("db.passengers.login");
+    static final Metrics.Timer ADMIN_LOGIN_TIMER = Metrics.timer("db.admin.login");
 
     // Ride request class
     static class RideRequest {
@@ -49,6 +77,11 @@ public class RideAssistGUIwithDriver {
         int rating;
         int passengerId;
         int driverId;
+        // Pickup position, NaN when the pickup place is not recognised
+        double pickupLat = Double.NaN;
+        double pickupLon = Double.NaN;
+        // The row's updated_at when it was last read, null for a ride created here
+        Timestamp updatedAt;
         
         public RideRequest(String passengerName, String passengerNumber, String from, String to, int passengerId) {
             this.passengerName = passengerName;
@@ -61,6 +94,15 @@ public class RideAssistGUIwithDriver {
             this.rating = 0;
             this.passengerId = passengerId;
             this.driverId = -1;
+            Places.Place pickup = Places.lookup(from);
+            if (pickup != null) {
+                this.pickupLat = pickup.latitude;
+                this.pickupLon = pickup.longitude;
+            }
+        }
+        
+        public boolean hasPickupLocation() {
+            return !Double.isNaN(pickupLat) && !Double.isNaN(pickupLon);
         }
         
         public RideRequest(int id, String passengerName, String passengerNumber, String from, String to, 
@@ -79,10 +121,8 @@ public class RideAssistGUIwithDriver {
         }
         
         private int calculateFare() {
-            // Base fare + distance-based calculation (simulated)
-            int baseFare = 40;
-            int distanceFare = (int)(Math.random() * 30) + 10; // 10-40 pesos
-            return baseFare + distanceFare; // Total 50-80 pesos
+            // Base fare + distance between the two places; see FareEngine
+            return fareEngine.quote(from, to).fare;
         }
         
         @Override
@@ -109,6 +149,9 @@ public class RideAssistGUIwithDriver {
         double totalEarnings;
         int totalRides;
         double averageRating;
+        // Last reported position, NaN until the driver sets one
+        double latitude = Double.NaN;
+        double longitude = Double.NaN;
         
         public Driver(int id, String name, String vehicle, String priceRange, String username, String password) {
             this.id = id;
@@ -123,13 +166,14 @@ public class RideAssistGUIwithDriver {
             this.averageRating = 0;
         }
         
-        public void addRideEarnings(int fare) {
+        // Totals are written to the database by DriverStatsWriter, coalesced with other changes
+        public synchronized void addRideEarnings(int fare) {
             this.totalEarnings += fare;
             this.totalRides++;
-            updateDriverInDB();
+            DriverStatsWriter.markDirty(this);
         }
         
-        public void addRating(int rating) {
+        public synchronized void addRating(int rating) {
             // Update average rating
             if (this.totalRides == 0) {
                 this.averageRating = rating;
@@ -137,21 +181,11 @@ public class RideAssistGUIwithDriver {
                 double totalRatingPoints = this.averageRating * this.totalRides;
                 this.averageRating = (totalRatingPoints + rating) / (this.totalRides + 1);
             }
-            updateDriverInDB();
+            DriverStatsWriter.markDirty(this);
         }
         
-        private void updateDriverInDB() {
-            try {
-                String sql = "UPDATE drivers SET total_earnings = ?, total_rides = ?, average_rating = ? WHERE id = ?";
-                PreparedStatement pstmt = connection.prepareStatement(sql);
-                pstmt.setDouble(1, this.totalEarnings);
-                pstmt.setInt(2, this.totalRides);
-                pstmt.setDouble(3, this.averageRating);
-                pstmt.setInt(4, this.id);
-                pstmt.executeUpdate();
-            } catch (SQLException e) {
-                e.printStackTrace();
-            }
+        public boolean hasLocation() {
+            return !Double.isNaN(latitude) && !Double.isNaN(longitude);
         }
         
         public String getEarningsSummary() {
@@ -160,11 +194,76 @@ public class RideAssistGUIwithDriver {
         }
     }
 
+    // Passenger row returned by the login query
+    static class PassengerAccount {
+        int id;
+        String fullName;
+        String phoneNumber;
+        String password;
+        
+        public PassengerAccount(int id, String fullName, String phoneNumber, String password) {
+            this.id = id;
+            this.fullName = fullName;
+            this.phoneNumber = phoneNumber;
+            this.password = password;
+        }
+    }
+
+    // A driver with the driver_stats totals and the earnings breakdown for the driver's own earnings screen
+    static class DriverEarnings {
+        final Driver driver;
+        final DriverStatsRollup.Totals totals;
+        final EarningsBuckets.Breakdown breakdown;
+
+        DriverEarnings(Driver driver, DriverStatsRollup.Totals totals, EarningsBuckets.Breakdown breakdown) {
+            this.driver = driver;
+            this.totals = totals;
+            this.breakdown = breakdown;
+        }
+    }
+
+    // A driver with the totals from the driver_stats rollup, for the admin screens
+    static class DriverSummary {
+        final Driver driver;
+        final DriverStatsRollup.Totals totals;
+        final EarningsBuckets.Totals thisWeek;
+        final EarningsBuckets.Totals thisMonth;
+
+        DriverSummary(Driver driver, DriverStatsRollup.Totals totals, EarningsBuckets.Totals thisWeek,
+                      EarningsBuckets.Totals thisMonth) {
+            this.driver = driver;
+            this.totals = totals;
+            this.thisWeek = thisWeek;
+            this.thisMonth = thisMonth;
+        }
+    }
+
     public static void main(String[] args) {
-        // Initialize database
-        initializeDatabase();
-        // Initialize drivers from database
-        initializeDrivers();
+        // Watch for UI freezes
+        EdtMonitor.install();
+        // Loading runs in the background, so the menu shows right away; screens that need data wait for
+        // the startup phase they depend on
+        startLoading(System.getProperty("ride.service.url"));
+        databaseReady.whenCompleteAsync(new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(Void result, Throwable error) {
+                if (error != null && database != null && database.embedded) {
+                    JOptionPane.showMessageDialog(null,
+                        "Could not open the embedded database " + database + "\n\n" +
+                        "Error: " + DataAccess.unwrap(error).getMessage());
+                    System.exit(1);
+                } else if (error != null) {
+                    JOptionPane.showMessageDialog(null, 
+                        "Database connection failed!\n" +
+                        "Please make sure:\n" +
+                        "1. XAMPP is running\n" +
+                        "2. MySQL service is started\n" +
+                        "3. Database 'ride_assist_db' exists\n\n" +
+                        "Error: " + DataAccess.unwrap(error).getMessage());
+                    System.exit(1);
+                }
+            }
+        }, DataAccess.EDT);
         SwingUtilities.invokeLater(new Runnable() {
             @Override
             public void run() {
@@ -173,150 +272,161 @@ public class RideAssistGUIwithDriver {
         });
     }
 
-    private static void initializeDatabase() {
-        try {
-            // Load MySQL JDBC driver
-            Class.forName("com.mysql.cj.jdbc.Driver");
-            
-            // Create connection
-            connection = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
-            System.out.println("Connected to database successfully!");
-            
-            // Create tables if they don't exist
-            createTables();
-            
-            // Load ride history from database
-            loadRideHistory();
-            
-            // Load pending and active rides
-            loadActiveRides();
-            
-        } catch (Exception e) {
-            JOptionPane.showMessageDialog(null, 
-                "Database connection failed!\n" +
-                "Please make sure:\n" +
-                "1. XAMPP is running\n" +
-                "2. MySQL service is started\n" +
-                "3. Database 'ride_assist_db' exists\n\n" +
-                "Error: " + e.getMessage());
-            e.printStackTrace();
-            System.exit(1);
+    // Connects first, then loads drivers, open rides and the first history page side by side. With a
+    // service URL the live state stays in the DispatchService and only the database is opened here.
+    // Failures are printed; callers decide how to report them.
+    static void startLoading(String serviceUrl) {
+        databaseReady = Startup.phase("database", null, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                initializeDatabase();
+                return null;
+            }
+        });
+        databaseReady.whenComplete(new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(Void result, Throwable error) {
+                if (error != null) {
+                    DataAccess.unwrap(error).printStackTrace();
+                }
+            }
+        });
+
+        if (serviceUrl != null) {
+            RemoteDispatch remote = new RemoteDispatch(serviceUrl);
+            remote.followEvents();
+            dispatch = remote;
+            driversReady = databaseReady;
+            ridesReady = databaseReady;
+        } else {
+            dispatch = new LocalDispatch();
+            loadDispatchState();
         }
+        CompletableFuture<RideHistory.Page> historyReady = Startup.phase("history", databaseReady,
+            new Callable<RideHistory.Page>() {
+                @Override
+                public RideHistory.Page call() throws Exception {
+                    try (Connection connection = pool.getConnection()) {
+                        return rideHistory.getPage(connection, 0);
+                    }
+                }
+            });
+        Startup.reportWhenDone(databaseReady, driversReady, ridesReady, historyReady);
     }
 
-    private static void createTables() throws SQLException {
-        Statement stmt = connection.createStatement();
-        
-        // Create passengers table
-        String createPassengersTable = "CREATE TABLE IF NOT EXISTS passengers (" +
-                "id INT AUTO_INCREMENT PRIMARY KEY, " +
-                "full_name VARCHAR(100) NOT NULL, " +
-                "phone_number VARCHAR(20) UNIQUE NOT NULL, " +
-                "password VARCHAR(100) NOT NULL, " +
-                "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP" +
-                ")";
-        stmt.execute(createPassengersTable);
-        
-        // Create drivers table
-        String createDriversTable = "CREATE TABLE IF NOT EXISTS drivers (" +
-                "id INT AUTO_INCREMENT PRIMARY KEY, " +
-                "name VARCHAR(100) NOT NULL, " +
-                "vehicle VARCHAR(100), " +
-                "price_range VARCHAR(50), " +
-                "username VARCHAR(50) UNIQUE NOT NULL, " +
-                "password VARCHAR(100) NOT NULL, " +
-                "is_available BOOLEAN DEFAULT TRUE, " +
-                "total_earnings DECIMAL(10,2) DEFAULT 0, " +
-                "total_rides INT DEFAULT 0, " +
-                "average_rating DECIMAL(3,2) DEFAULT 0, " +
-                "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP" +
-                ")";
-        stmt.execute(createDriversTable);
-        
-        // Create rides table
-        String createRidesTable = "CREATE TABLE IF NOT EXISTS rides (" +
-                "id INT AUTO_INCREMENT PRIMARY KEY, " +
-                "passenger_id INT, " +
-                "driver_id INT, " +
-                "from_location VARCHAR(200) NOT NULL, " +
-                "to_location VARCHAR(200) NOT NULL, " +
-                "fare INT NOT NULL, " +
-                "status VARCHAR(20) DEFAULT 'PENDING', " +
-                "rating INT DEFAULT 0, " +
-                "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
-                "completed_at TIMESTAMP NULL, " +
-                "FOREIGN KEY (passenger_id) REFERENCES passengers(id), " +
-                "FOREIGN KEY (driver_id) REFERENCES drivers(id)" +
-                ")";
-        stmt.execute(createRidesTable);
+    private static void loadDispatchState() {
+        driversReady = Startup.phase("drivers", databaseReady, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                try (Connection connection = pool.getConnection()) {
+                    initializeDrivers(connection);
+                }
+                return null;
+            }
+        });
+        CompletableFuture<Void> ridesLoaded = Startup.phase("active rides", databaseReady, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                try (Connection connection = pool.getConnection()) {
+                    loadActiveRides(connection);
+                }
+                return null;
+            }
+        });
+        // Drivers on an accepted ride are busy, so marking them and indexing the available ones for
+        // dispatch needs both loads
+        ridesReady = ridesLoaded.thenCombine(driversReady, new BiFunction<Void, Void, Void>() {
+            @Override
+            public Void apply(Void rides, Void loadedDrivers) {
+                markDriversOnActiveRides();
+                for (Driver driver : drivers.snapshot()) {
+                    dispatchGrid.update(driver);
+                }
+                // Follow other instances' writes from now on
+                DeltaSync.start(pool);
+                return null;
+            }
+        });
+    }
+
+    private static void initializeDatabase() throws Exception {
+        database = DatabaseConfig.fromSystemProperties();
+        database.loadDriver();
         
-        // Create admin table
-        String createAdminTable = "CREATE TABLE IF NOT EXISTS admin (" +
-                "id INT AUTO_INCREMENT PRIMARY KEY, " +
-                "username VARCHAR(50) UNIQUE NOT NULL, " +
-                "password VARCHAR(100) NOT NULL" +
-                ")";
-        stmt.execute(createAdminTable);
+        // Open the connection pool, preparing the hot ride/driver statements once per connection
+        pool = ConnectionPool.fromSystemProperties(database.url, database.user, database.password);
+        pool.setStatementCache(new StatementCache(RideSql.CACHED));
+        pool.setSqlTrace(SqlTrace.fromSystemProperties());
+        pool.start();
+        registerPoolGauges();
+        DataAccess.start(pool);
+        DriverStatsWriter.start(pool);
+        System.out.println("Connected to database " + database + " successfully!");
         
-        // Insert default admin if not exists
-        String checkAdmin = "SELECT COUNT(*) FROM admin WHERE username = 'admin'";
-        ResultSet rs = stmt.executeQuery(checkAdmin);
-        rs.next();
-        if (rs.getInt(1) == 0) {
-            String insertAdmin = "INSERT INTO admin (username, password) VALUES ('admin', 'admin123')";
-            stmt.execute(insertAdmin);
+        // Create or upgrade tables; skipped when the schema is already current
+        try (Connection connection = pool.getConnection()) {
+            SchemaMigrator.migrate(connection);
+            // Changes from here on are picked up by the delta sync once the initial load is done
+            DeltaSync.markStart(connection);
         }
-        
-        stmt.close();
+        // Adds rides completed before the earnings buckets existed; nothing to do once caught up
+        EarningsBuckets.startBackfill(pool);
+        // Opens the archived rides for the history views and moves old rides there in the background
+        RideArchiver.start(pool);
     }
 
-    private static void initializeDrivers() {
-        try {
-            String sql = "SELECT * FROM drivers";
-            Statement stmt = connection.createStatement();
-            ResultSet rs = stmt.executeQuery(sql);
-            
-            while (rs.next()) {
-                int id = rs.getInt("id");
-                String name = rs.getString("name");
-                String vehicle = rs.getString("vehicle");
-                String priceRange = rs.getString("price_range");
-                String username = rs.getString("username");
-                String password = rs.getString("password");
-                boolean isAvailable = rs.getBoolean("is_available");
-                double totalEarnings = rs.getDouble("total_earnings");
-                int totalRides = rs.getInt("total_rides");
-                double averageRating = rs.getDouble("average_rating");
-                
-                Driver driver = new Driver(id, name, vehicle, priceRange, username, password);
-                driver.isAvailable = isAvailable;
-                driver.totalEarnings = totalEarnings;
-                driver.totalRides = totalRides;
-                driver.averageRating = averageRating;
-                
-                drivers.put(username, driver);
+    private static void registerPoolGauges() {
+        Metrics.gauge(new Metrics.Gauge("pool.active") {
+            @Override
+            long value() {
+                return pool.getActiveCount();
             }
-            
-            // If no drivers in database, add default ones
-            if (drivers.isEmpty()) {
-                addDefaultDrivers();
+        });
+        Metrics.gauge(new Metrics.Gauge("pool.idle") {
+            @Override
+            long value() {
+                return pool.getIdleCount();
             }
-            
-            stmt.close();
-        } catch (SQLException e) {
-            e.printStackTrace();
+        });
+        Metrics.gauge(new Metrics.Gauge("pool.timeouts") {
+            @Override
+            long value() {
+                return pool.getTimeoutCount();
+            }
+        });
+        Metrics.gauge(new Metrics.Gauge("driverStats.dirty") {
+            @Override
+            long value() {
+                return DriverStatsWriter.getDirtyCount();
+            }
+        });
+    }
+
+    private static void initializeDrivers(Connection connection) throws SQLException {
+        String sql = "SELECT * FROM drivers";
+        Statement stmt = connection.createStatement();
+        ResultSet rs = stmt.executeQuery(sql);
+        
+        while (rs.next()) {
+            drivers.add(driverFromRow(rs));
+        }
+        
+        // If no drivers in database, add default ones
+        if (drivers.isEmpty()) {
+            addDefaultDrivers(connection);
         }
+        
+        stmt.close();
     }
 
-    private static void addDefaultDrivers() throws SQLException {
+    private static void addDefaultDrivers(Connection connection) throws SQLException {
         String[][] defaultDrivers = {
             {"Juan Dela Cruz", "Yamaha Mio 125", "₱45-70", "driver1", "pass1"},
             {"Ana Marie Campos", "Honda Beat 110", "₱50-75", "driver2", "pass2"},
             {"Carlos Reyes", "Suzuki Skydrive", "₱40-65", "driver3", "pass3"}
         };
         
-        String sql = "INSERT INTO drivers (name, vehicle, price_range, username, password) VALUES (?, ?, ?, ?, ?)";
-        PreparedStatement pstmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+        PreparedStatement pstmt = connection.prepareStatement(RideSql.INSERT_DRIVER, Statement.RETURN_GENERATED_KEYS);
         
         for (String[] driverData : defaultDrivers) {
             pstmt.setString(1, driverData[0]);
@@ -330,162 +440,109 @@ public class RideAssistGUIwithDriver {
             if (rs.next()) {
                 int id = rs.getInt(1);
                 Driver driver = new Driver(id, driverData[0], driverData[1], driverData[2], driverData[3], driverData[4]);
-                drivers.put(driverData[3], driver);
+                drivers.add(driver);
             }
+            rs.close();
         }
         pstmt.close();
     }
 
-    private static void loadRideHistory() {
-        try {
-            String sql = "SELECT r.*, p.full_name, p.phone_number, d.name as driver_name " +
-                        "FROM rides r " +
-                        "LEFT JOIN passengers p ON r.passenger_id = p.id " +
-                        "LEFT JOIN drivers d ON r.driver_id = d.id " +
-                        "WHERE r.status = 'COMPLETED' " +
-                        "ORDER BY r.created_at DESC";
-            Statement stmt = connection.createStatement();
-            ResultSet rs = stmt.executeQuery(sql);
-            
-            while (rs.next()) {
-                String rideInfo = "From: " + rs.getString("from_location") + 
-                                 " To: " + rs.getString("to_location") + 
-                                 " - Status: COMPLETED" +
-                                 " (Driver: " + rs.getString("driver_name") + ")" +
-                                 " - Fare: ₱" + rs.getInt("fare");
-                
-                int rating = rs.getInt("rating");
-                if (rating > 0) {
-                    rideInfo += " - Rating: " + rating + "/5";
-                }
-                
-                rideHistory.add(rideInfo);
-            }
-            stmt.close();
-        } catch (SQLException e) {
-            e.printStackTrace();
+    private static void loadActiveRides(Connection connection) throws SQLException {
+        // Load pending rides
+        Statement stmt = connection.createStatement();
+        ResultSet rs = stmt.executeQuery(RideSql.LOAD_PENDING_RIDES);
+        while (rs.next()) {
+            pendingRideRequests.add(rideFromRow(rs, null));
+        }
+        
+        // Load accepted rides
+        rs = stmt.executeQuery(RideSql.LOAD_ACCEPTED_RIDES);
+        while (rs.next()) {
+            activeRides.add(rideFromRow(rs, rs.getString("driver_name")));
+        }
+        
+        // Completed rides still waiting for their passenger's rating
+        rs = stmt.executeQuery(RideSql.LOAD_COMPLETED_RIDES);
+        while (rs.next()) {
+            ridesAwaitingRating.add(rideFromRow(rs, rs.getString("driver_name")));
         }
+        
+        stmt.close();
     }
 
-    private static void loadActiveRides() {
-        try {
-            // Load pending rides
-            String pendingSql = "SELECT r.*, p.full_name, p.phone_number " +
-                              "FROM rides r " +
-                              "JOIN passengers p ON r.passenger_id = p.id " +
-                              "WHERE r.status = 'PENDING'";
-            Statement stmt = connection.createStatement();
-            ResultSet rs = stmt.executeQuery(pendingSql);
-            
-            while (rs.next()) {
-                RideRequest ride = new RideRequest(
-                    rs.getInt("id"),
-                    rs.getString("full_name"),
-                    rs.getString("phone_number"),
-                    rs.getString("from_location"),
-                    rs.getString("to_location"),
-                    "PENDING",
-                    null,
-                    rs.getInt("fare"),
-                    rs.getInt("rating"),
-                    rs.getInt("passenger_id"),
-                    -1
-                );
-                pendingRideRequests.add(ride);
-            }
-            
-            // Load accepted rides
-            String acceptedSql = "SELECT r.*, p.full_name, p.phone_number, d.name as driver_name " +
-                               "FROM rides r " +
-                               "JOIN passengers p ON r.passenger_id = p.id " +
-                               "JOIN drivers d ON r.driver_id = d.id " +
-                               "WHERE r.status = 'ACCEPTED'";
-            rs = stmt.executeQuery(acceptedSql);
-            
-            while (rs.next()) {
-                RideRequest ride = new RideRequest(
-                    rs.getInt("id"),
-                    rs.getString("full_name"),
-                    rs.getString("phone_number"),
-                    rs.getString("from_location"),
-                    rs.getString("to_location"),
-                    "ACCEPTED",
-                    rs.getString("driver_name"),
-                    rs.getInt("fare"),
-                    rs.getInt("rating"),
-                    rs.getInt("passenger_id"),
-                    rs.getInt("driver_id")
-                );
-                activeRides.add(ride);
-                
-                // Make driver unavailable
-                Driver driver = getDriverById(rs.getInt("driver_id"));
-                if (driver != null) {
-                    driver.isAvailable = false;
-                }
-            }
-            
-            stmt.close();
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
+    // Driver from a row of the drivers table
+    static Driver driverFromRow(ResultSet rs) throws SQLException {
+        Driver driver = new Driver(rs.getInt("id"), rs.getString("name"), rs.getString("vehicle"),
+            rs.getString("price_range"), rs.getString("username"), rs.getString("password"));
+        driver.isAvailable = rs.getBoolean("is_available");
+        driver.totalEarnings = rs.getDouble("total_earnings");
+        driver.totalRides = rs.getInt("total_rides");
+        driver.averageRating = rs.getDouble("average_rating");
+        driver.latitude = Places.getCoordinate(rs, "latitude");
+        driver.longitude = Places.getCoordinate(rs, "longitude");
+        return driver;
     }
 
-    private static Driver getDriverById(int driverId) {
-        for (Driver driver : drivers.values()) {
-            if (driver.id == driverId) {
-                return driver;
-            }
+    // Ride from a rides row joined with the passenger's name and number
+    static RideRequest rideFromRow(ResultSet rs, String driverName) throws SQLException {
+        // Pending rides have no driver yet
+        int driverId = rs.getInt("driver_id");
+        if (rs.wasNull()) {
+            driverId = -1;
         }
-        return null;
+        RideRequest ride = new RideRequest(
+            rs.getInt("id"),
+            rs.getString("full_name"),
+            rs.getString("phone_number"),
+            rs.getString("from_location"),
+            rs.getString("to_location"),
+            rs.getString("status"),
+            driverName,
+            rs.getInt("fare"),
+            rs.getInt("rating"),
+            rs.getInt("passenger_id"),
+            driverId
+        );
+        ride.pickupLat = Places.getCoordinate(rs, "pickup_lat");
+        ride.pickupLon = Places.getCoordinate(rs, "pickup_lon");
+        ride.updatedAt = rs.getTimestamp("updated_at");
+        return ride;
     }
 
-    // Add this new method to handle database operations for accepting rides
-    private static void acceptRideRequestInDB(RideRequest request, Driver driver) {
-        try {
-            String sql = "UPDATE rides SET driver_id = ?, status = 'ACCEPTED' WHERE id = ?";
-            PreparedStatement pstmt = connection.prepareStatement(sql);
-            pstmt.setInt(1, driver.id);
-            pstmt.setInt(2, request.id);
-            pstmt.executeUpdate();
-            pstmt.close();
-            
-            // Update driver availability in database
-            String updateDriverSql = "UPDATE drivers SET is_available = FALSE WHERE id = ?";
-            pstmt = connection.prepareStatement(updateDriverSql);
-            pstmt.setInt(1, driver.id);
-            pstmt.executeUpdate();
-            pstmt.close();
-        } catch (SQLException e) {
-            e.printStackTrace();
+    // Make drivers with an accepted ride, or one still waiting for its rating, unavailable
+    private static void markDriversOnActiveRides() {
+        List<RideRequest> busyRides = activeRides.snapshot();
+        busyRides.addAll(ridesAwaitingRating.snapshot());
+        for (RideRequest ride : busyRides) {
+            Driver driver = drivers.getById(ride.driverId);
+            if (driver != null) {
+                driver.isAvailable = false;
+            }
         }
     }
 
-    // Add this method for completing rides
-    private static void completeRideInDB(RideRequest ride) {
-        try {
-            String sql = "UPDATE rides SET status = 'COMPLETED', completed_at = CURRENT_TIMESTAMP WHERE id = ?";
-            PreparedStatement pstmt = connection.prepareStatement(sql);
-            pstmt.setInt(1, ride.id);
-            pstmt.executeUpdate();
-            pstmt.close();
-        } catch (SQLException e) {
-            e.printStackTrace();
+    // Nearest available drivers to a new ride's pickup (null when the pickup place is unknown), for the
+    // passenger's confirmation message
+    private static String describeNearestDrivers(List<DriverGrid.Match> nearest) {
+        if (nearest == null) {
+            return "Pickup place not recognised, so nearby drivers could not be found.";
+        }
+        if (nearest.isEmpty()) {
+            return "No available drivers near your pickup right now.";
+        }
+        StringBuilder sb = new StringBuilder("Nearest available drivers:");
+        for (DriverGrid.Match match : nearest) {
+            sb.append("\n  ").append(match.driver.name).append(String.format(" (%.1f km away)", match.distanceKm));
         }
+        return sb.toString();
     }
 
-    // Add this method for rating rides
-    private static void rateRideInDB(RideRequest ride) {
-        try {
-            String sql = "UPDATE rides SET rating = ?, status = 'RATED' WHERE id = ?";
-            PreparedStatement pstmt = connection.prepareStatement(sql);
-            pstmt.setInt(1, ride.rating);
-            pstmt.setInt(2, ride.id);
-            pstmt.executeUpdate();
-            pstmt.close();
-        } catch (SQLException e) {
-            e.printStackTrace();
+    // Distance from the driver to the ride's pickup, or NaN if either position is unknown
+    private static double pickupDistanceKm(Driver driver, RideRequest ride) {
+        if (!driver.hasLocation() || !ride.hasPickupLocation()) {
+            return Double.NaN;
         }
+        return Places.distanceKm(driver.latitude, driver.longitude, ride.pickupLat, ride.pickupLon);
     }
 
     public static void showMainMenu() {
@@ -506,35 +563,56 @@ public class RideAssistGUIwithDriver {
         frame.add(adminLoginBtn);
         frame.add(exitBtn);
 
+        // Data may still be loading; each screen opens once what it needs is ready
         createAccountBtn.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                frame.dispose();
-                createAccountGUI();
+                Startup.whenReady(databaseReady, frame, new Runnable() {
+                    @Override
+                    public void run() {
+                        frame.dispose();
+                        createAccountGUI();
+                    }
+                }, createAccountBtn, loginBtn, driverLoginBtn, adminLoginBtn);
             }
         });
 
         loginBtn.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                frame.dispose();
-                loginGUI();
+                Startup.whenReady(ridesReady, frame, new Runnable() {
+                    @Override
+                    public void run() {
+                        frame.dispose();
+                        loginGUI();
+                    }
+                }, createAccountBtn, loginBtn, driverLoginBtn, adminLoginBtn);
             }
         });
 
         driverLoginBtn.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                frame.dispose();
-                driverLoginGUI();
+                Startup.whenReady(ridesReady, frame, new Runnable() {
+                    @Override
+                    public void run() {
+                        frame.dispose();
+                        driverLoginGUI();
+                    }
+                }, createAccountBtn, loginBtn, driverLoginBtn, adminLoginBtn);
             }
         });
 
         adminLoginBtn.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                frame.dispose();
-                adminLoginGUI();
+                Startup.whenReady(ridesReady, frame, new Runnable() {
+                    @Override
+                    public void run() {
+                        frame.dispose();
+                        adminLoginGUI();
+                    }
+                }, createAccountBtn, loginBtn, driverLoginBtn, adminLoginBtn);
             }
         });
 
@@ -587,47 +665,62 @@ public class RideAssistGUIwithDriver {
                     return;
                 }
 
-                try {
-                    // Check if phone number already exists
-                    String checkSql = "SELECT COUNT(*) FROM passengers WHERE phone_number = ?";
-                    PreparedStatement checkStmt = connection.prepareStatement(checkSql);
-                    checkStmt.setString(1, phoneNumber);
-                    ResultSet rs = checkStmt.executeQuery();
-                    rs.next();
-                    
-                    if (rs.getInt(1) > 0) {
-                        JOptionPane.showMessageDialog(frame, "Phone number already registered!");
-                        return;
+                DataAccess.submit(new DataAccess.SqlTask<Integer>() {
+                    @Override
+                    public Integer run(Connection connection) throws SQLException {
+                        // Check if phone number already exists
+                        PreparedStatement checkStmt = connection.prepareStatement(RideSql.PASSENGER_PHONE_EXISTS);
+                        checkStmt.setString(1, phoneNumber);
+                        ResultSet rs = checkStmt.executeQuery();
+                        rs.next();
+                        boolean alreadyRegistered = rs.getInt(1) > 0;
+                        rs.close();
+                        checkStmt.close();
+                        
+                        if (alreadyRegistered) {
+                            return -1;
+                        }
+                        
+                        // Insert new passenger
+                        PreparedStatement pstmt = connection.prepareStatement(RideSql.INSERT_PASSENGER, Statement.RETURN_GENERATED_KEYS);
+                        pstmt.setString(1, fullName);
+                        pstmt.setString(2, phoneNumber);
+                        pstmt.setString(3, password);
+                        pstmt.executeUpdate();
+                        
+                        // Get generated ID
+                        int newId = 0;
+                        ResultSet generatedKeys = pstmt.getGeneratedKeys();
+                        if (generatedKeys.next()) {
+                            newId = generatedKeys.getInt(1);
+                        }
+                        generatedKeys.close();
+                        pstmt.close();
+                        return newId;
                     }
-                    
-                    // Insert new passenger
-                    String insertSql = "INSERT INTO passengers (full_name, phone_number, password) VALUES (?, ?, ?)";
-                    PreparedStatement pstmt = connection.prepareStatement(insertSql, Statement.RETURN_GENERATED_KEYS);
-                    pstmt.setString(1, fullName);
-                    pstmt.setString(2, phoneNumber);
-                    pstmt.setString(3, password);
-                    pstmt.executeUpdate();
-                    
-                    // Get generated ID
-                    ResultSet generatedKeys = pstmt.getGeneratedKeys();
-                    if (generatedKeys.next()) {
-                        passengerId = generatedKeys.getInt(1);
+                }, new DataAccess.UiCallback<Integer>() {
+                    @Override
+                    void onSuccess(Integer newId) {
+                        if (newId < 0) {
+                            JOptionPane.showMessageDialog(frame, "Phone number already registered!");
+                            return;
+                        }
+                        
+                        passengerId = newId;
+                        savedFullName = fullName;
+                        savedNumber = phoneNumber;
+                        savedPassword = password;
+                        
+                        JOptionPane.showMessageDialog(frame, "Account created successfully!");
+                        frame.dispose();
+                        showMainMenu();
                     }
                     
-                    savedFullName = fullName;
-                    savedNumber = phoneNumber;
-                    savedPassword = password;
-                    
-                    JOptionPane.showMessageDialog(frame, "Account created successfully!");
-                    frame.dispose();
-                    showMainMenu();
-                    
-                    pstmt.close();
-                    checkStmt.close();
-                } catch (SQLException ex) {
-                    JOptionPane.showMessageDialog(frame, "Error creating account: " + ex.getMessage());
-                    ex.printStackTrace();
-                }
+                    @Override
+                    void onFailure(Throwable error) {
+                        JOptionPane.showMessageDialog(frame, "Error creating account: " + error.getMessage());
+                    }
+                }, frame, submitBtn, backBtn);
             }
         });
 
@@ -669,31 +762,53 @@ public class RideAssistGUIwithDriver {
                 String number = numberField.getText();
                 String password = new String(passwordField.getPassword());
 
-                try {
-                    String sql = "SELECT * FROM passengers WHERE phone_number = ? AND password = ?";
-                    PreparedStatement pstmt = connection.prepareStatement(sql);
-                    pstmt.setString(1, number);
-                    pstmt.setString(2, password);
-                    ResultSet rs = pstmt.executeQuery();
-                    
-                    if (rs.next()) {
-                        passengerId = rs.getInt("id");
-                        savedFullName = rs.getString("full_name");
-                        savedNumber = rs.getString("phone_number");
-                        savedPassword = rs.getString("password");
-                        
-                        JOptionPane.showMessageDialog(frame, "Login successful. Welcome, " + savedFullName + "!");
-                        frame.dispose();
-                        passengerMenuGUI();
-                    } else {
-                        JOptionPane.showMessageDialog(frame, "Incorrect number or password.");
+                DataAccess.submit(new DataAccess.SqlTask<PassengerAccount>() {
+                    @Override
+                    public PassengerAccount run(Connection connection) throws SQLException {
+                        long start = System.nanoTime();
+                        boolean succeeded = false;
+                        try {
+                            PreparedStatement pstmt = connection.prepareStatement(RideSql.PASSENGER_LOGIN);
+                            pstmt.setString(1, number);
+                            pstmt.setString(2, password);
+                            ResultSet rs = pstmt.executeQuery();
+
+                            PassengerAccount account = null;
+                            if (rs.next()) {
+                                account = new PassengerAccount(rs.getInt("id"), rs.getString("full_name"),
+                                    rs.getString("phone_number"), rs.getString("password"));
+                            }
+
+                            rs.close();
+                            pstmt.close();
+                            succeeded = true;
+                            return account;
+                        } finally {
+                            PASSENGER_LOGIN_TIMER.stop(start, succeeded);
+                        }
+                    }
+                }, new DataAccess.UiCallback<PassengerAccount>() {
+                    @Override
+                    void onSuccess(PassengerAccount account) {
+                        if (account != null) {
+                            passengerId = account.id;
+                            savedFullName = account.fullName;
+                            savedNumber = account.phoneNumber;
+                            savedPassword = account.password;
+                            
+                            JOptionPane.showMessageDialog(frame, "Login successful. Welcome, " + savedFullName + "!");
+                            frame.dispose();
+                            passengerMenuGUI();
+                        } else {
+                            JOptionPane.showMessageDialog(frame, "Incorrect number or password.");
+                        }
                     }
                     
-                    pstmt.close();
-                } catch (SQLException ex) {
-                    JOptionPane.showMessageDialog(frame, "Error during login: " + ex.getMessage());
-                    ex.printStackTrace();
-                }
+                    @Override
+                    void onFailure(Throwable error) {
+                        JOptionPane.showMessageDialog(frame, "Error during login: " + error.getMessage());
+                    }
+                }, frame, loginBtn, backBtn);
             }
         });
 
@@ -732,22 +847,33 @@ public class RideAssistGUIwithDriver {
         loginBtn.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                String username = userField.getText();
-                String password = new String(passField.getPassword());
+                final String username = userField.getText();
+                final String password = new String(passField.getPassword());
 
-                if (drivers.containsKey(username)) {
-                    Driver driver = drivers.get(username);
-                    if (driver.password.equals(password)) {
+                DataAccess.submit(new DataAccess.Task<Driver>() {
+                    @Override
+                    public Driver run() throws Exception {
+                        return dispatch.driverLogin(username, password);
+                    }
+                }, new DataAccess.UiCallback<Driver>() {
+                    @Override
+                    void onSuccess(Driver driver) {
+                        if (driver == null) {
+                            JOptionPane.showMessageDialog(frame, "Invalid username or password.");
+                            return;
+                        }
                         currentDriverLoggedIn = username;
+                        currentDriverId = driver.id;
                         JOptionPane.showMessageDialog(frame, "Driver login successful. Welcome, " + driver.name + "!");
                         frame.dispose();
                         driverMenuGUI();
-                    } else {
-                        JOptionPane.showMessageDialog(frame, "Invalid password.");
                     }
-                } else {
-                    JOptionPane.showMessageDialog(frame, "Invalid username.");
-                }
+                    
+                    @Override
+                    void onFailure(Throwable error) {
+                        JOptionPane.showMessageDialog(frame, "Error logging in: " + error.getMessage());
+                    }
+                }, frame, loginBtn, backBtn);
             }
         });
 
@@ -789,26 +915,43 @@ public class RideAssistGUIwithDriver {
                 String username = userField.getText();
                 String password = new String(passField.getPassword());
 
-                try {
-                    String sql = "SELECT * FROM admin WHERE username = ? AND password = ?";
-                    PreparedStatement pstmt = connection.prepareStatement(sql);
-                    pstmt.setString(1, username);
-                    pstmt.setString(2, password);
-                    ResultSet rs = pstmt.executeQuery();
-                    
-                    if (rs.next()) {
-                        isAdminLoggedIn = true;
-                        JOptionPane.showMessageDialog(frame, "Admin login successful!");
-                        frame.dispose();
-                        adminMenuGUI();
-                    } else {
-                        JOptionPane.showMessageDialog(frame, "Invalid admin credentials.");
+                DataAccess.submit(new DataAccess.SqlTask<Boolean>() {
+                    @Override
+                    public Boolean run(Connection connection) throws SQLException {
+                        long start = System.nanoTime();
+                        boolean succeeded = false;
+                        try {
+                            PreparedStatement pstmt = connection.prepareStatement(RideSql.ADMIN_LOGIN);
+                            pstmt.setString(1, username);
+                            pstmt.setString(2, password);
+                            ResultSet rs = pstmt.executeQuery();
+                            boolean valid = rs.next();
+                            rs.close();
+                            pstmt.close();
+                            succeeded = true;
+                            return valid;
+                        } finally {
+                            ADMIN_LOGIN_TIMER.stop(start, succeeded);
+                        }
+                    }
+                }, new DataAccess.UiCallback<Boolean>() {
+                    @Override
+                    void onSuccess(Boolean valid) {
+                        if (valid) {
+                            isAdminLoggedIn = true;
+                            JOptionPane.showMessageDialog(frame, "Admin login successful!");
+                            frame.dispose();
+                            adminMenuGUI();
+                        } else {
+                            JOptionPane.showMessageDialog(frame, "Invalid admin credentials.");
+                        }
                     }
                     
-                    pstmt.close();
-                } catch (SQLException ex) {
-                    JOptionPane.showMessageDialog(frame, "Error during admin login: " + ex.getMessage());
-                }
+                    @Override
+                    void onFailure(Throwable error) {
+                        JOptionPane.showMessageDialog(frame, "Error during admin login: " + error.getMessage());
+                    }
+                }, frame, loginBtn, backBtn);
             }
         });
 
@@ -832,11 +975,42 @@ public class RideAssistGUIwithDriver {
         JButton checkStatusBtn = new JButton("Check Ride Status");
         JButton rateRideBtn = new JButton("Rate Completed Ride");
         JButton logoutBtn = new JButton("Logout");
+        final JLabel updateLabel = new JLabel("No ride updates yet.", SwingConstants.CENTER);
 
         frame.add(requestRideBtn);
         frame.add(checkStatusBtn);
         frame.add(rateRideBtn);
         frame.add(logoutBtn);
+        frame.add(updateLabel);
+
+        // Latest change to one of this passenger's rides, so they do not have to keep checking
+        final int shownPassengerId = passengerId;
+        subscribeWhileOpen(frame, new RideEvents.Listener() {
+            @Override
+            public void rideChanged(RideEvents.Event event) {
+                RideRequest ride = event.ride;
+                if (ride.passengerId != shownPassengerId) {
+                    return;
+                }
+                switch (event.type) {
+                    case CREATED:
+                        updateLabel.setText("Ride to " + ride.to + " requested - waiting for a driver.");
+                        break;
+                    case ACCEPTED:
+                        updateLabel.setText(ride.driverAssigned + " accepted your ride to " + ride.to + "!");
+                        break;
+                    case DECLINED:
+                        updateLabel.setText("Your ride request to " + ride.to + " was declined.");
+                        break;
+                    case COMPLETED:
+                        updateLabel.setText("Ride to " + ride.to + " completed - please rate your driver.");
+                        break;
+                    case RATED:
+                        updateLabel.setText("Thank you for rating your ride to " + ride.to + ".");
+                        break;
+                }
+            }
+        });
 
         requestRideBtn.addActionListener(new ActionListener() {
             @Override
@@ -903,41 +1077,35 @@ public class RideAssistGUIwithDriver {
                     return;
                 }
 
-                try {
-                    // Create ride request
-                    RideRequest newRequest = new RideRequest(savedFullName, savedNumber, currentLocation, destination, passengerId);
-                    
-                    // Save to database
-                    String sql = "INSERT INTO rides (passenger_id, from_location, to_location, fare, status) VALUES (?, ?, ?, ?, 'PENDING')";
-                    PreparedStatement pstmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
-                    pstmt.setInt(1, passengerId);
-                    pstmt.setString(2, currentLocation);
-                    pstmt.setString(3, destination);
-                    pstmt.setInt(4, newRequest.fare);
-                    pstmt.executeUpdate();
-                    
-                    // Get generated ID
-                    ResultSet generatedKeys = pstmt.getGeneratedKeys();
-                    if (generatedKeys.next()) {
-                        newRequest.id = generatedKeys.getInt(1);
+                DataAccess.submit(new DataAccess.Task<String>() {
+                    @Override
+                    public String run() throws Exception {
+                        RideRequest newRequest = dispatch.requestRide(passengerId, savedFullName, savedNumber,
+                            currentLocation, destination);
+                        List<DriverGrid.Match> nearest = null;
+                        if (newRequest.hasPickupLocation()) {
+                            nearest = dispatch.nearestDrivers(newRequest.pickupLat, newRequest.pickupLon,
+                                NEAREST_DRIVERS_SHOWN);
+                        }
+                        return "Ride requested!\n\nFrom: " + currentLocation + 
+                            "\nTo: " + destination + 
+                            "\nEstimated Fare: ₱" + newRequest.fare +
+                            "\n\n" + describeNearestDrivers(nearest) +
+                            "\n\nStatus: PENDING\nWaiting for driver to accept...";
+                    }
+                }, new DataAccess.UiCallback<String>() {
+                    @Override
+                    void onSuccess(String message) {
+                        JOptionPane.showMessageDialog(frame, message);
+                        frame.dispose();
+                        passengerMenuGUI();
                     }
                     
-                    pendingRideRequests.add(newRequest);
-                    
-                    JOptionPane.showMessageDialog(frame, 
-                        "Ride requested!\n\nFrom: " + currentLocation + 
-                        "\nTo: " + destination + 
-                        "\nEstimated Fare: ₱" + newRequest.fare +
-                        "\n\nStatus: PENDING\nWaiting for driver to accept...");
-
-                    frame.dispose();
-                    passengerMenuGUI();
-                    
-                    pstmt.close();
-                } catch (SQLException ex) {
-                    JOptionPane.showMessageDialog(frame, "Error requesting ride: " + ex.getMessage());
-                    ex.printStackTrace();
-                }
+                    @Override
+                    void onFailure(Throwable error) {
+                        JOptionPane.showMessageDialog(frame, "Error requesting ride: " + error.getMessage());
+                    }
+                }, frame, requestBtn, backBtn);
             }
         });
 
@@ -952,61 +1120,92 @@ public class RideAssistGUIwithDriver {
         frame.setVisible(true);
     }
 
+    // The passenger's open rides; rows change as drivers accept and complete them
     public static void checkRideStatusGUI() {
-        StringBuilder sb = new StringBuilder();
-        
-        // Check if there are any rides for this passenger
-        boolean found = false;
-        for (RideRequest request : pendingRideRequests) {
-            if (request.passengerNumber.equals(savedNumber)) {
-                sb.append("Pending Request:\n");
-                sb.append("From: ").append(request.from).append("\n");
-                sb.append("To: ").append(request.to).append("\n");
-                sb.append("Status: ").append(request.status).append("\n");
-                sb.append("Estimated Fare: ₱").append(request.fare).append("\n\n");
-                found = true;
+        JFrame frame = new JFrame("Ride Status");
+        frame.setSize(550, 300);
+        frame.setLayout(new BorderLayout());
+
+        final int shownPassengerId = passengerId;
+        final JLabel hintLabel = new JLabel("Loading rides...", SwingConstants.CENTER);
+        final LiveRideList rides = new LiveRideList() {
+            @Override
+            boolean shows(RideRequest ride) {
+                return ride.passengerId == shownPassengerId && ("PENDING".equals(ride.status) ||
+                    "ACCEPTED".equals(ride.status) || "COMPLETED".equals(ride.status));
             }
-        }
-        
-        for (RideRequest request : activeRides) {
-            if (request.passengerNumber.equals(savedNumber)) {
-                sb.append("Active Ride:\n");
-                sb.append("From: ").append(request.from).append("\n");
-                sb.append("To: ").append(request.to).append("\n");
-                sb.append("Status: ").append(request.status).append("\n");
-                sb.append("Driver: ").append(request.driverAssigned).append("\n");
-                sb.append("Fare: ₱").append(request.fare).append("\n\n");
-                found = true;
+            
+            @Override
+            String describe(RideRequest ride) {
+                if ("PENDING".equals(ride.status)) {
+                    return "Pending: " + ride.from + " → " + ride.to + " - Estimated Fare: ₱" + ride.fare +
+                        " - waiting for a driver";
+                }
+                if ("ACCEPTED".equals(ride.status)) {
+                    return "Active: " + ride.from + " → " + ride.to + " - Driver: " + ride.driverAssigned +
+                        " - Fare: ₱" + ride.fare;
+                }
+                return "Ready for rating: " + ride.from + " → " + ride.to + " - Driver: " + ride.driverAssigned +
+                    " - Fare: ₱" + ride.fare;
             }
-        }
-        
-        // Check for rides pending rating
-        if (ridesPendingRating.containsKey(savedNumber)) {
-            RideRequest ride = ridesPendingRating.get(savedNumber);
-            sb.append("Ride Ready for Rating:\n");
-            sb.append("From: ").append(ride.from).append("\n");
-            sb.append("To: ").append(ride.to).append("\n");
-            sb.append("Driver: ").append(ride.driverAssigned).append("\n");
-            sb.append("Fare: ₱").append(ride.fare).append("\n");
-            sb.append("Please rate this ride in the 'Rate Completed Ride' menu!\n\n");
-            found = true;
-        }
-        
-        if (!found) {
-            sb.append("No active or pending rides found.");
-        }
-        
-        JOptionPane.showMessageDialog(null, sb.toString(), "Ride Status", JOptionPane.INFORMATION_MESSAGE);
+            
+            @Override
+            void changed() {
+                hintLabel.setText(size() == 0 ? "No active or pending rides found." :
+                    "Updates appear here as drivers respond.");
+            }
+        };
+        subscribeWhileOpen(frame, rides);
+        loadRides(frame, rides, new DataAccess.Task<List<RideRequest>>() {
+            @Override
+            public List<RideRequest> run() throws Exception {
+                return dispatch.ridesForPassenger(shownPassengerId);
+            }
+        });
+
+        JButton closeBtn = new JButton("Close");
+        closeBtn.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                frame.dispose();
+            }
+        });
+
+        frame.add(hintLabel, BorderLayout.NORTH);
+        frame.add(new JScrollPane(new JList<>(rides.model)), BorderLayout.CENTER);
+        frame.add(closeBtn, BorderLayout.SOUTH);
+        frame.setVisible(true);
     }
     
     public static void rateRideGUI() {
-        if (!ridesPendingRating.containsKey(savedNumber)) {
-            JOptionPane.showMessageDialog(null, "No rides pending rating.");
-            return;
-        }
-        
-        RideRequest ride = ridesPendingRating.get(savedNumber);
-        
+        DataAccess.submit(new DataAccess.Task<RideRequest>() {
+            @Override
+            public RideRequest run() throws Exception {
+                for (RideRequest ride : dispatch.ridesForPassenger(passengerId)) {
+                    if ("COMPLETED".equals(ride.status)) {
+                        return ride;
+                    }
+                }
+                return null;
+            }
+        }, new DataAccess.UiCallback<RideRequest>() {
+            @Override
+            void onSuccess(RideRequest ride) {
+                if (ride == null) {
+                    JOptionPane.showMessageDialog(null, "No rides pending rating.");
+                    return;
+                }
+                showRateRideWindow(ride);
+            }
+            
+            @Override
+            void onFailure(Throwable error) {
+                JOptionPane.showMessageDialog(null, "Error loading ride: " + error.getMessage());
+            }
+        }, null);
+    }
+    
+    private static void showRateRideWindow(final RideRequest ride) {
         JFrame frame = new JFrame("Rate Your Driver");
         frame.setSize(400, 300);
         frame.setLayout(new GridLayout(7, 1));
@@ -1058,52 +1257,37 @@ public class RideAssistGUIwithDriver {
                 }
                 
                 if (rating > 0) {
-                    ride.rating = rating;
-                    ride.status = "COMPLETED";
+                    final int selectedRating = rating;
                     
-                    // Update in database
-                    rateRideInDB(ride);
-                    
-                    // Update driver earnings and rating
-                    Driver driver = null;
-                    for (Driver d : drivers.values()) {
-                        if (d.name.equals(ride.driverAssigned)) {
-                            driver = d;
-                            break;
+                    // Driver earnings, rating and availability are updated by the dispatch core
+                    DataAccess.submit(new DataAccess.Task<RideRequest>() {
+                        @Override
+                        public RideRequest run() throws Exception {
+                            return dispatch.rateRide(ride.id, selectedRating);
+                        }
+                    }, new DataAccess.UiCallback<RideRequest>() {
+                        @Override
+                        void onSuccess(RideRequest rated) {
+                            if (rated == null) {
+                                JOptionPane.showMessageDialog(frame, "This ride has already been rated.");
+                                frame.dispose();
+                                return;
+                            }
+                            
+                            JOptionPane.showMessageDialog(frame, 
+                                "Thank you for your rating!\n" +
+                                "You rated: " + selectedRating + " stars\n" +
+                                "Driver: " + ride.driverAssigned + "\n" +
+                                "Fare: ₱" + ride.fare);
+                            
+                            frame.dispose();
                         }
-                    }
-                    
-                    if (driver != null) {
-                        driver.addRideEarnings(ride.fare);
-                        driver.addRating(rating);
-                        driver.isAvailable = true; // Make driver available again
                         
-                        // Update driver availability in database
-                        try {
-                            String sql = "UPDATE drivers SET is_available = TRUE WHERE id = ?";
-                            PreparedStatement pstmt = connection.prepareStatement(sql);
-                            pstmt.setInt(1, driver.id);
-                            pstmt.executeUpdate();
-                            pstmt.close();
-                        } catch (SQLException ex) {
-                            ex.printStackTrace();
+                        @Override
+                        void onFailure(Throwable error) {
+                            JOptionPane.showMessageDialog(frame, "Error submitting rating: " + error.getMessage());
                         }
-                    }
-                    
-                    // Add to ride history
-                    rideHistory.add(ride.toString());
-                    
-                    // Remove from active rides and pending rating
-                    activeRides.remove(ride);
-                    ridesPendingRating.remove(savedNumber);
-                    
-                    JOptionPane.showMessageDialog(frame, 
-                        "Thank you for your rating!\n" +
-                        "You rated: " + rating + " stars\n" +
-                        "Driver: " + ride.driverAssigned + "\n" +
-                        "Fare: ₱" + ride.fare);
-                    
-                    frame.dispose();
+                    }, frame, submitBtn, cancelBtn);
                 }
             }
         });
@@ -1119,20 +1303,50 @@ public class RideAssistGUIwithDriver {
     }
 
     public static void driverMenuGUI() {
+        DataAccess.submit(new DataAccess.Task<Driver>() {
+            @Override
+            public Driver run() throws Exception {
+                return dispatch.getDriver(currentDriverId);
+            }
+        }, new DataAccess.UiCallback<Driver>() {
+            @Override
+            void onSuccess(Driver driver) {
+                if (driver == null) {
+                    // Removed by an admin since logging in
+                    JOptionPane.showMessageDialog(null, "Your driver account no longer exists.");
+                    currentDriverLoggedIn = null;
+                    currentDriverId = -1;
+                    showMainMenu();
+                    return;
+                }
+                showDriverMenu(driver);
+            }
+            
+            @Override
+            void onFailure(Throwable error) {
+                JOptionPane.showMessageDialog(null, "Error loading driver: " + error.getMessage());
+                showMainMenu();
+            }
+        }, null);
+    }
+
+    // The driver is a copy when the dispatch core is remote, so it is refreshed from each call's result
+    private static void showDriverMenu(final Driver driver) {
         JFrame frame = new JFrame("Driver Menu");
-        frame.setSize(400, 350);
-        frame.setLayout(new GridLayout(6, 1));
+        frame.setSize(400, 400);
+        frame.setLayout(new GridLayout(8, 1));
 
-        Driver driver = drivers.get(currentDriverLoggedIn);
         JLabel statusLabel = new JLabel("Status: " + (driver.isAvailable ? "AVAILABLE" : "ON RIDE"), SwingConstants.CENTER);
         statusLabel.setFont(new Font("Arial", Font.BOLD, 14));
         statusLabel.setForeground(driver.isAvailable ? Color.GREEN : Color.RED);
         
-        JLabel earningsLabel = new JLabel("Total Earnings: ₱" + String.format("%.2f", driver.totalEarnings), SwingConstants.CENTER);
+        JLabel earningsLabel = new JLabel("Total Earnings: ...", SwingConstants.CENTER);
         earningsLabel.setFont(new Font("Arial", Font.BOLD, 12));
+        refreshMenuEarnings(earningsLabel, driver.id);
 
         JButton viewRequestsBtn = new JButton("View Ride Requests");
         JButton toggleStatusBtn = new JButton(driver.isAvailable ? "Go Offline" : "Go Online");
+        JButton setLocationBtn = new JButton("Set Location");
         JButton viewEarningsBtn = new JButton("View Earnings & Ratings");
         JButton completeRideBtn = new JButton("Complete Current Ride");
         JButton logoutBtn = new JButton("Logout");
@@ -1141,41 +1355,132 @@ public class RideAssistGUIwithDriver {
         frame.add(earningsLabel);
         frame.add(viewRequestsBtn);
         frame.add(toggleStatusBtn);
+        frame.add(setLocationBtn);
         frame.add(completeRideBtn);
         frame.add(viewEarningsBtn);
         frame.add(logoutBtn);
 
-        viewRequestsBtn.addActionListener(new ActionListener() {
+        // Accepting a ride makes the driver busy and its rating frees them, so refresh the status when either
+        // happens. The rollup counts the fare at completion, so the earnings refresh then and at rating.
+        subscribeWhileOpen(frame, new RideEvents.Listener() {
             @Override
-            public void actionPerformed(ActionEvent e) {
-                if (!driver.isAvailable) {
-                    JOptionPane.showMessageDialog(frame, "You must be available to view requests!");
+            public void rideChanged(RideEvents.Event event) {
+                if (event.ride.driverId != driver.id) {
+                    return;
+                }
+                if (event.type == RideEvents.Type.COMPLETED || event.type == RideEvents.Type.RATED) {
+                    refreshMenuEarnings(earningsLabel, driver.id);
+                }
+                if (event.type != RideEvents.Type.ACCEPTED && event.type != RideEvents.Type.RATED) {
                     return;
                 }
-                viewDriverRequestsGUI();
+                DataAccess.submit(new DataAccess.Task<Driver>() {
+                    @Override
+                    public Driver run() throws Exception {
+                        return dispatch.getDriver(driver.id);
+                    }
+                }, new DataAccess.UiCallback<Driver>() {
+                    @Override
+                    void onSuccess(Driver current) {
+                        if (current == null) {
+                            return;
+                        }
+                        driver.isAvailable = current.isAvailable;
+                        statusLabel.setText("Status: " + (driver.isAvailable ? "AVAILABLE" : "ON RIDE"));
+                        statusLabel.setForeground(driver.isAvailable ? Color.GREEN : Color.RED);
+                        toggleStatusBtn.setText(driver.isAvailable ? "Go Offline" : "Go Online");
+                    }
+                    
+                    @Override
+                    void onFailure(Throwable error) {
+                        // Already logged; the labels catch up on the next change
+                    }
+                }, null);
+            }
+        });
+
+        viewRequestsBtn.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                DataAccess.submit(new DataAccess.Task<Driver>() {
+                    @Override
+                    public Driver run() throws Exception {
+                        return dispatch.getDriver(driver.id);
+                    }
+                }, new DataAccess.UiCallback<Driver>() {
+                    @Override
+                    void onSuccess(Driver current) {
+                        if (current == null || !current.isAvailable) {
+                            JOptionPane.showMessageDialog(frame, "You must be available to view requests!");
+                            return;
+                        }
+                        viewDriverRequestsGUI();
+                    }
+                    
+                    @Override
+                    void onFailure(Throwable error) {
+                        JOptionPane.showMessageDialog(frame, "Error loading driver: " + error.getMessage());
+                    }
+                }, frame, viewRequestsBtn);
             }
         });
 
         toggleStatusBtn.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                driver.isAvailable = !driver.isAvailable;
-                statusLabel.setText("Status: " + (driver.isAvailable ? "AVAILABLE" : "ON RIDE"));
-                statusLabel.setForeground(driver.isAvailable ? Color.GREEN : Color.RED);
-                toggleStatusBtn.setText(driver.isAvailable ? "Go Offline" : "Go Online");
-                JOptionPane.showMessageDialog(frame, driver.isAvailable ? "You are now available!" : "You are now offline.");
+                final boolean nowAvailable = !driver.isAvailable;
                 
-                // Update driver availability in database
-                try {
-                    String sql = "UPDATE drivers SET is_available = ? WHERE id = ?";
-                    PreparedStatement pstmt = connection.prepareStatement(sql);
-                    pstmt.setBoolean(1, driver.isAvailable);
-                    pstmt.setInt(2, driver.id);
-                    pstmt.executeUpdate();
-                    pstmt.close();
-                } catch (SQLException ex) {
-                    ex.printStackTrace();
+                DataAccess.submit(new DataAccess.Task<Driver>() {
+                    @Override
+                    public Driver run() throws Exception {
+                        return dispatch.setDriverAvailable(driver.id, nowAvailable);
+                    }
+                }, new DataAccess.UiCallback<Driver>() {
+                    @Override
+                    void onSuccess(Driver updated) {
+                        driver.isAvailable = nowAvailable;
+                        statusLabel.setText("Status: " + (driver.isAvailable ? "AVAILABLE" : "ON RIDE"));
+                        statusLabel.setForeground(driver.isAvailable ? Color.GREEN : Color.RED);
+                        toggleStatusBtn.setText(driver.isAvailable ? "Go Offline" : "Go Online");
+                        JOptionPane.showMessageDialog(frame, driver.isAvailable ? "You are now available!" : "You are now offline.");
+                    }
+                    
+                    @Override
+                    void onFailure(Throwable error) {
+                        JOptionPane.showMessageDialog(frame, "Error updating status: " + error.getMessage());
+                    }
+                }, frame, toggleStatusBtn);
+            }
+        });
+
+        setLocationBtn.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                Object[] places = Places.all().toArray();
+                final Places.Place place = (Places.Place) JOptionPane.showInputDialog(frame,
+                    "Where are you now?", "Set Location", JOptionPane.QUESTION_MESSAGE, null, places, places[0]);
+                if (place == null) {
+                    return;
                 }
+                
+                DataAccess.submit(new DataAccess.Task<Driver>() {
+                    @Override
+                    public Driver run() throws Exception {
+                        return dispatch.setDriverLocation(driver.id, place.latitude, place.longitude);
+                    }
+                }, new DataAccess.UiCallback<Driver>() {
+                    @Override
+                    void onSuccess(Driver updated) {
+                        driver.latitude = place.latitude;
+                        driver.longitude = place.longitude;
+                        JOptionPane.showMessageDialog(frame, "Location set to " + place.name + ".");
+                    }
+                    
+                    @Override
+                    void onFailure(Throwable error) {
+                        JOptionPane.showMessageDialog(frame, "Error setting location: " + error.getMessage());
+                    }
+                }, frame, setLocationBtn);
             }
         });
 
@@ -1197,6 +1502,7 @@ public class RideAssistGUIwithDriver {
             @Override
             public void actionPerformed(ActionEvent e) {
                 currentDriverLoggedIn = null;
+                currentDriverId = -1;
                 frame.dispose();
                 showMainMenu();
             }
@@ -1206,41 +1512,90 @@ public class RideAssistGUIwithDriver {
     }
     
     public static void completeCurrentRideGUI() {
-        // Find active ride for this driver
-        RideRequest currentRide = null;
-        for (RideRequest ride : activeRides) {
-            if (ride.driverAssigned != null && 
-                ride.driverAssigned.equals(drivers.get(currentDriverLoggedIn).name)) {
-                currentRide = ride;
-                break;
+        // The ride waits for the passenger's rating; the driver stays busy until then
+        DataAccess.submit(new DataAccess.Task<RideRequest>() {
+            @Override
+            public RideRequest run() throws Exception {
+                return dispatch.completeRide(currentDriverId);
             }
-        }
-        
-        if (currentRide == null) {
-            JOptionPane.showMessageDialog(null, "No active ride to complete.");
-            return;
-        }
-        
-        // Update in database
-        completeRideInDB(currentRide);
-        
-        // Mark ride as ready for rating
-        ridesPendingRating.put(currentRide.passengerNumber, currentRide);
-        
-        JOptionPane.showMessageDialog(null,
-            "Ride completed!\n\n" +
-            "Passenger: " + currentRide.passengerName + "\n" +
-            "From: " + currentRide.from + "\n" +
-            "To: " + currentRide.to + "\n" +
-            "Fare: ₱" + currentRide.fare + "\n\n" +
-            "Waiting for passenger rating...");
+        }, new DataAccess.UiCallback<RideRequest>() {
+            @Override
+            void onSuccess(RideRequest completedRide) {
+                if (completedRide == null) {
+                    JOptionPane.showMessageDialog(null, "No active ride to complete.");
+                    return;
+                }
+                
+                JOptionPane.showMessageDialog(null,
+                    "Ride completed!\n\n" +
+                    "Passenger: " + completedRide.passengerName + "\n" +
+                    "From: " + completedRide.from + "\n" +
+                    "To: " + completedRide.to + "\n" +
+                    "Fare: ₱" + completedRide.fare + "\n\n" +
+                    "Waiting for passenger rating...");
+            }
+            
+            @Override
+            void onFailure(Throwable error) {
+                JOptionPane.showMessageDialog(null, "Error completing ride: " + error.getMessage());
+            }
+        }, null);
     }
     
+    // Reads the menu's earnings from the driver_stats rollup, as the earnings screen does, so both agree while
+    // a ride awaits rating
+    private static void refreshMenuEarnings(final JLabel earningsLabel, final int driverId) {
+        DataAccess.submit(new DataAccess.SqlTask<DriverStatsRollup.Totals>() {
+            @Override
+            public DriverStatsRollup.Totals run(Connection connection) throws SQLException {
+                return DriverStatsRollup.load(connection, driverId);
+            }
+        }, new DataAccess.UiCallback<DriverStatsRollup.Totals>() {
+            @Override
+            void onSuccess(DriverStatsRollup.Totals totals) {
+                earningsLabel.setText("Total Earnings: ₱" + String.format("%.2f", totals.earnings));
+            }
+
+            @Override
+            void onFailure(Throwable error) {
+                // Already logged; the label catches up on the next change
+            }
+        }, null);
+    }
+
     public static void viewDriverEarningsGUI() {
-        Driver driver = drivers.get(currentDriverLoggedIn);
-        
+        DataAccess.submit(new DataAccess.Task<DriverEarnings>() {
+            @Override
+            public DriverEarnings run() throws Exception {
+                Driver driver = dispatch.getDriver(currentDriverId);
+                if (driver == null) {
+                    return null;
+                }
+                try (Connection connection = pool.getConnection()) {
+                    return new DriverEarnings(driver, DriverStatsRollup.load(connection, driver.id),
+                        EarningsBuckets.breakdown(connection, driver.id, LocalDateTime.now()));
+                }
+            }
+        }, new DataAccess.UiCallback<DriverEarnings>() {
+            @Override
+            void onSuccess(DriverEarnings earnings) {
+                if (earnings != null) {
+                    showDriverEarnings(earnings.driver, earnings.totals, earnings.breakdown);
+                }
+            }
+            
+            @Override
+            void onFailure(Throwable error) {
+                JOptionPane.showMessageDialog(null, "Error loading earnings: " + error.getMessage());
+            }
+        }, null);
+    }
+    
+    // The totals come from the driver_stats rollup, as on the admin screens, so they match the breakdown
+    private static void showDriverEarnings(Driver driver, DriverStatsRollup.Totals totals,
+                                           EarningsBuckets.Breakdown breakdown) {
         JFrame frame = new JFrame("Driver Earnings & Ratings");
-        frame.setSize(500, 300);
+        frame.setSize(500, 480);
         frame.setLayout(new BorderLayout());
         
         JPanel summaryPanel = new JPanel();
@@ -1250,16 +1605,16 @@ public class RideAssistGUIwithDriver {
         JLabel titleLabel = new JLabel("Earnings Summary - " + driver.name, SwingConstants.CENTER);
         titleLabel.setFont(new Font("Arial", Font.BOLD, 16));
         
-        JLabel earningsLabel = new JLabel("Total Earnings: ₱" + String.format("%.2f", driver.totalEarnings));
+        JLabel earningsLabel = new JLabel("Total Earnings: ₱" + String.format("%.2f", totals.earnings));
         earningsLabel.setFont(new Font("Arial", Font.BOLD, 14));
         earningsLabel.setForeground(Color.BLUE);
         
-        JLabel ridesLabel = new JLabel("Total Rides Completed: " + driver.totalRides);
-        JLabel avgRatingLabel = new JLabel("Average Rating: " + String.format("%.1f", driver.averageRating) + " / 5");
+        JLabel ridesLabel = new JLabel("Total Rides Completed: " + totals.rideCount);
+        JLabel avgRatingLabel = new JLabel("Average Rating: " + String.format("%.1f", totals.averageRating()) + " / 5");
         
         // Add star rating visual
         JPanel starPanel = new JPanel();
-        int fullStars = (int) driver.averageRating;
+        int fullStars = (int) totals.averageRating();
         for (int i = 0; i < 5; i++) {
             JLabel star = new JLabel("★");
             star.setFont(new Font("Arial", Font.BOLD, 20));
@@ -1273,9 +1628,26 @@ public class RideAssistGUIwithDriver {
         summaryPanel.add(avgRatingLabel);
         summaryPanel.add(starPanel);
         
+        // Today, this week, this month, then one line per recent day
+        StringBuilder sb = new StringBuilder();
+        appendEarningsLine(sb, "Today", breakdown.today);
+        appendEarningsLine(sb, "This week", breakdown.thisWeek);
+        appendEarningsLine(sb, "This month", breakdown.thisMonth);
+        sb.append("\nLast ").append(breakdown.days.size()).append(" days:\n");
+        for (Map.Entry<LocalDate, EarningsBuckets.Totals> day : breakdown.days.entrySet()) {
+            appendEarningsLine(sb, String.format("%ta %<tb %<te", day.getKey()), day.getValue());
+        }
+        JTextArea breakdownArea = new JTextArea(sb.toString());
+        breakdownArea.setEditable(false);
+        breakdownArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        
+        JPanel centerPanel = new JPanel(new BorderLayout());
+        centerPanel.add(summaryPanel, BorderLayout.NORTH);
+        centerPanel.add(new JScrollPane(breakdownArea), BorderLayout.CENTER);
+        
         JButton closeBtn = new JButton("Close");
         
-        frame.add(summaryPanel, BorderLayout.CENTER);
+        frame.add(centerPanel, BorderLayout.CENTER);
         frame.add(closeBtn, BorderLayout.SOUTH);
         
         closeBtn.addActionListener(new ActionListener() {
@@ -1288,24 +1660,79 @@ public class RideAssistGUIwithDriver {
         frame.setVisible(true);
     }
 
+    private static void appendEarningsLine(StringBuilder sb, String label, EarningsBuckets.Totals totals) {
+        sb.append(String.format("%-12s ₱%9.2f  %3d ride%s%n", label, totals.earnings, totals.rides,
+            totals.rides == 1 ? "" : "s"));
+    }
+
     public static void viewDriverRequestsGUI() {
-        if (pendingRideRequests.isEmpty()) {
-            JOptionPane.showMessageDialog(null, "No pending ride requests.");
-            return;
-        }
+        DataAccess.submit(new DataAccess.Task<Driver>() {
+            @Override
+            public Driver run() throws Exception {
+                return dispatch.getDriver(currentDriverId);
+            }
+        }, new DataAccess.UiCallback<Driver>() {
+            @Override
+            void onSuccess(Driver driver) {
+                if (driver != null) {
+                    showDriverRequests(driver);
+                }
+            }
+            
+            @Override
+            void onFailure(Throwable error) {
+                JOptionPane.showMessageDialog(null, "Error loading requests: " + error.getMessage());
+            }
+        }, null);
+    }
 
+    // Pending requests, closest pickups first and unknown distances last. New requests appear and
+    // taken or declined ones disappear while the window is open.
+    private static void showDriverRequests(final Driver currentDriver) {
         JFrame frame = new JFrame("Pending Ride Requests");
         frame.setSize(600, 400);
         frame.setLayout(new BorderLayout());
 
-        DefaultListModel<String> listModel = new DefaultListModel<>();
-        for (int i = 0; i < pendingRideRequests.size(); i++) {
-            RideRequest req = pendingRideRequests.get(i);
-            listModel.addElement("Request #" + (i+1) + 
-                               ": " + req.from + " → " + req.to + 
-                               " (Passenger: " + req.passengerName + ")" +
-                               " - Fare: ₱" + req.fare);
-        }
+        final JLabel hintLabel = new JLabel("Loading requests...", SwingConstants.CENTER);
+        final LiveRideList shownRequests = new LiveRideList() {
+            @Override
+            boolean shows(RideRequest ride) {
+                return "PENDING".equals(ride.status);
+            }
+            
+            @Override
+            String describe(RideRequest req) {
+                double distance = pickupDistanceKm(currentDriver, req);
+                return req.from + " → " + req.to + 
+                       " (Passenger: " + req.passengerName + ")" +
+                       " - Fare: ₱" + req.fare +
+                       (Double.isNaN(distance) ? "" : String.format(" - %.1f km away", distance));
+            }
+            
+            @Override
+            int compare(RideRequest a, RideRequest b) {
+                double distanceA = pickupDistanceKm(currentDriver, a);
+                double distanceB = pickupDistanceKm(currentDriver, b);
+                if (Double.isNaN(distanceA) || Double.isNaN(distanceB)) {
+                    return Boolean.compare(Double.isNaN(distanceA), Double.isNaN(distanceB));
+                }
+                return Double.compare(distanceA, distanceB);
+            }
+            
+            @Override
+            void changed() {
+                hintLabel.setText(size() == 0 ? "No pending ride requests. New requests will appear here." :
+                    size() + " pending request(s)");
+            }
+        };
+        subscribeWhileOpen(frame, shownRequests);
+        loadRides(frame, shownRequests, new DataAccess.Task<List<RideRequest>>() {
+            @Override
+            public List<RideRequest> run() throws Exception {
+                return dispatch.pendingRides();
+            }
+        });
+        DefaultListModel<String> listModel = shownRequests.model;
 
         JList<String> requestList = new JList<>(listModel);
         requestList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
@@ -1325,30 +1752,44 @@ public class RideAssistGUIwithDriver {
             public void actionPerformed(ActionEvent e) {
                 int selectedIndex = requestList.getSelectedIndex();
                 if (selectedIndex != -1) {
-                    RideRequest selectedRequest = pendingRideRequests.get(selectedIndex);
-                    Driver driver = drivers.get(currentDriverLoggedIn);
+                    final RideRequest selectedRequest = shownRequests.get(selectedIndex);
                     
-                    // Update in database
-                    acceptRideRequestInDB(selectedRequest, driver);
-                    
-                    // Move request to active rides
-                    selectedRequest.status = "ACCEPTED";
-                    selectedRequest.driverAssigned = driver.name;
-                    selectedRequest.driverId = driver.id;
-                    pendingRideRequests.remove(selectedIndex);
-                    activeRides.add(selectedRequest);
-                    driver.isAvailable = false;
-                    
-                    JOptionPane.showMessageDialog(frame, 
-                        "Request accepted!\n\n" +
-                        "Passenger: " + selectedRequest.passengerName + "\n" +
-                        "From: " + selectedRequest.from + "\n" +
-                        "To: " + selectedRequest.to + "\n" +
-                        "Fare: ₱" + selectedRequest.fare + "\n\n" +
-                        "Please proceed to pickup location.");
-                    
-                    frame.dispose();
-                    driverMenuGUI();
+                    DataAccess.submit(new DataAccess.Task<DispatchCore.ClaimResult>() {
+                        @Override
+                        public DispatchCore.ClaimResult run() throws Exception {
+                            return dispatch.acceptRide(selectedRequest.id, currentDriver.id);
+                        }
+                    }, new DataAccess.UiCallback<DispatchCore.ClaimResult>() {
+                        @Override
+                        void onSuccess(DispatchCore.ClaimResult result) {
+                            if (result == DispatchCore.ClaimResult.ALREADY_TAKEN) {
+                                // Another driver got there first
+                                shownRequests.remove(selectedRequest.id);
+                                JOptionPane.showMessageDialog(frame, "Sorry, this ride was already taken by another driver.");
+                                return;
+                            }
+                            if (result == DispatchCore.ClaimResult.DRIVER_UNAVAILABLE) {
+                                JOptionPane.showMessageDialog(frame, "You are no longer marked as available. Go online to accept rides.");
+                                return;
+                            }
+                            
+                            JOptionPane.showMessageDialog(frame, 
+                                "Request accepted!\n\n" +
+                                "Passenger: " + selectedRequest.passengerName + "\n" +
+                                "From: " + selectedRequest.from + "\n" +
+                                "To: " + selectedRequest.to + "\n" +
+                                "Fare: ₱" + selectedRequest.fare + "\n\n" +
+                                "Please proceed to pickup location.");
+                            
+                            // The driver menu picks up the new status from the ride event
+                            frame.dispose();
+                        }
+                        
+                        @Override
+                        void onFailure(Throwable error) {
+                            JOptionPane.showMessageDialog(frame, "Error accepting request: " + error.getMessage());
+                        }
+                    }, frame, acceptBtn, declineBtn, backBtn);
                 } else {
                     JOptionPane.showMessageDialog(frame, "Please select a request first.");
                 }
@@ -1360,21 +1801,25 @@ public class RideAssistGUIwithDriver {
             public void actionPerformed(ActionEvent e) {
                 int selectedIndex = requestList.getSelectedIndex();
                 if (selectedIndex != -1) {
-                    pendingRideRequests.remove(selectedIndex);
-                    listModel.remove(selectedIndex);
-                    JOptionPane.showMessageDialog(frame, "Request declined.");
+                    final RideRequest removedRequest = shownRequests.get(selectedIndex);
                     
-                    // Remove from database
-                    try {
-                        RideRequest removedRequest = pendingRideRequests.get(selectedIndex);
-                        String sql = "DELETE FROM rides WHERE id = ?";
-                        PreparedStatement pstmt = connection.prepareStatement(sql);
-                        pstmt.setInt(1, removedRequest.id);
-                        pstmt.executeUpdate();
-                        pstmt.close();
-                    } catch (SQLException ex) {
-                        ex.printStackTrace();
-                    }
+                    DataAccess.submit(new DataAccess.Task<Boolean>() {
+                        @Override
+                        public Boolean run() throws Exception {
+                            return dispatch.declineRide(removedRequest.id);
+                        }
+                    }, new DataAccess.UiCallback<Boolean>() {
+                        @Override
+                        void onSuccess(Boolean declined) {
+                            shownRequests.remove(removedRequest.id);
+                            JOptionPane.showMessageDialog(frame, declined ? "Request declined." : "This ride is no longer pending.");
+                        }
+                        
+                        @Override
+                        void onFailure(Throwable error) {
+                            JOptionPane.showMessageDialog(frame, "Error declining request: " + error.getMessage());
+                        }
+                    }, frame, acceptBtn, declineBtn, backBtn);
                 } else {
                     JOptionPane.showMessageDialog(frame, "Please select a request first.");
                 }
@@ -1388,17 +1833,49 @@ public class RideAssistGUIwithDriver {
             }
         });
 
+        frame.add(hintLabel, BorderLayout.NORTH);
         frame.add(scrollPane, BorderLayout.CENTER);
         frame.add(buttonPanel, BorderLayout.SOUTH);
         frame.setVisible(true);
     }
 
+    // Keeps the listener subscribed to ride events until the window is closed
+    private static void subscribeWhileOpen(JFrame frame, final RideEvents.Listener listener) {
+        frame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+        RideEvents.subscribe(listener);
+        frame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                RideEvents.unsubscribe(listener);
+            }
+        });
+    }
+
+    // Fills a live list with its first snapshot; call after subscribing so later changes are not lost
+    private static void loadRides(final JFrame frame, final LiveRideList list, DataAccess.Task<List<RideRequest>> fetch) {
+        DataAccess.submit(fetch, new DataAccess.UiCallback<List<RideRequest>>() {
+            @Override
+            void onSuccess(List<RideRequest> rides) {
+                list.load(rides);
+            }
+            
+            @Override
+            void onFailure(Throwable error) {
+                JOptionPane.showMessageDialog(frame, "Error loading rides: " + error.getMessage());
+            }
+        }, frame);
+    }
+
     public static void adminMenuGUI() {
+        // Ready by the time the admin opens the search screen; does nothing after the first login
+        RideSearchIndex.start(pool);
+
         JFrame frame = new JFrame("Admin Menu");
-        frame.setSize(400, 350);
-        frame.setLayout(new GridLayout(6, 1));
+        frame.setSize(400, 400);
+        frame.setLayout(new GridLayout(7, 1));
 
         JButton viewBtn = new JButton("View Ride History");
+        JButton searchBtn = new JButton("Search Ride History");
         JButton deleteBtn = new JButton("Delete Ride History");
         JButton manageDriversBtn = new JButton("Manage Drivers");
         JButton viewRequestsBtn = new JButton("View All Requests");
@@ -1406,6 +1883,7 @@ public class RideAssistGUIwithDriver {
         JButton logoutBtn = new JButton("Logout");
 
         frame.add(viewBtn);
+        frame.add(searchBtn);
         frame.add(deleteBtn);
         frame.add(manageDriversBtn);
         frame.add(viewRequestsBtn);
@@ -1419,6 +1897,13 @@ public class RideAssistGUIwithDriver {
             }
         });
 
+        searchBtn.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                searchRideHistoryGUI();
+            }
+        });
+
         deleteBtn.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
@@ -1461,35 +1946,115 @@ public class RideAssistGUIwithDriver {
     }
     
     public static void viewDriverStatisticsGUI() {
+        DataAccess.submit(new DataAccess.Task<List<DriverSummary>>() {
+            @Override
+            public List<DriverSummary> run() throws Exception {
+                return loadDriverSummaries();
+            }
+        }, new DataAccess.UiCallback<List<DriverSummary>>() {
+            @Override
+            void onSuccess(List<DriverSummary> summaries) {
+                showDriverStatistics(summaries);
+            }
+            
+            @Override
+            void onFailure(Throwable error) {
+                JOptionPane.showMessageDialog(null, "Error loading drivers: " + error.getMessage());
+            }
+        }, null);
+    }
+    
+    // Every driver with its totals: the driver_stats rollup plus this week's and this month's earnings
+    // buckets, three queries on one connection rather than an aggregate over the rides table
+    static List<DriverSummary> loadDriverSummaries() throws Exception {
+        List<Driver> allDrivers = dispatch.drivers();
+        LocalDate today = LocalDate.now();
+        Map<Integer, DriverStatsRollup.Totals> totals;
+        Map<Integer, EarningsBuckets.Totals> weekTotals;
+        Map<Integer, EarningsBuckets.Totals> monthTotals;
+        try (Connection connection = pool.getConnection()) {
+            totals = DriverStatsRollup.load(connection);
+            weekTotals = EarningsBuckets.byDriverSince(connection,
+                today.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY)));
+            monthTotals = EarningsBuckets.byDriverSince(connection, today.withDayOfMonth(1));
+        }
+        List<DriverSummary> summaries = new ArrayList<>(allDrivers.size());
+        for (Driver driver : allDrivers) {
+            DriverStatsRollup.Totals driverTotals = totals.get(driver.id);
+            EarningsBuckets.Totals week = weekTotals.get(driver.id);
+            EarningsBuckets.Totals month = monthTotals.get(driver.id);
+            summaries.add(new DriverSummary(driver, driverTotals != null ? driverTotals : DriverStatsRollup.NONE,
+                week != null ? week : new EarningsBuckets.Totals(), month != null ? month : new EarningsBuckets.Totals()));
+        }
+        return summaries;
+    }
+    
+    private static void showDriverStatistics(List<DriverSummary> summaries) {
+        JOptionPane.showMessageDialog(null, driverStatisticsReport(summaries), "Driver Statistics", JOptionPane.INFORMATION_MESSAGE);
+    }
+
+    static String driverStatisticsReport(List<DriverSummary> summaries) {
         StringBuilder sb = new StringBuilder();
         sb.append("=== DRIVER STATISTICS ===\n\n");
         
-        for (Driver driver : drivers.values()) {
+        for (DriverSummary summary : summaries) {
+            Driver driver = summary.driver;
+            DriverStatsRollup.Totals totals = summary.totals;
             sb.append("Driver: ").append(driver.name).append("\n");
             sb.append("Vehicle: ").append(driver.vehicle).append("\n");
-            sb.append("Total Rides: ").append(driver.totalRides).append("\n");
-            sb.append("Total Earnings: ₱").append(String.format("%.2f", driver.totalEarnings)).append("\n");
-            sb.append("Average Rating: ").append(String.format("%.1f", driver.averageRating)).append("/5\n");
+            sb.append("Total Rides: ").append(totals.rideCount).append("\n");
+            sb.append("Total Earnings: ₱").append(String.format("%.2f", totals.earnings)).append("\n");
+            sb.append("This Week: ₱").append(String.format("%.2f", summary.thisWeek.earnings))
+                .append(" (").append(summary.thisWeek.rides).append(" rides)\n");
+            sb.append("This Month: ₱").append(String.format("%.2f", summary.thisMonth.earnings))
+                .append(" (").append(summary.thisMonth.rides).append(" rides)\n");
+            sb.append("Average Rating: ").append(String.format("%.1f", totals.averageRating()))
+                .append("/5 (").append(totals.ratingCount).append(" ratings)\n");
+            sb.append("Last Ride: ").append(totals.lastRideAt != null ? String.format("%tF %<tR", totals.lastRideAt) : "None").append("\n");
             sb.append("Status: ").append(driver.isAvailable ? "Available" : "Busy").append("\n");
             sb.append("-------------------\n");
         }
-        
-        JOptionPane.showMessageDialog(null, sb.toString(), "Driver Statistics", JOptionPane.INFORMATION_MESSAGE);
+        return sb.toString();
     }
 
     public static void manageDriversGUI() {
+        DataAccess.submit(new DataAccess.Task<List<DriverSummary>>() {
+            @Override
+            public List<DriverSummary> run() throws Exception {
+                return loadDriverSummaries();
+            }
+        }, new DataAccess.UiCallback<List<DriverSummary>>() {
+            @Override
+            void onSuccess(List<DriverSummary> summaries) {
+                List<Driver> allDrivers = new ArrayList<>(summaries.size());
+                for (DriverSummary summary : summaries) {
+                    allDrivers.add(summary.driver);
+                }
+                showManageDrivers(allDrivers, summaries);
+            }
+            
+            @Override
+            void onFailure(Throwable error) {
+                JOptionPane.showMessageDialog(null, "Error loading drivers: " + error.getMessage());
+            }
+        }, null);
+    }
+
+    // shownDrivers is the list's backing copy, kept in step with listModel
+    private static void showManageDrivers(final List<Driver> shownDrivers, List<DriverSummary> summaries) {
         JFrame frame = new JFrame("Manage Drivers");
         frame.setSize(600, 400);
         frame.setLayout(new BorderLayout());
 
         DefaultListModel<String> listModel = new DefaultListModel<>();
-        for (Driver driver : drivers.values()) {
+        for (DriverSummary summary : summaries) {
+            Driver driver = summary.driver;
             listModel.addElement(driver.name + 
                                " - " + driver.vehicle + 
                                " - " + driver.priceRange + 
                                " (" + (driver.isAvailable ? "Available" : "Busy") + ")" +
-                               " - Earnings: ₱" + String.format("%.2f", driver.totalEarnings) +
-                               " - Rating: " + String.format("%.1f", driver.averageRating) + "/5");
+                               " - Earnings: ₱" + String.format("%.2f", summary.totals.earnings) +
+                               " - Rating: " + String.format("%.1f", summary.totals.averageRating()) + "/5");
         }
 
         JList<String> driverList = new JList<>(listModel);
@@ -1539,28 +2104,26 @@ public class RideAssistGUIwithDriver {
                     String password = new String(passField.getPassword());
                     
                     if (!name.isEmpty() && !username.isEmpty()) {
-                        try {
-                            String sql = "INSERT INTO drivers (name, vehicle, price_range, username, password) VALUES (?, ?, ?, ?, ?)";
-                            PreparedStatement pstmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
-                            pstmt.setString(1, name);
-                            pstmt.setString(2, vehicle);
-                            pstmt.setString(3, price);
-                            pstmt.setString(4, username);
-                            pstmt.setString(5, password);
-                            pstmt.executeUpdate();
+                        DataAccess.submit(new DataAccess.Task<Driver>() {
+                            @Override
+                            public Driver run() throws Exception {
+                                return dispatch.addDriver(name, vehicle, price, username, password);
+                            }
+                        }, new DataAccess.UiCallback<Driver>() {
+                            @Override
+                            void onSuccess(Driver newDriver) {
+                                if (newDriver != null) {
+                                    shownDrivers.add(newDriver);
+                                    listModel.addElement(name + " - " + vehicle + " - " + price + " (Available)");
+                                    JOptionPane.showMessageDialog(frame, "Driver added successfully!");
+                                }
+                            }
                             
-                            ResultSet generatedKeys = pstmt.getGeneratedKeys();
-                            if (generatedKeys.next()) {
-                                int id = generatedKeys.getInt(1);
-                                Driver newDriver = new Driver(id, name, vehicle, price, username, password);
-                                drivers.put(username, newDriver);
-                                listModel.addElement(name + " - " + vehicle + " - " + price + " (Available)");
-                                JOptionPane.showMessageDialog(frame, "Driver added successfully!");
+                            @Override
+                            void onFailure(Throwable error) {
+                                JOptionPane.showMessageDialog(frame, "Error adding driver: " + error.getMessage());
                             }
-                            pstmt.close();
-                        } catch (SQLException ex) {
-                            JOptionPane.showMessageDialog(frame, "Error adding driver: " + ex.getMessage());
-                        }
+                        }, frame, addBtn, removeBtn, backBtn);
                     }
                 }
             }
@@ -1571,36 +2134,28 @@ public class RideAssistGUIwithDriver {
             public void actionPerformed(ActionEvent e) {
                 int selectedIndex = driverList.getSelectedIndex();
                 if (selectedIndex != -1) {
-                    String selectedDriver = driverList.getSelectedValue();
-                    String driverName = selectedDriver.split(" - ")[0];
-                    
-                    // Find and remove driver
-                    String driverKeyToRemove = null;
-                    Driver driverToRemove = null;
-                    for (Map.Entry<String, Driver> entry : drivers.entrySet()) {
-                        if (entry.getValue().name.equals(driverName)) {
-                            driverKeyToRemove = entry.getKey();
-                            driverToRemove = entry.getValue();
-                            break;
+                    final Driver removedDriver = shownDrivers.get(selectedIndex);
+                    DataAccess.submit(new DataAccess.Task<Boolean>() {
+                        @Override
+                        public Boolean run() throws Exception {
+                            return dispatch.removeDriver(removedDriver.id);
                         }
-                    }
-                    
-                    if (driverKeyToRemove != null && driverToRemove != null) {
-                        try {
-                            // Delete from database
-                            String sql = "DELETE FROM drivers WHERE id = ?";
-                            PreparedStatement pstmt = connection.prepareStatement(sql);
-                            pstmt.setInt(1, driverToRemove.id);
-                            pstmt.executeUpdate();
-                            pstmt.close();
-                            
-                            drivers.remove(driverKeyToRemove);
-                            listModel.remove(selectedIndex);
+                    }, new DataAccess.UiCallback<Boolean>() {
+                        @Override
+                        void onSuccess(Boolean removed) {
+                            int index = shownDrivers.indexOf(removedDriver);
+                            if (index != -1) {
+                                shownDrivers.remove(index);
+                                listModel.remove(index);
+                            }
                             JOptionPane.showMessageDialog(frame, "Driver removed successfully!");
-                        } catch (SQLException ex) {
-                            JOptionPane.showMessageDialog(frame, "Error removing driver: " + ex.getMessage());
                         }
-                    }
+                        
+                        @Override
+                        void onFailure(Throwable error) {
+                            JOptionPane.showMessageDialog(frame, "Error removing driver: " + error.getMessage());
+                        }
+                    }, frame, addBtn, removeBtn, backBtn);
                 } else {
                     JOptionPane.showMessageDialog(frame, "Please select a driver to remove.");
                 }
@@ -1620,90 +2175,347 @@ public class RideAssistGUIwithDriver {
     }
 
     public static void viewAllRequestsGUI() {
-        StringBuilder sb = new StringBuilder();
-        
-        sb.append("=== PENDING REQUESTS ===\n");
-        if (pendingRideRequests.isEmpty()) {
-            sb.append("No pending requests.\n");
-        } else {
-            for (int i = 0; i < pendingRideRequests.size(); i++) {
-                RideRequest req = pendingRideRequests.get(i);
-                sb.append(i+1).append(". ").append(req.toString()).append("\n");
+        DataAccess.submit(new DataAccess.Task<List<RideRequest>>() {
+            @Override
+            public List<RideRequest> run() throws Exception {
+                return openRides();
             }
-        }
-        
-        sb.append("\n=== ACTIVE RIDES ===\n");
-        if (activeRides.isEmpty()) {
-            sb.append("No active rides.\n");
-        } else {
-            for (int i = 0; i < activeRides.size(); i++) {
-                RideRequest req = activeRides.get(i);
-                sb.append(i+1).append(". ").append(req.toString()).append("\n");
+        }, new DataAccess.UiCallback<List<RideRequest>>() {
+            @Override
+            void onSuccess(List<RideRequest> rides) {
+                showAllRequests(rides);
             }
-        }
-        
-        sb.append("\n=== RIDES PENDING RATING ===\n");
-        if (ridesPendingRating.isEmpty()) {
-            sb.append("No rides pending rating.\n");
-        } else {
-            int i = 1;
-            for (RideRequest req : ridesPendingRating.values()) {
-                sb.append(i++).append(". ").append(req.toString()).append("\n");
+            
+            @Override
+            void onFailure(Throwable error) {
+                JOptionPane.showMessageDialog(null, "Error loading requests: " + error.getMessage());
             }
+        }, null);
+    }
+
+    // Pending requests, then active rides, then rides waiting for their rating
+    static List<RideRequest> openRides() throws Exception {
+        List<RideRequest> rides = new ArrayList<>(dispatch.pendingRides());
+        rides.addAll(dispatch.activeRides());
+        rides.addAll(dispatch.ridesAwaitingRating());
+        return rides;
+    }
+
+    // One row per open ride; the fare column holds numbers so it sorts by amount
+    static DefaultTableModel allRequestsTableModel(List<RideRequest> rides) {
+        DefaultTableModel model = new DefaultTableModel(
+                new Object[] { "Status", "Passenger", "From", "To", "Driver", "Fare" }, 0) {
+            @Override
+            public Class<?> getColumnClass(int column) {
+                return column == 5 ? Integer.class : String.class;
+            }
+            
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        for (RideRequest ride : rides) {
+            String status = "COMPLETED".equals(ride.status) ? "Awaiting rating" :
+                "ACCEPTED".equals(ride.status) ? "Active" : "Pending";
+            model.addRow(new Object[] { status, ride.passengerName, ride.from, ride.to,
+                ride.driverAssigned == null ? "" : ride.driverAssigned, ride.fare });
         }
-        
-        JOptionPane.showMessageDialog(null, sb.toString(), "All Ride Requests", JOptionPane.INFORMATION_MESSAGE);
+        return model;
+    }
+
+    private static void showAllRequests(List<RideRequest> rides) {
+        JFrame frame = new JFrame("All Ride Requests");
+        frame.setSize(700, 400);
+        frame.setLayout(new BorderLayout());
+
+        JTable table = new JTable(allRequestsTableModel(rides));
+        table.setAutoCreateRowSorter(true);
+        table.getTableHeader().setReorderingAllowed(false);
+
+        JLabel summaryLabel = new JLabel(rides.isEmpty() ? "No open ride requests." :
+            rides.size() + " open ride(s). Click a column header to sort.", SwingConstants.CENTER);
+        JButton closeBtn = new JButton("Close");
+        closeBtn.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                frame.dispose();
+            }
+        });
+
+        frame.add(summaryLabel, BorderLayout.NORTH);
+        frame.add(new JScrollPane(table), BorderLayout.CENTER);
+        frame.add(closeBtn, BorderLayout.SOUTH);
+        frame.setVisible(true);
     }
 
     public static void viewRideHistoryGUI() {
-        StringBuilder sb = new StringBuilder();
-        if (rideHistory.isEmpty()) {
-            sb.append("No rides yet.");
-        } else {
-            for (int i = 0; i < rideHistory.size(); i++) {
-                sb.append((i + 1) + ". " + rideHistory.get(i) + "\n");
+        refreshSharedHistory();
+        JFrame frame = new JFrame("Ride History");
+        frame.setSize(800, 500);
+        frame.setLayout(new BorderLayout());
+
+        RideHistoryTableModel model = historyWhileOpen(frame);
+        JButton closeBtn = new JButton("Close");
+        closeBtn.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                frame.dispose();
             }
-        }
-        JOptionPane.showMessageDialog(null, sb.toString(), "Ride History", JOptionPane.INFORMATION_MESSAGE);
+        });
+
+        frame.add(new JScrollPane(model.createTable()), BorderLayout.CENTER);
+        frame.add(closeBtn, BorderLayout.SOUTH);
+        frame.setVisible(true);
     }
 
-    public static void deleteRideHistoryGUI() {
-        if (rideHistory.isEmpty()) {
-            JOptionPane.showMessageDialog(null, "No rides to delete.");
-            return;
+    // With a shared dispatch service, rides are rated by other processes that cannot invalidate this
+    // desktop's cached pages, so each history view starts from fresh pages
+    private static void refreshSharedHistory() {
+        if (dispatch instanceof RemoteDispatch) {
+            rideHistory.invalidate();
         }
+    }
 
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < rideHistory.size(); i++) {
-            sb.append((i + 1) + ". " + rideHistory.get(i) + "\n");
+    // A table model over the whole history that stops following it when the window is closed
+    private static RideHistoryTableModel historyWhileOpen(JFrame frame) {
+        final RideHistoryTableModel model = new RideHistoryTableModel(rideHistory);
+        frame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+        frame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                model.dispose();
+            }
+        });
+        return model;
+    }
+
+    // Finds rides by location words, driver, passenger and date with RideSearchIndex, and pages the
+    // matching rides into a history table
+    public static void searchRideHistoryGUI() {
+        JFrame frame = new JFrame("Search Ride History");
+        frame.setSize(800, 500);
+        frame.setLayout(new BorderLayout());
+        frame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+
+        JPanel searchPanel = new JPanel(new GridLayout(3, 4));
+        JTextField locationField = new JTextField();
+        final List<Driver> shownDrivers = drivers.snapshot();
+        JComboBox<String> driverBox = new JComboBox<>();
+        driverBox.addItem("Any driver");
+        for (Driver driver : shownDrivers) {
+            driverBox.addItem(driver.name + " (" + driver.username + ")");
         }
+        JTextField passengerField = new JTextField();
+        JTextField fromDateField = new JTextField();
+        JTextField toDateField = new JTextField();
+        JButton searchBtn = new JButton("Search");
+
+        searchPanel.add(new JLabel("Location:"));
+        searchPanel.add(locationField);
+        searchPanel.add(new JLabel("Driver:"));
+        searchPanel.add(driverBox);
+        searchPanel.add(new JLabel("Passenger ID:"));
+        searchPanel.add(passengerField);
+        searchPanel.add(new JLabel("From (yyyy-mm-dd):"));
+        searchPanel.add(fromDateField);
+        searchPanel.add(new JLabel("To (yyyy-mm-dd):"));
+        searchPanel.add(toDateField);
+        searchPanel.add(new JLabel(""));
+        searchPanel.add(searchBtn);
+
+        final JLabel resultLabel = new JLabel("Enter any of the conditions above.", SwingConstants.CENTER);
+        final JScrollPane scrollPane = new JScrollPane();
+        // The model showing the latest results, replaced by each search
+        final RideHistoryTableModel[] shown = new RideHistoryTableModel[1];
+        frame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                if (shown[0] != null) {
+                    shown[0].dispose();
+                }
+            }
+        });
 
-        String input = JOptionPane.showInputDialog("Select the ride number to delete:\n" + sb.toString());
-        try {
-            int rideNumber = Integer.parseInt(input);
-            if (rideNumber >= 1 && rideNumber <= rideHistory.size()) {
-                rideHistory.remove(rideNumber - 1);
-                JOptionPane.showMessageDialog(null, "Ride history deleted.");
-            } else {
-                JOptionPane.showMessageDialog(null, "Invalid ride number.");
+        searchBtn.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                final RideSearchIndex.Query query = new RideSearchIndex.Query();
+                query.text = locationField.getText();
+                if (driverBox.getSelectedIndex() > 0) {
+                    query.driverId = shownDrivers.get(driverBox.getSelectedIndex() - 1).id;
+                }
+                try {
+                    if (!passengerField.getText().trim().isEmpty()) {
+                        query.passengerId = Integer.parseInt(passengerField.getText().trim());
+                    }
+                } catch (NumberFormatException ex) {
+                    JOptionPane.showMessageDialog(frame, "Passenger ID must be a number.");
+                    return;
+                }
+                try {
+                    if (!fromDateField.getText().trim().isEmpty()) {
+                        query.from = LocalDate.parse(fromDateField.getText().trim());
+                    }
+                    if (!toDateField.getText().trim().isEmpty()) {
+                        query.to = LocalDate.parse(toDateField.getText().trim());
+                    }
+                } catch (DateTimeParseException ex) {
+                    JOptionPane.showMessageDialog(frame, "Dates must look like 2024-03-15.");
+                    return;
+                }
+
+                final long start = System.nanoTime();
+                DataAccess.submit(new DataAccess.Task<int[]>() {
+                    @Override
+                    public int[] run() {
+                        return RideSearchIndex.search(query);
+                    }
+                }, new DataAccess.UiCallback<int[]>() {
+                    @Override
+                    void onSuccess(int[] rideIds) {
+                        if (shown[0] != null) {
+                            shown[0].dispose();
+                        }
+                        shown[0] = new RideHistoryTableModel(
+                            new RideSearchIndex.Results(rideIds, rideHistory.getPageSize()), rideHistory);
+                        scrollPane.setViewportView(shown[0].createTable());
+                        resultLabel.setText(String.format("%d ride(s) found in %.1f ms%s", rideIds.length,
+                            (System.nanoTime() - start) / 1_000_000.0,
+                            RideSearchIndex.isReady() ? "" : " (still indexing older rides)"));
+                    }
+                    
+                    @Override
+                    void onFailure(Throwable error) {
+                        JOptionPane.showMessageDialog(frame, "Error searching rides: " + error.getMessage());
+                    }
+                }, frame, searchBtn);
             }
-        } catch (Exception e) {
-            JOptionPane.showMessageDialog(null, "Invalid input.");
-        }
+        });
+
+        JPanel topPanel = new JPanel(new BorderLayout());
+        topPanel.add(searchPanel, BorderLayout.CENTER);
+        topPanel.add(resultLabel, BorderLayout.SOUTH);
+        frame.add(topPanel, BorderLayout.NORTH);
+        frame.add(scrollPane, BorderLayout.CENTER);
+        frame.setVisible(true);
     }
 
-    // Close database connection when application exits
+    public static void deleteRideHistoryGUI() {
+        refreshSharedHistory();
+        JFrame frame = new JFrame("Delete Ride History");
+        frame.setSize(800, 500);
+        frame.setLayout(new BorderLayout());
+
+        RideHistoryTableModel model = historyWhileOpen(frame);
+        JTable table = model.createTable();
+
+        JPanel buttonPanel = new JPanel(new GridLayout(1, 2));
+        JButton deleteBtn = new JButton("Delete Selected");
+        JButton closeBtn = new JButton("Close");
+        buttonPanel.add(deleteBtn);
+        buttonPanel.add(closeBtn);
+
+        deleteBtn.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                int row = table.getSelectedRow();
+                if (row == -1) {
+                    JOptionPane.showMessageDialog(frame, "Please select a ride to delete.");
+                    return;
+                }
+                RideHistory.Entry entry = model.entryAt(table.convertRowIndexToModel(row));
+                if (entry == null) {
+                    JOptionPane.showMessageDialog(frame, "That ride is still loading, please try again.");
+                    return;
+                }
+                // The table refreshes itself when the history is invalidated
+                deleteHistoryEntry(entry);
+            }
+        });
+        closeBtn.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                frame.dispose();
+            }
+        });
+
+        frame.add(new JLabel("Select a ride and press Delete Selected.", SwingConstants.CENTER), BorderLayout.NORTH);
+        frame.add(new JScrollPane(table), BorderLayout.CENTER);
+        frame.add(buttonPanel, BorderLayout.SOUTH);
+        frame.setVisible(true);
+    }
+
+    private static void deleteHistoryEntry(RideHistory.Entry entry) {
+        DataAccess.submit(new DataAccess.SqlTask<Integer>() {
+            @Override
+            public Integer run(Connection connection) throws SQLException {
+                PreparedStatement pstmt = connection.prepareStatement(RideSql.DELETE_FINISHED_RIDE);
+                pstmt.setInt(1, entry.rideId);
+                int deleted = pstmt.executeUpdate();
+                pstmt.close();
+                if (deleted > 0) {
+                    return deleted;
+                }
+                // Not in the database: -1 when it has been archived, 0 when it was deleted from another screen
+                try {
+                    return RideArchiver.find(entry.rideId) != null ? -1 : 0;
+                } catch (IOException e) {
+                    throw new SQLException("Cannot read the ride archive: " + e.getMessage(), e);
+                }
+            }
+        }, new DataAccess.UiCallback<Integer>() {
+            @Override
+            void onSuccess(Integer deleted) {
+                if (deleted < 0) {
+                    // Archive segments are never rewritten
+                    JOptionPane.showMessageDialog(null, "This ride has been archived and can no longer be deleted.");
+                    return;
+                }
+                RideSearchIndex.remove(entry.rideId);
+                rideHistory.invalidate();
+                JOptionPane.showMessageDialog(null, deleted > 0 ? "Ride history deleted." : "This ride has already been deleted.");
+            }
+            
+            @Override
+            void onFailure(Throwable error) {
+                JOptionPane.showMessageDialog(null, "Error deleting ride: " + error.getMessage());
+            }
+        }, null);
+    }
+
+    // Close database connections when application exits. Everything that can change a driver stops first,
+    // then the stats writer flushes, and the pool closes last.
     static {
         Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
             @Override
             public void run() {
-                try {
-                    if (connection != null && !connection.isClosed()) {
-                        connection.close();
-                        System.out.println("Database connection closed.");
+                DispatchService.stopRunning();
+                DeltaSync.shutdown();
+                System.out.println("Delta sync: " + DeltaSync.getStats());
+                DataAccess.shutdown();
+                EarningsBuckets.shutdown();
+                System.out.println("Earnings buckets: " + EarningsBuckets.getStats());
+                RideArchiver.shutdown();
+                System.out.println("Ride archive: " + RideArchiver.getStats());
+                RideSearchIndex.shutdown();
+                System.out.println("Search index: " + RideSearchIndex.getStats());
+                DriverStatsWriter.shutdown();
+                System.out.println("Driver stats writer: " + DriverStatsWriter.getStats());
+                System.out.println("EDT responsiveness: " + EdtMonitor.getStats());
+                System.out.println("Fare engine: " + fareEngine.getStats());
+                if (pool != null) {
+                    System.out.println("Connection pool: " + pool.getStats());
+                    System.out.println("Statement cache: " + pool.getStatementCache().getStats());
+                    System.out.println("Metrics:\n" + Metrics.report());
+                    SqlTrace trace = pool.getSqlTrace();
+                    if (trace != null) {
+                        System.out.println("SQL trace: " + trace.getStats());
+                        System.out.println("Top statements by total time:\n" + trace.report(SqlTrace.REPORT_TOP));
+                        trace.close();
                     }
-                } catch (SQLException e) {
-                    e.printStackTrace();
+                    pool.close();
+                    System.out.println("Database connection closed.");
                 }
             }
         }));
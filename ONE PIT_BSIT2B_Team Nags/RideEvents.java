@@ -0,0 +1,106 @@
+import javax.swing.SwingUtilities;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// In-process bus for ride lifecycle changes. The dispatch core publishes each transition once it is in
+// the database, and open screens subscribe so they can update the rows that changed instead of being
+// reopened or rebuilt. Listeners are called on the Swing event thread. The last RETAINED_EVENTS events
+// are kept with sequence numbers so DispatchService can hand them to remote desktops by long polling.
+class RideEvents {
+
+    static final int RETAINED_EVENTS = 1024;
+
+    enum Type { CREATED, ACCEPTED, DECLINED, COMPLETED, RATED }
+
+    // One transition; the ride is a copy taken when the event was published
+    static class Event {
+        final long sequence;
+        final Type type;
+        final RideAssistGUIwithDriver.RideRequest ride;
+
+        Event(long sequence, Type type, RideAssistGUIwithDriver.RideRequest ride) {
+            this.sequence = sequence;
+            this.type = type;
+            this.ride = ride;
+        }
+    }
+
+    interface Listener {
+        void rideChanged(Event event);
+    }
+
+    private static final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private static final ArrayDeque<Event> recent = new ArrayDeque<>();
+    private static long lastSequence = 0;
+
+    static void subscribe(Listener listener) {
+        listeners.add(listener);
+    }
+
+    static void unsubscribe(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    // Records the transition and notifies subscribers; safe to call from any thread
+    static void publish(Type type, RideAssistGUIwithDriver.RideRequest ride) {
+        Event event;
+        synchronized (RideEvents.class) {
+            event = new Event(++lastSequence, type, copy(ride));
+            recent.addLast(event);
+            if (recent.size() > RETAINED_EVENTS) {
+                recent.removeFirst();
+            }
+            RideEvents.class.notifyAll();
+        }
+        deliver(event);
+    }
+
+    // Hands an event that happened in another process (see RemoteDispatch) to this process's subscribers
+    static void deliver(final Event event) {
+        // A headless service has no subscribers and should not start the event thread
+        if (listeners.isEmpty()) {
+            return;
+        }
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                for (Listener listener : listeners) {
+                    listener.rideChanged(event);
+                }
+            }
+        });
+    }
+
+    static synchronized long lastSequence() {
+        return lastSequence;
+    }
+
+    // Events after the given sequence number, waiting up to waitMillis for one to arrive. A caller that
+    // has fallen more than RETAINED_EVENTS behind only gets the retained ones.
+    static synchronized List<Event> eventsAfter(long sequence, long waitMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + waitMillis;
+        long remaining = waitMillis;
+        while (lastSequence <= sequence && remaining > 0) {
+            RideEvents.class.wait(remaining);
+            remaining = deadline - System.currentTimeMillis();
+        }
+        List<Event> events = new ArrayList<>();
+        for (Event event : recent) {
+            if (event.sequence > sequence) {
+                events.add(event);
+            }
+        }
+        return events;
+    }
+
+    private static RideAssistGUIwithDriver.RideRequest copy(RideAssistGUIwithDriver.RideRequest ride) {
+        RideAssistGUIwithDriver.RideRequest copy = new RideAssistGUIwithDriver.RideRequest(ride.id, ride.passengerName,
+            ride.passengerNumber, ride.from, ride.to, ride.status, ride.driverAssigned, ride.fare, ride.rating,
+            ride.passengerId, ride.driverId);
+        copy.pickupLat = ride.pickupLat;
+        copy.pickupLon = ride.pickupLon;
+        return copy;
+    }
+}
@@ -0,0 +1,272 @@
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Finished rides read from the database one page at a time, newest first, or in another order through a
+// view from sortedBy. The page after one already read is found with keyset pagination on (sort column,
+// id). Newest first, that is one range read of the (finished, created_at, id) index that stops after a
+// page; the other orders still sort every finished ride. A page jumped to directly, e.g. by dragging a
+// table's scroll bar, is read with an offset. Read newest first, the rides RideArchiver has moved to cold storage follow
+// the ones still in the database; the other orders cover the database only. The last few newest-first
+// pages are cached; anything that changes the history should call invalidate().
+class RideHistory implements RideHistoryTableModel.Source {
+
+    static final int DEFAULT_PAGE_SIZE = 20;
+    static final int DEFAULT_CACHED_PAGES = 8;
+
+    private static final Metrics.Timer PAGE_TIMER = Metrics.timer("db.history.page");
+
+    // Orders the history can be read in, in RideSql.HISTORY_SORT_KEYS order
+    enum SortKey { DATE, FROM, TO, DRIVER, FARE, RATING }
+
+    // One finished ride as shown in the history views
+    static class Entry {
+        final int rideId;
+        final Timestamp createdAt;
+        final String from;
+        final String to;
+        final String driverName;
+        final int fare;
+        final int rating;
+
+        Entry(int rideId, Timestamp createdAt, String from, String to, String driverName, int fare, int rating) {
+            this.rideId = rideId;
+            this.createdAt = createdAt;
+            this.from = from;
+            this.to = to;
+            this.driverName = driverName;
+            this.fare = fare;
+            this.rating = rating;
+        }
+
+        // The value the page query sorts on, for the next page's keyset
+        Object sortValue(SortKey key) {
+            switch (key) {
+                case FROM:
+                    return from;
+                case TO:
+                    return to;
+                case DRIVER:
+                    return driverName == null ? "" : driverName;
+                case FARE:
+                    return fare;
+                case RATING:
+                    return rating;
+                default:
+                    return createdAt;
+            }
+        }
+
+        @Override
+        public String toString() {
+            String result = "From: " + from + " To: " + to + " - Status: COMPLETED" +
+                " (Driver: " + driverName + ")" + " - Fare: ₱" + fare;
+            if (rating > 0) {
+                result += " - Rating: " + rating + "/5";
+            }
+            return result;
+        }
+    }
+
+    static class Page {
+        final int number;
+        final List<Entry> entries;
+        final boolean hasNext;
+
+        Page(int number, List<Entry> entries, boolean hasNext) {
+            this.number = number;
+            this.entries = entries;
+            this.hasNext = hasNext;
+        }
+    }
+
+    // The history in one order other than newest first. Each view keeps its own keyset positions and no
+    // pages, so any number can be open at once; take a new one after the history is invalidated.
+    class SortedView implements RideHistoryTableModel.Source {
+        final SortKey sortKey;
+        final boolean descending;
+        private final Map<Integer, Entry> pageEnds = new HashMap<>();
+
+        SortedView(SortKey sortKey, boolean descending) {
+            this.sortKey = sortKey;
+            this.descending = descending;
+        }
+
+        @Override
+        public int getPageSize() {
+            return pageSize;
+        }
+
+        @Override
+        public int count(Connection connection) throws SQLException {
+            return hotCount(connection);
+        }
+
+        @Override
+        public synchronized Page getPage(Connection connection, int pageNumber) throws SQLException {
+            return readPage(connection, pageNumber, sortKey, descending, pageEnds);
+        }
+    }
+
+    private final int pageSize;
+    // Last entry of every newest-first page read since the last invalidate; the next page starts right after it
+    private final Map<Integer, Entry> pageEnds = new HashMap<>();
+    private final Map<Integer, Page> cache;
+    // Finished rides still in the database, -1 until counted
+    private int hotCount = -1;
+    // Told after every invalidate, on the thread that called it
+    private final List<Runnable> invalidationListeners = new CopyOnWriteArrayList<>();
+
+    public RideHistory(int pageSize, final int cachedPages) {
+        this.pageSize = pageSize;
+        this.cache = new LinkedHashMap<Integer, Page>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Page> eldest) {
+                return size() > cachedPages;
+            }
+        };
+    }
+
+    @Override
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    // The history in the given order; newest first is this history itself, with its cache
+    RideHistoryTableModel.Source sortedBy(SortKey key, boolean descending) {
+        if (key == SortKey.DATE && descending) {
+            return this;
+        }
+        return new SortedView(key, descending);
+    }
+
+    // Returns page pageNumber (0 = newest). Pages past the end come back empty.
+    @Override
+    public synchronized Page getPage(Connection connection, int pageNumber) throws SQLException {
+        Page page = cache.get(pageNumber);
+        if (page == null) {
+            page = readPage(connection, pageNumber, SortKey.DATE, true, pageEnds);
+            cache.put(pageNumber, page);
+        }
+        return page;
+    }
+
+    // Number of finished rides, archived ones included, counted once until the next invalidate
+    @Override
+    public int count(Connection connection) throws SQLException {
+        return hotCount(connection) + RideArchiver.count();
+    }
+
+    private synchronized int hotCount(Connection connection) throws SQLException {
+        if (hotCount == -1) {
+            PreparedStatement pstmt = connection.prepareStatement(RideSql.HISTORY_COUNT);
+            ResultSet rs = pstmt.executeQuery();
+            rs.next();
+            hotCount = rs.getInt(1);
+            rs.close();
+            pstmt.close();
+        }
+        return hotCount;
+    }
+
+    private Page readPage(Connection connection, int pageNumber, SortKey sortKey, boolean descending,
+                          Map<Integer, Entry> pageEnds) throws SQLException {
+        long start = System.nanoTime();
+        boolean succeeded = false;
+        try {
+            Page page = queryPage(connection, pageNumber, sortKey, descending, pageEnds);
+            succeeded = true;
+            return page;
+        } finally {
+            PAGE_TIMER.stop(start, succeeded);
+        }
+    }
+
+    // Archived rides are all older than the ones in the database, so they only line up newest first
+    private Page queryPage(Connection connection, int pageNumber, SortKey sortKey, boolean descending,
+                           Map<Integer, Entry> pageEnds) throws SQLException {
+        boolean withArchive = sortKey == SortKey.DATE && descending && RideArchiver.count() > 0;
+        int hotRows = withArchive ? hotCount(connection) : Integer.MAX_VALUE;
+        // One extra row tells us whether another page follows
+        List<Entry> entries = new ArrayList<>();
+        if (pageNumber * pageSize < hotRows) {
+            entries = queryHotPage(connection, pageNumber, sortKey, descending, pageEnds.get(pageNumber - 1));
+        }
+        if (withArchive && entries.size() <= pageSize) {
+            try {
+                entries.addAll(RideArchiver.read(Math.max(0, pageNumber * pageSize - hotRows),
+                    pageSize + 1 - entries.size()));
+            } catch (IOException e) {
+                throw new SQLException("Cannot read the ride archive: " + e.getMessage(), e);
+            }
+        }
+
+        boolean hasNext = entries.size() > pageSize;
+        if (hasNext) {
+            entries.remove(pageSize);
+        }
+        if (!entries.isEmpty()) {
+            pageEnds.put(pageNumber, entries.get(entries.size() - 1));
+        }
+        return new Page(pageNumber, entries, hasNext);
+    }
+
+    // Up to pageSize + 1 rides from the database, after the given entry when the page before was read
+    private List<Entry> queryHotPage(Connection connection, int pageNumber, SortKey sortKey, boolean descending,
+                                     Entry after) throws SQLException {
+        PreparedStatement pstmt;
+        if (pageNumber == 0) {
+            pstmt = connection.prepareStatement(RideSql.historyFirstPage(sortKey.ordinal(), descending));
+            pstmt.setInt(1, pageSize + 1);
+        } else if (after != null) {
+            pstmt = connection.prepareStatement(RideSql.historyNextPage(sortKey.ordinal(), descending));
+            pstmt.setObject(1, after.sortValue(sortKey));
+            pstmt.setObject(2, after.sortValue(sortKey));
+            pstmt.setInt(3, after.rideId);
+            pstmt.setInt(4, pageSize + 1);
+        } else {
+            pstmt = connection.prepareStatement(RideSql.historyPageAt(sortKey.ordinal(), descending));
+            pstmt.setInt(1, pageSize + 1);
+            pstmt.setInt(2, pageNumber * pageSize);
+        }
+
+        List<Entry> entries = new ArrayList<>();
+        ResultSet rs = pstmt.executeQuery();
+        while (rs.next()) {
+            entries.add(new Entry(rs.getInt("id"), rs.getTimestamp("created_at"), rs.getString("from_location"),
+                rs.getString("to_location"), rs.getString("driver_name"), rs.getInt("fare"), rs.getInt("rating")));
+        }
+        rs.close();
+        pstmt.close();
+        return entries;
+    }
+
+    // Forget cached pages, e.g. after a ride is rated or deleted
+    public void invalidate() {
+        synchronized (this) {
+            cache.clear();
+            pageEnds.clear();
+            hotCount = -1;
+        }
+        for (Runnable listener : invalidationListeners) {
+            listener.run();
+        }
+    }
+
+    public void addInvalidationListener(Runnable listener) {
+        invalidationListeners.add(listener);
+    }
+
+    public void removeInvalidationListener(Runnable listener) {
+        invalidationListeners.remove(listener);
+    }
+}
@@ -0,0 +1,268 @@
+import javax.swing.JTable;
+import javax.swing.ListSelectionModel;
+import javax.swing.SwingUtilities;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.TableColumnModel;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Rows of a JTable over the ride history, or a part of it such as search results, that are read only
+// when the table paints them. The row count comes from the source once; a row whose page is not loaded
+// yet shows "Loading..." and its page is read from the source on a DataAccess worker, so scrolling never
+// waits on the database and at most LOADED_PAGES pages are held however long the history is. Over the
+// whole history, clicking a column header sorts by it in the database, for this table only. Used on the
+// event thread only; call dispose() when the table's window closes.
+class RideHistoryTableModel extends AbstractTableModel {
+
+    private static final long serialVersionUID = 1L;
+
+    static final int LOADED_PAGES = 16;
+
+    private static final String[] COLUMNS = { "#", "Date", "From", "To", "Driver", "Fare", "Rating" };
+
+    // Pages of finished rides for the table
+    interface Source {
+        int getPageSize();
+
+        int count(Connection connection) throws SQLException;
+
+        RideHistory.Page getPage(Connection connection, int pageNumber) throws SQLException;
+    }
+
+    private Source source;
+    // Tells us when rides change, and gives the sorted views when the rows are the whole history
+    private final RideHistory history;
+    private final boolean sortable;
+    private RideHistory.SortKey sortKey = RideHistory.SortKey.DATE;
+    private boolean descending = true;
+    private final int pageSize;
+    private int rowCount;
+    // Pages by number, least recently painted first
+    private final Map<Integer, List<RideHistory.Entry>> pages =
+        new LinkedHashMap<Integer, List<RideHistory.Entry>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, List<RideHistory.Entry>> eldest) {
+                return size() > LOADED_PAGES;
+            }
+        };
+    private final Set<Integer> loading = new HashSet<>();
+    // Pages that could not be read; not retried until the next refresh
+    private final Set<Integer> failed = new HashSet<>();
+    // Bumped on every refresh, so pages read before it are dropped
+    private int generation;
+    private JTable table;
+
+    // The history can change on any thread, e.g. in DeltaSync
+    private final Runnable invalidationListener = new Runnable() {
+        @Override
+        public void run() {
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    refresh();
+                }
+            });
+        }
+    };
+
+    RideHistoryTableModel(RideHistory history) {
+        this(history, history);
+    }
+
+    RideHistoryTableModel(Source source, RideHistory history) {
+        this.source = source;
+        this.history = history;
+        this.sortable = source == history;
+        this.pageSize = source.getPageSize();
+        history.addInvalidationListener(invalidationListener);
+        refresh();
+    }
+
+    // A table showing this model, sorted by clicking its column headers
+    JTable createTable() {
+        table = new JTable(this);
+        table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        table.getTableHeader().setReorderingAllowed(false);
+        TableColumnModel columns = table.getColumnModel();
+        columns.getColumn(0).setPreferredWidth(50);
+        columns.getColumn(1).setPreferredWidth(130);
+        columns.getColumn(5).setPreferredWidth(60);
+        columns.getColumn(6).setPreferredWidth(60);
+        table.getTableHeader().addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int column = table.convertColumnIndexToModel(table.columnAtPoint(e.getPoint()));
+                if (column > 0 && sortable) {
+                    sortBy(RideHistory.SortKey.values()[column - 1]);
+                }
+            }
+        });
+        return table;
+    }
+
+    // Clicking the sorted column again reverses it; a new column starts with the newest, dearest or best
+    // rated rides for dates, fares and ratings and in A-Z order for text
+    private void sortBy(RideHistory.SortKey key) {
+        if (key == sortKey) {
+            descending = !descending;
+        } else {
+            descending = key == RideHistory.SortKey.DATE || key == RideHistory.SortKey.FARE ||
+                key == RideHistory.SortKey.RATING;
+        }
+        sortKey = key;
+        refresh();
+    }
+
+    // Forgets the loaded pages and counts the rows again
+    void refresh() {
+        final int requested = ++generation;
+        if (sortable) {
+            // A sorted view's keyset positions are only good until the history changes
+            source = history.sortedBy(sortKey, descending);
+        }
+        final Source counted = source;
+        pages.clear();
+        loading.clear();
+        failed.clear();
+        updateHeader();
+        DataAccess.submit(new DataAccess.SqlTask<Integer>() {
+            @Override
+            public Integer run(Connection connection) throws SQLException {
+                return counted.count(connection);
+            }
+        }, new DataAccess.UiCallback<Integer>() {
+            @Override
+            void onSuccess(Integer count) {
+                if (requested == generation) {
+                    rowCount = count;
+                    fireTableDataChanged();
+                }
+            }
+        }, null);
+    }
+
+    void dispose() {
+        history.removeInvalidationListener(invalidationListener);
+        generation++;
+    }
+
+    // The ride in a row, or null while its page is loading
+    RideHistory.Entry entryAt(int row) {
+        List<RideHistory.Entry> entries = pages.get(row / pageSize);
+        int index = row % pageSize;
+        return entries == null || index >= entries.size() ? null : entries.get(index);
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        if (column > 0 && sortable && sortKey.ordinal() == column - 1) {
+            return COLUMNS[column] + (descending ? " ▼" : " ▲");
+        }
+        return COLUMNS[column];
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        if (column == 0) {
+            return row + 1;
+        }
+        int pageNumber = row / pageSize;
+        if (!pages.containsKey(pageNumber)) {
+            if (failed.contains(pageNumber)) {
+                return column == 1 ? "Could not load" : "";
+            }
+            load(pageNumber);
+            return column == 1 ? "Loading..." : "";
+        }
+        RideHistory.Entry entry = entryAt(row);
+        if (entry == null) {
+            // The history shrank since it was counted
+            return "";
+        }
+        switch (column) {
+            case 1:
+                return String.format("%tF %<tR", entry.createdAt);
+            case 2:
+                return entry.from;
+            case 3:
+                return entry.to;
+            case 4:
+                return entry.driverName == null ? "" : entry.driverName;
+            case 5:
+                return "₱" + entry.fare;
+            default:
+                return entry.rating > 0 ? entry.rating + "/5" : "-";
+        }
+    }
+
+    private void load(final int pageNumber) {
+        if (!loading.add(pageNumber)) {
+            return;
+        }
+        final int requested = generation;
+        final Source reading = source;
+        DataAccess.submit(new DataAccess.SqlTask<RideHistory.Page>() {
+            @Override
+            public RideHistory.Page run(Connection connection) throws SQLException {
+                return reading.getPage(connection, pageNumber);
+            }
+        }, new DataAccess.UiCallback<RideHistory.Page>() {
+            @Override
+            void onSuccess(RideHistory.Page page) {
+                if (requested != generation) {
+                    return;
+                }
+                loading.remove(pageNumber);
+                pages.put(pageNumber, page.entries);
+                pageLoaded(pageNumber);
+            }
+
+            @Override
+            void onFailure(Throwable error) {
+                if (requested != generation) {
+                    return;
+                }
+                loading.remove(pageNumber);
+                failed.add(pageNumber);
+                pageLoaded(pageNumber);
+            }
+        }, null);
+    }
+
+    private void pageLoaded(int pageNumber) {
+        int first = pageNumber * pageSize;
+        int last = Math.min(first + pageSize, rowCount) - 1;
+        if (first <= last) {
+            fireTableRowsUpdated(first, last);
+        }
+    }
+
+    // Header values are copied into the columns when the table is built, so the sort arrow is set here
+    private void updateHeader() {
+        if (table == null) {
+            return;
+        }
+        TableColumnModel columns = table.getColumnModel();
+        for (int i = 0; i < columns.getColumnCount(); i++) {
+            columns.getColumn(i).setHeaderValue(getColumnName(columns.getColumn(i).getModelIndex()));
+        }
+        table.getTableHeader().repaint();
+    }
+}
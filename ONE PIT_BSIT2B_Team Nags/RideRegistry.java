@@ -0,0 +1,81 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Open rides indexed by ride id, passenger id and driver id, so status checks, completion and removal
+// are constant-time lookups instead of list scans. Rides keep their insertion order for the UI lists.
+// A ride's id, passengerId and driverId must not change while it is registered.
+class RideRegistry {
+
+    private final Map<Integer, RideAssistGUIwithDriver.RideRequest> byId = new LinkedHashMap<>();
+    private final Map<Integer, Map<Integer, RideAssistGUIwithDriver.RideRequest>> byPassenger = new HashMap<>();
+    private final Map<Integer, RideAssistGUIwithDriver.RideRequest> byDriver = new HashMap<>();
+
+    public synchronized void add(RideAssistGUIwithDriver.RideRequest ride) {
+        remove(byId.get(ride.id));
+        byId.put(ride.id, ride);
+
+        Map<Integer, RideAssistGUIwithDriver.RideRequest> passengerRides = byPassenger.get(ride.passengerId);
+        if (passengerRides == null) {
+            passengerRides = new LinkedHashMap<>();
+            byPassenger.put(ride.passengerId, passengerRides);
+        }
+        passengerRides.put(ride.id, ride);
+
+        if (ride.driverId > 0) {
+            byDriver.put(ride.driverId, ride);
+        }
+    }
+
+    public synchronized boolean remove(RideAssistGUIwithDriver.RideRequest ride) {
+        if (ride == null || byId.get(ride.id) != ride) {
+            return false;
+        }
+        byId.remove(ride.id);
+
+        Map<Integer, RideAssistGUIwithDriver.RideRequest> passengerRides = byPassenger.get(ride.passengerId);
+        if (passengerRides != null) {
+            passengerRides.remove(ride.id);
+            if (passengerRides.isEmpty()) {
+                byPassenger.remove(ride.passengerId);
+            }
+        }
+
+        if (ride.driverId > 0 && byDriver.get(ride.driverId) == ride) {
+            byDriver.remove(ride.driverId);
+        }
+        return true;
+    }
+
+    public synchronized RideAssistGUIwithDriver.RideRequest get(int rideId) {
+        return byId.get(rideId);
+    }
+
+    public synchronized List<RideAssistGUIwithDriver.RideRequest> findByPassenger(int passengerId) {
+        Map<Integer, RideAssistGUIwithDriver.RideRequest> passengerRides = byPassenger.get(passengerId);
+        if (passengerRides == null) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<>(passengerRides.values());
+    }
+
+    public synchronized RideAssistGUIwithDriver.RideRequest findByDriver(int driverId) {
+        return byDriver.get(driverId);
+    }
+
+    public synchronized int size() {
+        return byId.size();
+    }
+
+    public synchronized boolean isEmpty() {
+        return byId.isEmpty();
+    }
+
+    // Copy of the rides in the order they were added, for building UI lists
+    public synchronized List<RideAssistGUIwithDriver.RideRequest> snapshot() {
+        return new ArrayList<>(byId.values());
+    }
+}
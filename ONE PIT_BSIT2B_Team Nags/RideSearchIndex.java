@@ -0,0 +1,431 @@
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+// In-memory inverted index over the finished rides, for the admin search screen. Each location word,
+// driver, passenger and day maps to the sorted ids of its rides; a search sets a bit per id listed under
+// each condition's keys, i.e. every word a search word starts and every day in the range, and ANDs the
+// bit sets. So a search costs time in proportion to the rides its conditions match, not to every ride,
+// and a short prefix or a wide date range costs the most. Results come back newest first. The index is
+// built from the ride archive and the rides table on a background thread the first time the admin menu
+// opens, then follows RideEvents as rides complete. Rides deleted from the history are dropped with
+// remove().
+class RideSearchIndex {
+
+    static final int DEFAULT_BUILD_CHUNK = 10000;
+
+    private static final Metrics.Timer QUERY_TIMER = Metrics.timer("search.query");
+    private static final Metrics.Timer BUILD_TIMER = Metrics.timer("search.build");
+
+    // Ride ids in ascending order
+    private static class Postings {
+        private int[] ids = new int[4];
+        private int size;
+
+        void add(int rideId) {
+            if (size > 0 && ids[size - 1] >= rideId) {
+                // Out of order, e.g. a ride completed after a newer one; rare
+                int at = Arrays.binarySearch(ids, 0, size, rideId);
+                if (at >= 0) {
+                    return;
+                }
+                insert(-at - 1, rideId);
+                return;
+            }
+            insert(size, rideId);
+        }
+
+        private void insert(int at, int rideId) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            System.arraycopy(ids, at, ids, at + 1, size - at);
+            ids[at] = rideId;
+            size++;
+        }
+
+        void addTo(BitSet bits) {
+            for (int i = 0; i < size; i++) {
+                bits.set(ids[i]);
+            }
+        }
+    }
+
+    // One ride as read for the index, so rows are read before the index lock is taken
+    private static class Row {
+        final int rideId;
+        final String from;
+        final String to;
+        final int driverId;
+        final int passengerId;
+        final Timestamp createdAt;
+
+        Row(ResultSet rs) throws SQLException {
+            int driver = rs.getInt("driver_id");
+            driverId = rs.wasNull() ? -1 : driver;
+            int passenger = rs.getInt("passenger_id");
+            passengerId = rs.wasNull() ? -1 : passenger;
+            rideId = rs.getInt("id");
+            from = rs.getString("from_location");
+            to = rs.getString("to_location");
+            createdAt = rs.getTimestamp("created_at");
+        }
+    }
+
+    // What to look for; unset conditions match every ride
+    static class Query {
+        // Words of the pickup or drop-off, each matching any word it starts
+        String text = "";
+        int driverId = -1;
+        int passengerId = -1;
+        // Ride dates, both inclusive
+        LocalDate from;
+        LocalDate to;
+    }
+
+    // Search results as pages of the history table, newest first
+    static class Results implements RideHistoryTableModel.Source {
+        final int[] rideIds;
+        private final int pageSize;
+
+        Results(int[] rideIds, int pageSize) {
+            this.rideIds = rideIds;
+            this.pageSize = pageSize;
+        }
+
+        @Override
+        public int getPageSize() {
+            return pageSize;
+        }
+
+        @Override
+        public int count(Connection connection) {
+            return rideIds.length;
+        }
+
+        @Override
+        public RideHistory.Page getPage(Connection connection, int pageNumber) throws SQLException {
+            int first = pageNumber * pageSize;
+            int last = Math.min(first + pageSize, rideIds.length);
+            Map<Integer, RideHistory.Entry> byId = new HashMap<>();
+            PreparedStatement pstmt = connection.prepareStatement(RideSql.historyByIds(pageSize));
+            for (int i = 0; i < pageSize; i++) {
+                // Unused slots match no ride
+                pstmt.setInt(i + 1, first + i < last ? rideIds[first + i] : -1);
+            }
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                byId.put(rs.getInt("id"), new RideHistory.Entry(rs.getInt("id"), rs.getTimestamp("created_at"),
+                    rs.getString("from_location"), rs.getString("to_location"), rs.getString("driver_name"),
+                    rs.getInt("fare"), rs.getInt("rating")));
+            }
+            rs.close();
+            pstmt.close();
+
+            // In result order; rides no longer in the database have been archived or deleted since. One
+            // archived by another instance is in a segment this one has not opened yet, so the segment list
+            // is read again once before a ride is given up on.
+            List<RideHistory.Entry> entries = new ArrayList<>();
+            boolean refreshed = false;
+            for (int i = first; i < last; i++) {
+                RideHistory.Entry entry = byId.get(rideIds[i]);
+                try {
+                    if (entry == null) {
+                        entry = RideArchiver.find(rideIds[i]);
+                    }
+                    if (entry == null && !refreshed) {
+                        refreshed = true;
+                        RideArchiver.refresh(connection);
+                        entry = RideArchiver.find(rideIds[i]);
+                    }
+                } catch (IOException e) {
+                    throw new SQLException("Cannot read the ride archive: " + e.getMessage(), e);
+                }
+                if (entry != null) {
+                    entries.add(entry);
+                }
+            }
+            return new RideHistory.Page(pageNumber, entries, last < rideIds.length);
+        }
+    }
+
+    private static final TreeMap<String, Postings> byWord = new TreeMap<>();
+    private static final Map<Integer, Postings> byDriver = new HashMap<>();
+    private static final Map<Integer, Postings> byPassenger = new HashMap<>();
+    // By epoch day of created_at
+    private static final TreeMap<Long, Postings> byDay = new TreeMap<>();
+    // Every ride indexed and not removed since
+    private static final BitSet rides = new BitSet();
+
+    private static ConnectionPool pool;
+    private static ExecutorService indexer;
+    private static volatile boolean ready;
+
+    // Metrics
+    private static final AtomicLong indexedRides = new AtomicLong();
+    private static final AtomicLong queries = new AtomicLong();
+    private static volatile long buildMillis;
+
+    // DeltaSync announces a ride another instance completed and rated between two syncs only as RATED
+    private static final RideEvents.Listener completedRides = new RideEvents.Listener() {
+        @Override
+        public void rideChanged(RideEvents.Event event) {
+            if (event.type == RideEvents.Type.COMPLETED || event.type == RideEvents.Type.RATED) {
+                indexLater(event.ride.id);
+            }
+        }
+    };
+
+    // Builds the index in chunks of -Dride.search.buildChunk rides; later calls do nothing
+    static synchronized void start(ConnectionPool connectionPool) {
+        if (indexer != null) {
+            return;
+        }
+        pool = connectionPool;
+        final int chunkSize = Integer.getInteger("ride.search.buildChunk", DEFAULT_BUILD_CHUNK);
+        indexer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "search-index");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        // Before the build starts, so rides completed while it runs are not missed; indexing one twice is harmless
+        RideEvents.subscribe(completedRides);
+        indexer.execute(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                boolean succeeded = false;
+                try {
+                    build(chunkSize);
+                    succeeded = true;
+                } catch (SQLException | IOException e) {
+                    e.printStackTrace();
+                } finally {
+                    BUILD_TIMER.stop(start, succeeded);
+                }
+                buildMillis = (System.nanoTime() - start) / 1_000_000;
+                ready = true;
+            }
+        });
+    }
+
+    // Archived rides first, then the rides table one chunk per connection, so the build never holds a
+    // pooled connection for long. Each chunk is read before the lock is taken to add it, so searches only
+    // wait for the adding.
+    private static void build(int chunkSize) throws SQLException, IOException {
+        RideArchiver.forEach(new RideArchiver.Visitor() {
+            @Override
+            public void visit(RideArchiver.ArchivedRide ride) {
+                synchronized (RideSearchIndex.class) {
+                    add(ride.entry.rideId, ride.entry.from, ride.entry.to, ride.driverId, ride.passengerId,
+                        ride.entry.createdAt);
+                }
+            }
+        });
+        int lastRideId = 0;
+        while (true) {
+            List<Row> rows = new ArrayList<>(chunkSize);
+            try (Connection connection = pool.getConnection()) {
+                PreparedStatement pstmt = connection.prepareStatement(RideSql.SEARCH_INDEX_RIDES);
+                pstmt.setInt(1, lastRideId);
+                pstmt.setInt(2, chunkSize);
+                ResultSet rs = pstmt.executeQuery();
+                while (rs.next()) {
+                    rows.add(new Row(rs));
+                }
+                rs.close();
+                pstmt.close();
+            }
+            add(rows);
+            if (rows.size() < chunkSize) {
+                return;
+            }
+            lastRideId = rows.get(rows.size() - 1).rideId;
+        }
+    }
+
+    // Indexes a finished ride no event announced, e.g. one DeltaSync first saw already rated
+    static synchronized void finished(int rideId) {
+        if (indexer != null && !indexer.isShutdown()) {
+            indexLater(rideId);
+        }
+    }
+
+    private static void indexLater(final int rideId) {
+        indexer.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<Row> rows = new ArrayList<>(1);
+                try (Connection connection = pool.getConnection()) {
+                    PreparedStatement pstmt = connection.prepareStatement(RideSql.SEARCH_INDEX_RIDE);
+                    pstmt.setInt(1, rideId);
+                    ResultSet rs = pstmt.executeQuery();
+                    while (rs.next()) {
+                        rows.add(new Row(rs));
+                    }
+                    rs.close();
+                    pstmt.close();
+                    add(rows);
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    private static synchronized void add(List<Row> rows) {
+        for (Row row : rows) {
+            add(row.rideId, row.from, row.to, row.driverId, row.passengerId, row.createdAt);
+        }
+    }
+
+    // Ids of -1 and a null date are left out of their index
+    private static void add(int rideId, String from, String to, int driverId, int passengerId, Timestamp createdAt) {
+        for (String word : words(from + " " + to)) {
+            postings(byWord, word).add(rideId);
+        }
+        if (driverId != -1) {
+            postings(byDriver, driverId).add(rideId);
+        }
+        if (passengerId != -1) {
+            postings(byPassenger, passengerId).add(rideId);
+        }
+        if (createdAt != null) {
+            postings(byDay, createdAt.toLocalDateTime().toLocalDate().toEpochDay()).add(rideId);
+        }
+        if (!rides.get(rideId)) {
+            rides.set(rideId);
+            indexedRides.incrementAndGet();
+        }
+    }
+
+    private static <K> Postings postings(Map<K, Postings> index, K key) {
+        Postings postings = index.get(key);
+        if (postings == null) {
+            postings = new Postings();
+            index.put(key, postings);
+        }
+        return postings;
+    }
+
+    // Called by RideArchiver after it moves rides to a segment; a build still reading the rides table
+    // may not reach them there any more. Indexing a ride twice is harmless.
+    static synchronized void addArchived(List<RideArchiver.ArchivedRide> archived) {
+        if (indexer == null) {
+            // Not built yet; the build reads the archive
+            return;
+        }
+        for (RideArchiver.ArchivedRide ride : archived) {
+            add(ride.entry.rideId, ride.entry.from, ride.entry.to, ride.driverId, ride.passengerId, ride.entry.createdAt);
+        }
+    }
+
+    // Lower-cased letters and digits; everything else separates words
+    static List<String> words(String text) {
+        List<String> words = new ArrayList<>();
+        for (String word : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+
+    // Call after a ride is deleted from the history
+    static synchronized void remove(int rideId) {
+        if (rides.get(rideId)) {
+            rides.clear(rideId);
+            indexedRides.decrementAndGet();
+        }
+    }
+
+    // False while the first build is still reading rides; searches meanwhile see the rides read so far
+    static boolean isReady() {
+        return ready;
+    }
+
+    // Ids of the matching rides, newest first
+    static synchronized int[] search(Query query) {
+        long start = System.nanoTime();
+        boolean succeeded = false;
+        try {
+            BitSet matches = (BitSet) rides.clone();
+            for (String word : words(query.text)) {
+                BitSet withWord = new BitSet();
+                // Every indexed word starting with this one
+                for (Postings postings : byWord.subMap(word, true, word + Character.MAX_VALUE, false).values()) {
+                    postings.addTo(withWord);
+                }
+                matches.and(withWord);
+            }
+            if (query.driverId != -1) {
+                matches.and(bits(byDriver.get(query.driverId)));
+            }
+            if (query.passengerId != -1) {
+                matches.and(bits(byPassenger.get(query.passengerId)));
+            }
+            if (query.from != null || query.to != null) {
+                long fromDay = query.from == null ? Long.MIN_VALUE : query.from.toEpochDay();
+                long toDay = query.to == null ? Long.MAX_VALUE : query.to.toEpochDay();
+                BitSet inRange = new BitSet();
+                if (fromDay <= toDay) {
+                    for (Postings postings : byDay.subMap(fromDay, true, toDay, true).values()) {
+                        postings.addTo(inRange);
+                    }
+                }
+                matches.and(inRange);
+            }
+
+            int[] rideIds = new int[matches.cardinality()];
+            int next = 0;
+            for (int id = matches.previousSetBit(matches.length() - 1); id >= 0; id = matches.previousSetBit(id - 1)) {
+                rideIds[next++] = id;
+            }
+            queries.incrementAndGet();
+            succeeded = true;
+            return rideIds;
+        } finally {
+            QUERY_TIMER.stop(start, succeeded);
+        }
+    }
+
+    private static BitSet bits(Postings postings) {
+        BitSet bits = new BitSet();
+        if (postings != null) {
+            postings.addTo(bits);
+        }
+        return bits;
+    }
+
+    static synchronized void shutdown() {
+        RideEvents.unsubscribe(completedRides);
+        if (indexer != null) {
+            indexer.shutdownNow();
+        }
+    }
+
+    public static synchronized String getStats() {
+        return String.format("rides=%d, words=%d, drivers=%d, passengers=%d, days=%d, ready=%b, build=%dms, queries=%d",
+            indexedRides.get(), byWord.size(), byDriver.size(), byPassenger.size(), byDay.size(), ready, buildMillis,
+            queries.get());
+    }
+}
@@ -0,0 +1,199 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// SQL run on every login and ride transition. These are registered with the StatementCache,
+// so each one is prepared once per pooled connection and reused afterwards.
+class RideSql {
+
+    // Passengers
+    static final String PASSENGER_PHONE_EXISTS = "SELECT COUNT(*) FROM passengers WHERE phone_number = ?";
+    static final String INSERT_PASSENGER = "INSERT INTO passengers (full_name, phone_number, password) VALUES (?, ?, ?)";
+    static final String PASSENGER_LOGIN = "SELECT * FROM passengers WHERE phone_number = ? AND password = ?";
+
+    // Admin
+    static final String ADMIN_LOGIN = "SELECT * FROM admin WHERE username = ? AND password = ?";
+
+    // Rides
+    static final String INSERT_RIDE = "INSERT INTO rides (passenger_id, from_location, to_location, fare, status, pickup_lat, pickup_lon) VALUES (?, ?, ?, ?, 'PENDING', ?, ?)";
+    static final String CLAIM_RIDE = "UPDATE rides SET driver_id = ?, status = 'ACCEPTED' WHERE id = ? AND status = 'PENDING'";
+    // completed_at comes from the caller, so the earnings buckets use the same time. Both only move a ride
+    // one step forward, so a ride completed or rated twice updates no row the second time.
+    static final String COMPLETE_RIDE = "UPDATE rides SET status = 'COMPLETED', completed_at = ? WHERE id = ? AND status = 'ACCEPTED'";
+    static final String RATE_RIDE = "UPDATE rides SET rating = ?, status = 'RATED' WHERE id = ? AND status = 'COMPLETED'";
+    static final String DELETE_PENDING_RIDE = "DELETE FROM rides WHERE id = ? AND status = 'PENDING'";
+    static final String DELETE_FINISHED_RIDE = "DELETE FROM rides WHERE id = ? AND status IN ('COMPLETED', 'RATED')";
+
+    // Open rides read at startup
+    static final String LOAD_PENDING_RIDES = "SELECT r.*, p.full_name, p.phone_number " +
+        "FROM rides r " +
+        "JOIN passengers p ON r.passenger_id = p.id " +
+        "WHERE r.status = 'PENDING'";
+    static final String LOAD_ACCEPTED_RIDES = "SELECT r.*, p.full_name, p.phone_number, d.name as driver_name " +
+        "FROM rides r " +
+        "JOIN passengers p ON r.passenger_id = p.id " +
+        "JOIN drivers d ON r.driver_id = d.id " +
+        "WHERE r.status = 'ACCEPTED'";
+
+    static final String LOAD_COMPLETED_RIDES = "SELECT r.*, p.full_name, p.phone_number, d.name as driver_name " +
+        "FROM rides r " +
+        "JOIN passengers p ON r.passenger_id = p.id " +
+        "LEFT JOIN drivers d ON r.driver_id = d.id " +
+        "WHERE r.status = 'COMPLETED'";
+
+    // One ride claimed here before DeltaSync brought it in
+    static final String LOAD_RIDE = "SELECT r.*, p.full_name, p.phone_number, d.name as driver_name " +
+        "FROM rides r " +
+        "JOIN passengers p ON r.passenger_id = p.id " +
+        "LEFT JOIN drivers d ON r.driver_id = d.id " +
+        "WHERE r.id = ?";
+
+    // Delta sync; see DeltaSync
+    static final String DATABASE_NOW = "SELECT CURRENT_TIMESTAMP(3)";
+    static final String RIDE_CHANGES = "SELECT r.*, p.full_name, p.phone_number, d.name as driver_name " +
+        "FROM rides r " +
+        "JOIN passengers p ON r.passenger_id = p.id " +
+        "LEFT JOIN drivers d ON r.driver_id = d.id " +
+        "WHERE r.updated_at >= ?";
+    static final String DRIVER_CHANGES = "SELECT * FROM drivers WHERE updated_at >= ?";
+    static final String DELETIONS_SINCE = "SELECT table_name, row_id, deleted_at FROM deleted_rows WHERE deleted_at >= ?";
+    static final String RECORD_DELETION = "INSERT INTO deleted_rows (table_name, row_id) VALUES (?, ?)";
+    static final String PURGE_DELETIONS = "DELETE FROM deleted_rows WHERE deleted_at < ?";
+
+    // Ride history, paged by the sort column then id; see RideHistory. The default order, newest first,
+    // reads the (finished, created_at, id) index backwards and stops at the LIMIT; the other orders sort
+    // all the finished rides.
+    private static final String HISTORY_SELECT =
+        "SELECT r.id, r.created_at, r.from_location, r.to_location, r.fare, r.rating, d.name AS driver_name " +
+        "FROM rides r " +
+        "LEFT JOIN drivers d ON r.driver_id = d.id " +
+        "WHERE r.finished = TRUE ";
+    // Indexed by RideHistory.SortKey ordinal
+    static final String[] HISTORY_SORT_KEYS = {
+        "r.created_at", "r.from_location", "r.to_location", "COALESCE(d.name, '')", "r.fare", "COALESCE(r.rating, 0)"
+    };
+    static final String HISTORY_COUNT = "SELECT COUNT(*) FROM rides WHERE finished = TRUE";
+
+    static String historyFirstPage(int sortKey, boolean descending) {
+        return HISTORY_SELECT + historyOrder(sortKey, descending) + " LIMIT ?";
+    }
+
+    // The page after a row, given its sort value twice and its id
+    static String historyNextPage(int sortKey, boolean descending) {
+        String key = HISTORY_SORT_KEYS[sortKey];
+        String after = descending ? " < " : " > ";
+        return HISTORY_SELECT + "AND (" + key + after + "? OR (" + key + " = ? AND r.id" + after + "?)) " +
+            historyOrder(sortKey, descending) + " LIMIT ?";
+    }
+
+    // A page jumped to without reading the one before it
+    static String historyPageAt(int sortKey, boolean descending) {
+        return HISTORY_SELECT + historyOrder(sortKey, descending) + " LIMIT ? OFFSET ?";
+    }
+
+    private static String historyOrder(int sortKey, boolean descending) {
+        String direction = descending ? " DESC" : " ASC";
+        return "ORDER BY " + HISTORY_SORT_KEYS[sortKey] + direction + ", r.id" + direction;
+    }
+
+    static final String HISTORY_FIRST_PAGE = historyFirstPage(0, true);
+    static final String HISTORY_NEXT_PAGE = historyNextPage(0, true);
+
+    // Given rides of the history, e.g. one page of search results; ids are padded to a fixed count so
+    // every page uses the same statement
+    static String historyByIds(int count) {
+        StringBuilder sql = new StringBuilder(HISTORY_SELECT).append("AND r.id IN (");
+        for (int i = 0; i < count; i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        return sql.append(")").toString();
+    }
+
+    // Finished rides as the search index reads them; see RideSearchIndex
+    static final String SEARCH_INDEX_RIDES = "SELECT id, passenger_id, driver_id, from_location, to_location, created_at " +
+        "FROM rides WHERE id > ? AND status IN ('COMPLETED', 'RATED') ORDER BY id LIMIT ?";
+    static final String SEARCH_INDEX_RIDE = "SELECT id, passenger_id, driver_id, from_location, to_location, created_at " +
+        "FROM rides WHERE id = ? AND status IN ('COMPLETED', 'RATED')";
+
+    // Cold storage of old finished rides; see RideArchiver. Rides the earnings backfill has not reached yet
+    // stay until it has.
+    static final String ARCHIVE_CANDIDATES = "SELECT r.id, r.passenger_id, r.driver_id, r.from_location, r.to_location, " +
+        "r.fare, r.status, r.rating, r.created_at, r.completed_at, d.name AS driver_name " +
+        "FROM rides r " +
+        "LEFT JOIN drivers d ON r.driver_id = d.id " +
+        "WHERE r.status IN ('COMPLETED', 'RATED') AND r.created_at < ? " +
+        "AND r.id <= COALESCE((SELECT last_ride_id FROM earnings_backfill WHERE id = 1), r.id) " +
+        "ORDER BY r.id LIMIT ?";
+    // A segment id is claimed by inserting its row uncommitted; the primary key lets only one run have it
+    static final String NEXT_ARCHIVE_SEGMENT = "SELECT COALESCE(MAX(id), 0) + 1 FROM archive_segments";
+    static final String CLAIM_ARCHIVE_SEGMENT = "INSERT INTO archive_segments (id, ride_count, min_ride_id, max_ride_id, committed) " +
+        "VALUES (?, 0, 0, 0, FALSE)";
+    static final String COMMIT_ARCHIVE_SEGMENT = "UPDATE archive_segments SET ride_count = ?, min_ride_id = ?, max_ride_id = ?, " +
+        "committed = TRUE, archived_at = CURRENT_TIMESTAMP WHERE id = ? AND committed = FALSE";
+    static final String RELEASE_ARCHIVE_SEGMENT = "DELETE FROM archive_segments WHERE id = ? AND committed = FALSE";
+    static final String ARCHIVE_SEGMENTS = "SELECT id, ride_count FROM archive_segments WHERE committed = TRUE ORDER BY id";
+    static final String DELETE_STALE_ARCHIVE_CLAIMS = "DELETE FROM archive_segments WHERE committed = FALSE AND archived_at < ?";
+
+    // Drivers
+    static final String INSERT_DRIVER = "INSERT INTO drivers (name, vehicle, price_range, username, password) VALUES (?, ?, ?, ?, ?)";
+    static final String UPDATE_DRIVER_STATS = "UPDATE drivers SET total_earnings = ?, total_rides = ?, average_rating = ? WHERE id = ?";
+    static final String SET_DRIVER_AVAILABILITY = "UPDATE drivers SET is_available = ? WHERE id = ?";
+    static final String SET_DRIVER_LOCATION = "UPDATE drivers SET latitude = ?, longitude = ? WHERE id = ?";
+    static final String CLAIM_DRIVER = "UPDATE drivers SET is_available = FALSE WHERE id = ? AND is_available = TRUE";
+    static final String DELETE_DRIVER = "DELETE FROM drivers WHERE id = ?";
+
+    // Per-driver totals, added to in the ride's transaction; see DriverStatsRollup
+    static final String ROLLUP_COMPLETED_RIDE = "INSERT INTO driver_stats (driver_id, ride_count, earnings, last_ride_at) " +
+        "VALUES (?, 1, ?, CURRENT_TIMESTAMP) " +
+        "ON DUPLICATE KEY UPDATE ride_count = ride_count + 1, earnings = earnings + ?, last_ride_at = CURRENT_TIMESTAMP";
+    static final String ROLLUP_RATING = "INSERT INTO driver_stats (driver_id, rating_sum, rating_count) VALUES (?, ?, 1) " +
+        "ON DUPLICATE KEY UPDATE rating_sum = rating_sum + ?, rating_count = rating_count + 1";
+    static final String LOAD_DRIVER_STATS = "SELECT * FROM driver_stats";
+    static final String LOAD_ONE_DRIVER_STATS = "SELECT * FROM driver_stats WHERE driver_id = ?";
+
+    // Earnings per driver per hour and day; see EarningsBuckets
+    static final String ADD_HOURLY_EARNINGS = "INSERT INTO driver_earnings_hourly (driver_id, bucket_start, ride_count, earnings) " +
+        "VALUES (?, ?, ?, ?) ON DUPLICATE KEY UPDATE ride_count = ride_count + ?, earnings = earnings + ?";
+    static final String ADD_DAILY_EARNINGS = "INSERT INTO driver_earnings_daily (driver_id, bucket_date, ride_count, earnings) " +
+        "VALUES (?, ?, ?, ?) ON DUPLICATE KEY UPDATE ride_count = ride_count + ?, earnings = earnings + ?";
+    static final String HOURLY_EARNINGS_BETWEEN = "SELECT COALESCE(SUM(ride_count), 0), COALESCE(SUM(earnings), 0) " +
+        "FROM driver_earnings_hourly " +
+        "WHERE driver_id = ? AND ((bucket_start >= ? AND bucket_start < ?) OR (bucket_start >= ? AND bucket_start < ?))";
+    static final String DAILY_EARNINGS_BETWEEN = "SELECT COALESCE(SUM(ride_count), 0), COALESCE(SUM(earnings), 0) " +
+        "FROM driver_earnings_daily WHERE driver_id = ? AND bucket_date >= ? AND bucket_date < ?";
+    static final String DAILY_EARNINGS_ROWS = "SELECT bucket_date, ride_count, earnings FROM driver_earnings_daily " +
+        "WHERE driver_id = ? AND bucket_date >= ? AND bucket_date < ? ORDER BY bucket_date";
+    static final String DAILY_EARNINGS_BY_DRIVER = "SELECT driver_id, SUM(ride_count) AS ride_count, SUM(earnings) AS earnings " +
+        "FROM driver_earnings_daily WHERE bucket_date >= ? GROUP BY driver_id";
+    static final String EARNINGS_BACKFILL_STATE = "SELECT last_ride_id, until_at FROM earnings_backfill WHERE id = 1 FOR UPDATE";
+    static final String EARNINGS_BACKFILL_RIDES = "SELECT id, driver_id, fare, COALESCE(completed_at, created_at) AS completed_at " +
+        "FROM rides " +
+        "WHERE id > ? AND driver_id IS NOT NULL AND status IN ('COMPLETED', 'RATED') " +
+        "AND COALESCE(completed_at, created_at) < ? " +
+        "ORDER BY id LIMIT ?";
+    static final String ADVANCE_EARNINGS_BACKFILL = "UPDATE earnings_backfill SET last_ride_id = ? WHERE id = 1";
+    static final String FINISH_EARNINGS_BACKFILL = "DELETE FROM earnings_backfill WHERE id = 1";
+
+    static final List<String> CACHED = cachedStatements();
+
+    private static List<String> cachedStatements() {
+        List<String> cached = new ArrayList<>(Arrays.asList(
+            PASSENGER_PHONE_EXISTS, INSERT_PASSENGER, PASSENGER_LOGIN, ADMIN_LOGIN,
+            INSERT_RIDE, CLAIM_RIDE, COMPLETE_RIDE, RATE_RIDE, DELETE_PENDING_RIDE, DELETE_FINISHED_RIDE, LOAD_RIDE,
+            HISTORY_COUNT, historyByIds(RideHistory.DEFAULT_PAGE_SIZE), SEARCH_INDEX_RIDES, SEARCH_INDEX_RIDE,
+            INSERT_DRIVER, UPDATE_DRIVER_STATS, SET_DRIVER_AVAILABILITY, SET_DRIVER_LOCATION, CLAIM_DRIVER, DELETE_DRIVER,
+            RIDE_CHANGES, DRIVER_CHANGES, DELETIONS_SINCE, RECORD_DELETION,
+            ROLLUP_COMPLETED_RIDE, ROLLUP_RATING, LOAD_DRIVER_STATS, LOAD_ONE_DRIVER_STATS,
+            ADD_HOURLY_EARNINGS, ADD_DAILY_EARNINGS, HOURLY_EARNINGS_BETWEEN, DAILY_EARNINGS_BETWEEN, DAILY_EARNINGS_ROWS
+        ));
+        // Every history order; only the ones a user picks are ever prepared
+        for (int sortKey = 0; sortKey < HISTORY_SORT_KEYS.length; sortKey++) {
+            for (boolean descending : new boolean[] { true, false }) {
+                cached.add(historyFirstPage(sortKey, descending));
+                cached.add(historyNextPage(sortKey, descending));
+                cached.add(historyPageAt(sortKey, descending));
+            }
+        }
+        return cached;
+    }
+}
@@ -0,0 +1,342 @@
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+// Versioned schema changes. Every migration that has run is recorded in schema_version, so a normal
+// startup is one metadata lookup and one SELECT; DDL only runs when the code is ahead of the database.
+// Migrations are append-only: never edit one that has shipped, add a new version instead.
+class SchemaMigrator {
+
+    // One schema change; apply() must be safe to re-run if it failed half way, since MySQL commits DDL
+    // statement by statement
+    static abstract class Migration {
+        final int version;
+        final String description;
+
+        Migration(int version, String description) {
+            this.version = version;
+            this.description = description;
+        }
+
+        abstract void apply(Connection connection) throws SQLException;
+    }
+
+    private static final List<Migration> MIGRATIONS = new ArrayList<>();
+
+    static {
+        MIGRATIONS.add(new Migration(1, "Base tables and default admin") {
+            @Override
+            void apply(Connection connection) throws SQLException {
+                // IF NOT EXISTS so databases created before migrations existed are adopted as version 1
+                Statement stmt = connection.createStatement();
+                stmt.execute("CREATE TABLE IF NOT EXISTS passengers (" +
+                        "id INT AUTO_INCREMENT PRIMARY KEY, " +
+                        "full_name VARCHAR(100) NOT NULL, " +
+                        "phone_number VARCHAR(20) UNIQUE NOT NULL, " +
+                        "password VARCHAR(100) NOT NULL, " +
+                        "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP" +
+                        ")");
+                stmt.execute("CREATE TABLE IF NOT EXISTS drivers (" +
+                        "id INT AUTO_INCREMENT PRIMARY KEY, " +
+                        "name VARCHAR(100) NOT NULL, " +
+                        "vehicle VARCHAR(100), " +
+                        "price_range VARCHAR(50), " +
+                        "username VARCHAR(50) UNIQUE NOT NULL, " +
+                        "password VARCHAR(100) NOT NULL, " +
+                        "is_available BOOLEAN DEFAULT TRUE, " +
+                        "total_earnings DECIMAL(10,2) DEFAULT 0, " +
+                        "total_rides INT DEFAULT 0, " +
+                        "average_rating DECIMAL(3,2) DEFAULT 0, " +
+                        "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP" +
+                        ")");
+                stmt.execute("CREATE TABLE IF NOT EXISTS rides (" +
+                        "id INT AUTO_INCREMENT PRIMARY KEY, " +
+                        "passenger_id INT, " +
+                        "driver_id INT, " +
+                        "from_location VARCHAR(200) NOT NULL, " +
+                        "to_location VARCHAR(200) NOT NULL, " +
+                        "fare INT NOT NULL, " +
+                        "status VARCHAR(20) DEFAULT 'PENDING', " +
+                        "rating INT DEFAULT 0, " +
+                        "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
+                        "completed_at TIMESTAMP NULL, " +
+                        "FOREIGN KEY (passenger_id) REFERENCES passengers(id), " +
+                        "FOREIGN KEY (driver_id) REFERENCES drivers(id)" +
+                        ")");
+                stmt.execute("CREATE TABLE IF NOT EXISTS admin (" +
+                        "id INT AUTO_INCREMENT PRIMARY KEY, " +
+                        "username VARCHAR(50) UNIQUE NOT NULL, " +
+                        "password VARCHAR(100) NOT NULL" +
+                        ")");
+
+                ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM admin WHERE username = 'admin'");
+                rs.next();
+                boolean hasAdmin = rs.getInt(1) > 0;
+                rs.close();
+                if (!hasAdmin) {
+                    stmt.execute("INSERT INTO admin (username, password) VALUES ('admin', 'admin123')");
+                }
+                stmt.close();
+            }
+        });
+
+        MIGRATIONS.add(new Migration(2, "Indexes for ride status, driver and history lookups") {
+            @Override
+            void apply(Connection connection) throws SQLException {
+                // Pending/accepted loads filter on status; the history pages filter on status and walk
+                // (created_at, id), so one index serves both
+                createIndexIfMissing(connection, "rides", "idx_rides_status_created", "status, created_at, id");
+                // A driver's open ride
+                createIndexIfMissing(connection, "rides", "idx_rides_driver_status", "driver_id, status");
+                // A passenger's rides, newest first
+                createIndexIfMissing(connection, "rides", "idx_rides_passenger_created", "passenger_id, created_at");
+            }
+        });
+
+        MIGRATIONS.add(new Migration(3, "Driver and pickup coordinates") {
+            @Override
+            void apply(Connection connection) throws SQLException {
+                addColumnIfMissing(connection, "drivers", "latitude", "DOUBLE NULL");
+                addColumnIfMissing(connection, "drivers", "longitude", "DOUBLE NULL");
+                addColumnIfMissing(connection, "rides", "pickup_lat", "DOUBLE NULL");
+                addColumnIfMissing(connection, "rides", "pickup_lon", "DOUBLE NULL");
+            }
+        });
+
+        MIGRATIONS.add(new Migration(4, "Change tracking for delta sync") {
+            @Override
+            void apply(Connection connection) throws SQLException {
+                // Set by the database on every insert and update, so DeltaSync can read only changed rows
+                String updatedAt = "TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3) ON UPDATE CURRENT_TIMESTAMP(3)";
+                addColumnIfMissing(connection, "rides", "updated_at", updatedAt);
+                addColumnIfMissing(connection, "drivers", "updated_at", updatedAt);
+                createIndexIfMissing(connection, "rides", "idx_rides_updated", "updated_at");
+                createIndexIfMissing(connection, "drivers", "idx_drivers_updated", "updated_at");
+
+                // Deleted rows leave no updated_at behind, so deletes of synced rows are recorded here
+                Statement stmt = connection.createStatement();
+                stmt.execute("CREATE TABLE IF NOT EXISTS deleted_rows (" +
+                        "id BIGINT AUTO_INCREMENT PRIMARY KEY, " +
+                        "table_name VARCHAR(32) NOT NULL, " +
+                        "row_id INT NOT NULL, " +
+                        "deleted_at TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3)" +
+                        ")");
+                stmt.close();
+                createIndexIfMissing(connection, "deleted_rows", "idx_deleted_rows_deleted", "deleted_at");
+            }
+        });
+
+        MIGRATIONS.add(new Migration(5, "Per-driver stats rollup") {
+            @Override
+            void apply(Connection connection) throws SQLException {
+                // Kept up to date by DriverStatsRollup; one row per driver with a completed ride
+                Statement stmt = connection.createStatement();
+                stmt.execute("CREATE TABLE IF NOT EXISTS driver_stats (" +
+                        "driver_id INT PRIMARY KEY, " +
+                        "ride_count INT NOT NULL DEFAULT 0, " +
+                        "earnings DECIMAL(12,2) NOT NULL DEFAULT 0, " +
+                        "rating_sum BIGINT NOT NULL DEFAULT 0, " +
+                        "rating_count INT NOT NULL DEFAULT 0, " +
+                        "last_ride_at TIMESTAMP NULL, " +
+                        "FOREIGN KEY (driver_id) REFERENCES drivers(id) ON DELETE CASCADE" +
+                        ")");
+                stmt.close();
+                DriverStatsRollup.rebuild(connection);
+            }
+        });
+
+        MIGRATIONS.add(new Migration(6, "Hourly and daily earnings buckets") {
+            @Override
+            void apply(Connection connection) throws SQLException {
+                // Kept up to date by EarningsBuckets as rides complete
+                Statement stmt = connection.createStatement();
+                stmt.execute("CREATE TABLE IF NOT EXISTS driver_earnings_hourly (" +
+                        "driver_id INT NOT NULL, " +
+                        "bucket_start TIMESTAMP NOT NULL, " +
+                        "ride_count INT NOT NULL DEFAULT 0, " +
+                        "earnings DECIMAL(12,2) NOT NULL DEFAULT 0, " +
+                        "PRIMARY KEY (driver_id, bucket_start), " +
+                        "FOREIGN KEY (driver_id) REFERENCES drivers(id) ON DELETE CASCADE" +
+                        ")");
+                stmt.execute("CREATE TABLE IF NOT EXISTS driver_earnings_daily (" +
+                        "driver_id INT NOT NULL, " +
+                        "bucket_date DATE NOT NULL, " +
+                        "ride_count INT NOT NULL DEFAULT 0, " +
+                        "earnings DECIMAL(12,2) NOT NULL DEFAULT 0, " +
+                        "PRIMARY KEY (driver_id, bucket_date), " +
+                        "FOREIGN KEY (driver_id) REFERENCES drivers(id) ON DELETE CASCADE" +
+                        ")");
+                // The admin totals read every driver's days from a date on
+                createIndexIfMissing(connection, "driver_earnings_daily", "idx_earnings_daily_date", "bucket_date, driver_id");
+
+                // Rides completed before now are added by the background catch-up; see EarningsBuckets
+                stmt.execute("CREATE TABLE IF NOT EXISTS earnings_backfill (" +
+                        "id INT PRIMARY KEY, " +
+                        "last_ride_id INT NOT NULL, " +
+                        "until_at TIMESTAMP(3) NOT NULL" +
+                        ")");
+                ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM earnings_backfill");
+                rs.next();
+                boolean started = rs.getInt(1) > 0;
+                rs.close();
+                if (!started) {
+                    stmt.execute("INSERT INTO earnings_backfill (id, last_ride_id, until_at) VALUES (1, 0, CURRENT_TIMESTAMP(3))");
+                }
+                stmt.close();
+            }
+        });
+
+        MIGRATIONS.add(new Migration(7, "Ride archive segments") {
+            @Override
+            void apply(Connection connection) throws SQLException {
+                // One row per segment file written by RideArchiver, added in the transaction that deletes
+                // its rides, so a file without a row was never committed
+                Statement stmt = connection.createStatement();
+                stmt.execute("CREATE TABLE IF NOT EXISTS archive_segments (" +
+                        "id INT PRIMARY KEY, " +
+                        "ride_count INT NOT NULL, " +
+                        "min_ride_id INT NOT NULL, " +
+                        "max_ride_id INT NOT NULL, " +
+                        "archived_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP" +
+                        ")");
+                stmt.close();
+            }
+        });
+        MIGRATIONS.add(new Migration(8, "Ride archive segment claims") {
+            @Override
+            void apply(Connection connection) throws SQLException {
+                // A run claims its segment id with an uncommitted row before writing any file, so two
+                // instances never write the same segment; rows already here were all committed
+                addColumnIfMissing(connection, "archive_segments", "committed", "BOOLEAN NOT NULL DEFAULT TRUE");
+            }
+        });
+        MIGRATIONS.add(new Migration(9, "Finished flag for the ride history order") {
+            @Override
+            void apply(Connection connection) throws SQLException {
+                // With status IN ('COMPLETED', 'RATED') on the leading column of idx_rides_status_created,
+                // the history came from two index ranges and had to be sorted by created_at. One equality
+                // on a generated flag leaves (created_at, id) in index order, so a newest-first page is
+                // read backwards off the index and stops after LIMIT rows.
+                addColumnIfMissing(connection, "rides", "finished",
+                    "BOOLEAN GENERATED ALWAYS AS (status IN ('COMPLETED', 'RATED'))");
+                createIndexIfMissing(connection, "rides", "idx_rides_finished_created", "finished, created_at, id");
+            }
+        });
+    }
+
+    // Brings the schema up to date and returns the version it is now at
+    static int migrate(Connection connection) throws SQLException {
+        int current = currentVersion(connection);
+        int latest = MIGRATIONS.get(MIGRATIONS.size() - 1).version;
+        if (current >= latest) {
+            System.out.println("Schema is current (version " + current + ")");
+            return current;
+        }
+
+        for (Migration migration : MIGRATIONS) {
+            if (migration.version <= current) {
+                continue;
+            }
+            long start = System.nanoTime();
+            migration.apply(connection);
+            PreparedStatement pstmt = connection.prepareStatement(
+                "INSERT INTO schema_version (version, description) VALUES (?, ?)");
+            pstmt.setInt(1, migration.version);
+            pstmt.setString(2, migration.description);
+            pstmt.executeUpdate();
+            pstmt.close();
+            System.out.printf("Applied schema version %d: %s (%.1fms)%n",
+                migration.version, migration.description, (System.nanoTime() - start) / 1_000_000.0);
+        }
+        return latest;
+    }
+
+    // Highest applied version, creating schema_version on first run
+    private static int currentVersion(Connection connection) throws SQLException {
+        if (!tableExists(connection, "schema_version")) {
+            Statement stmt = connection.createStatement();
+            stmt.execute("CREATE TABLE IF NOT EXISTS schema_version (" +
+                    "version INT PRIMARY KEY, " +
+                    "description VARCHAR(200) NOT NULL, " +
+                    "applied_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP" +
+                    ")");
+            stmt.close();
+            return 0;
+        }
+
+        Statement stmt = connection.createStatement();
+        ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(version), 0) FROM schema_version");
+        rs.next();
+        int version = rs.getInt(1);
+        rs.close();
+        stmt.close();
+        return version;
+    }
+
+    private static boolean tableExists(Connection connection, String table) throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        // Some drivers report unquoted names in upper case
+        for (String name : new String[] { table, table.toUpperCase() }) {
+            ResultSet rs = metaData.getTables(connection.getCatalog(), null, name, new String[] { "TABLE" });
+            boolean found = rs.next();
+            rs.close();
+            if (found) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static void addColumnIfMissing(Connection connection, String table, String column, String definition) throws SQLException {
+        if (columnExists(connection, table, column)) {
+            return;
+        }
+        Statement stmt = connection.createStatement();
+        stmt.execute("ALTER TABLE " + table + " ADD COLUMN " + column + " " + definition);
+        stmt.close();
+    }
+
+    private static boolean columnExists(Connection connection, String table, String column) throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        for (String name : new String[] { table, table.toUpperCase() }) {
+            ResultSet rs = metaData.getColumns(connection.getCatalog(), null, name, null);
+            while (rs.next()) {
+                if (column.equalsIgnoreCase(rs.getString("COLUMN_NAME"))) {
+                    rs.close();
+                    return true;
+                }
+            }
+            rs.close();
+        }
+        return false;
+    }
+
+    static void createIndexIfMissing(Connection connection, String table, String index, String columns) throws SQLException {
+        if (indexExists(connection, table, index)) {
+            return;
+        }
+        Statement stmt = connection.createStatement();
+        stmt.execute("CREATE INDEX " + index + " ON " + table + " (" + columns + ")");
+        stmt.close();
+    }
+
+    private static boolean indexExists(Connection connection, String table, String index) throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        for (String name : new String[] { table, table.toUpperCase() }) {
+            ResultSet rs = metaData.getIndexInfo(connection.getCatalog(), null, name, false, true);
+            while (rs.next()) {
+                if (index.equalsIgnoreCase(rs.getString("INDEX_NAME"))) {
+                    rs.close();
+                    return true;
+                }
+            }
+            rs.close();
+        }
+        return false;
+    }
+}
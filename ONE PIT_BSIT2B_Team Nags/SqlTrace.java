@@ -0,0 +1,248 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Wraps each physical connection the pool opens so every statement execution is recorded with its SQL
+// text, number of bound parameters, time and rows affected. Statistics are kept per SQL string, which
+// shows which of the queries in the dispatch code and GUI handlers take the most database time, and
+// executions slower than the threshold are appended to a slow-query log. Bound values are never
+// recorded, since some of them are passwords.
+class SqlTrace {
+
+    static final long DEFAULT_SLOW_MS = 100;
+    static final String DEFAULT_SLOW_LOG = "slow-queries.log";
+    static final int REPORT_TOP = 10;
+
+    private static final Metrics.Counter SLOW_QUERIES = Metrics.counter("sql.slow");
+
+    // Totals for one SQL string
+    static class StatementStats {
+        final String sql;
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLong totalNanos = new AtomicLong();
+        final AtomicLong rows = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        volatile int binds;
+
+        StatementStats(String sql) {
+            this.sql = sql;
+        }
+    }
+
+    private final ConcurrentHashMap<String, StatementStats> bySql = new ConcurrentHashMap<>();
+    private final long slowNanos;
+    private final String slowLogPath;
+    private PrintWriter slowLog;
+    private final AtomicLong executions = new AtomicLong();
+    private final AtomicLong slowCount = new AtomicLong();
+
+    SqlTrace(long slowMillis, String slowLogPath) {
+        this.slowNanos = slowMillis * 1_000_000L;
+        this.slowLogPath = slowLogPath;
+    }
+
+    // Threshold and log file can be changed with -Dride.sql.slowMs and -Dride.sql.slowLog;
+    // -Dride.sql.trace=false turns tracing off and returns null
+    static SqlTrace fromSystemProperties() {
+        if (!Boolean.parseBoolean(System.getProperty("ride.sql.trace", "true"))) {
+            return null;
+        }
+        return new SqlTrace(Long.getLong("ride.sql.slowMs", DEFAULT_SLOW_MS),
+            System.getProperty("ride.sql.slowLog", DEFAULT_SLOW_LOG));
+    }
+
+    Connection wrap(final Connection physical) {
+        return (Connection) Proxy.newProxyInstance(
+            Connection.class.getClassLoader(),
+            new Class<?>[] { Connection.class },
+            new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    Object result;
+                    try {
+                        result = method.invoke(physical, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                    String name = method.getName();
+                    if (result instanceof CallableStatement) {
+                        return wrap((Statement) result, CallableStatement.class, (String) args[0]);
+                    }
+                    if (result instanceof PreparedStatement && name.equals("prepareStatement")) {
+                        return wrap((Statement) result, PreparedStatement.class, (String) args[0]);
+                    }
+                    if (result instanceof Statement) {
+                        return wrap((Statement) result, Statement.class, null);
+                    }
+                    return result;
+                }
+            });
+    }
+
+    private Statement wrap(Statement statement, Class<? extends Statement> type, String sql) {
+        return (Statement) Proxy.newProxyInstance(
+            type.getClassLoader(),
+            new Class<?>[] { type },
+            new StatementHandler(statement, sql));
+    }
+
+    // Times the execute calls of one statement. For a plain Statement the SQL comes with each execute.
+    private class StatementHandler implements InvocationHandler {
+        private final Statement statement;
+        private final String preparedSql;
+        // Highest parameter index set since the statement was prepared or its parameters cleared. JDBC keeps
+        // parameters bound across executes, so this is not reset after one.
+        private int binds;
+
+        StatementHandler(Statement statement, String preparedSql) {
+            this.statement = statement;
+            this.preparedSql = preparedSql;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                binds = Math.max(binds, (Integer) args[0]);
+            } else if (name.equals("clearParameters")) {
+                binds = 0;
+            }
+            if (!name.startsWith("execute")) {
+                try {
+                    return method.invoke(statement, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+
+            String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : preparedSql;
+            long start = System.nanoTime();
+            try {
+                Object result = method.invoke(statement, args);
+                record(sql, binds, System.nanoTime() - start, rowsAffected(result), false);
+                return result;
+            } catch (InvocationTargetException e) {
+                record(sql, binds, System.nanoTime() - start, 0, true);
+                throw e.getCause();
+            }
+        }
+    }
+
+    // Update counts; queries and execute() report none
+    private static long rowsAffected(Object result) {
+        if (result instanceof Integer || result instanceof Long) {
+            return Math.max(0, ((Number) result).longValue());
+        }
+        if (result instanceof int[]) {
+            long rows = 0;
+            for (int count : (int[]) result) {
+                rows += Math.max(0, count);
+            }
+            return rows;
+        }
+        return 0;
+    }
+
+    void record(String sql, int binds, long nanos, long rows, boolean failed) {
+        if (sql == null) {
+            sql = "(batch)";
+        }
+        StatementStats stats = bySql.get(sql);
+        if (stats == null) {
+            StatementStats created = new StatementStats(sql);
+            stats = bySql.putIfAbsent(sql, created);
+            if (stats == null) {
+                stats = created;
+            }
+        }
+        executions.incrementAndGet();
+        stats.latency.record(nanos);
+        stats.totalNanos.addAndGet(nanos);
+        stats.rows.addAndGet(rows);
+        stats.binds = binds;
+        if (failed) {
+            stats.errors.incrementAndGet();
+        }
+        if (nanos >= slowNanos) {
+            slowCount.incrementAndGet();
+            SLOW_QUERIES.increment();
+            logSlow(sql, binds, nanos, rows, failed);
+        }
+    }
+
+    private synchronized void logSlow(String sql, int binds, long nanos, long rows, boolean failed) {
+        try {
+            if (slowLog == null) {
+                slowLog = new PrintWriter(new FileWriter(slowLogPath, true));
+            }
+            slowLog.println(String.format("%s [%s] %.1fms rows=%d binds=%d%s %s",
+                new Timestamp(System.currentTimeMillis()), Thread.currentThread().getName(), nanos / 1_000_000.0,
+                rows, binds, failed ? " FAILED" : "", sql.trim().replaceAll("\\s+", " ")));
+            slowLog.flush();
+        } catch (IOException e) {
+            System.out.println("SQL trace: cannot write " + slowLogPath + ": " + e.getMessage());
+        }
+    }
+
+    synchronized void close() {
+        if (slowLog != null) {
+            slowLog.close();
+            slowLog = null;
+        }
+    }
+
+    // Statements by total database time, most expensive first
+    List<StatementStats> byTotalTime() {
+        List<StatementStats> all = new ArrayList<>(bySql.values());
+        Collections.sort(all, new Comparator<StatementStats>() {
+            @Override
+            public int compare(StatementStats a, StatementStats b) {
+                return Long.compare(b.totalNanos.get(), a.totalNanos.get());
+            }
+        });
+        return all;
+    }
+
+    // The top statements by total time, one per line
+    String report(int top) {
+        long allNanos = 0;
+        List<StatementStats> statements = byTotalTime();
+        for (StatementStats stats : statements) {
+            allNanos += stats.totalNanos.get();
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < Math.min(top, statements.size()); i++) {
+            StatementStats stats = statements.get(i);
+            if (sb.length() > 0) {
+                sb.append("\n");
+            }
+            sb.append(String.format("  %5.1f%% total=%.1fms count=%d p50=%.2fms p99=%.2fms max=%.2fms rows=%d " +
+                    "binds=%d errors=%d  %s",
+                allNanos == 0 ? 0 : 100.0 * stats.totalNanos.get() / allNanos, stats.totalNanos.get() / 1_000_000.0,
+                stats.latency.count(), stats.latency.percentileNanos(50) / 1_000_000.0,
+                stats.latency.percentileNanos(99) / 1_000_000.0, stats.latency.maxNanos() / 1_000_000.0,
+                stats.rows.get(), stats.binds, stats.errors.get(), stats.sql.trim().replaceAll("\\s+", " ")));
+        }
+        return sb.toString();
+    }
+
+    public String getStats() {
+        return String.format("executions=%d, statements=%d, slow=%d (>= %dms, logged to %s)",
+            executions.get(), bySql.size(), slowCount.get(), slowNanos / 1_000_000, slowLogPath);
+    }
+}
@@ -0,0 +1,107 @@
+import javax.swing.JComponent;
+import javax.swing.JOptionPane;
+import java.awt.Component;
+import java.awt.Cursor;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+// Loads the application's data in the background while the main menu is already showing. Each phase
+// is a future that starts once the phase it depends on is done, so independent loads run side by side,
+// and every phase reports how long it took. Screens that need data wait on the phase with whenReady().
+class Startup {
+
+    private static final long launchNanos = System.nanoTime();
+
+    private static final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "startup-" + threadNumber.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    // Runs work as the named phase once after has completed (or right away if after is null).
+    // If after fails, this phase fails with the same error without running.
+    static <T> CompletableFuture<T> phase(final String name, CompletableFuture<?> after, final Callable<T> work) {
+        CompletableFuture<?> start = after != null ? after : CompletableFuture.completedFuture(null);
+        return start.thenApplyAsync(new Function<Object, T>() {
+            @Override
+            public T apply(Object ignored) {
+                long phaseStart = System.nanoTime();
+                try {
+                    T result = work.call();
+                    System.out.printf("Startup: %s took %.1fms (ready %.1fms after launch)%n",
+                        name, (System.nanoTime() - phaseStart) / 1_000_000.0, sinceLaunchMillis());
+                    return result;
+                } catch (Exception e) {
+                    System.out.printf("Startup: %s failed after %.1fms%n",
+                        name, (System.nanoTime() - phaseStart) / 1_000_000.0);
+                    throw new CompletionException(e);
+                }
+            }
+        }, executor);
+    }
+
+    // Prints the total once every phase has finished
+    static void reportWhenDone(CompletableFuture<?>... phases) {
+        CompletableFuture.allOf(phases).whenComplete(new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(Void result, Throwable error) {
+                System.out.printf("Startup: %s %.1fms after launch%n",
+                    error == null ? "all data loaded" : "finished with errors", sinceLaunchMillis());
+            }
+        });
+    }
+
+    // Runs action on the event thread once ready has completed. While waiting, the window shows a busy
+    // cursor and the controls are disabled; if the phase failed the user is told and action is skipped.
+    // Must be called from the event thread.
+    static void whenReady(CompletableFuture<?> ready, final Component window, final Runnable action,
+                          final JComponent... busyControls) {
+        if (ready.isDone() && !ready.isCompletedExceptionally()) {
+            action.run();
+            return;
+        }
+
+        final boolean[] wasEnabled = new boolean[busyControls.length];
+        for (int i = 0; i < busyControls.length; i++) {
+            wasEnabled[i] = busyControls[i].isEnabled();
+            busyControls[i].setEnabled(false);
+        }
+        if (window != null) {
+            window.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        }
+
+        ready.whenCompleteAsync(new BiConsumer<Object, Throwable>() {
+            @Override
+            public void accept(Object result, Throwable error) {
+                for (int i = 0; i < busyControls.length; i++) {
+                    busyControls[i].setEnabled(wasEnabled[i]);
+                }
+                if (window != null) {
+                    window.setCursor(Cursor.getDefaultCursor());
+                }
+                if (error == null) {
+                    action.run();
+                } else {
+                    JOptionPane.showMessageDialog(window,
+                        "Could not load data: " + DataAccess.unwrap(error).getMessage());
+                }
+            }
+        }, DataAccess.EDT);
+    }
+
+    private static double sinceLaunchMillis() {
+        return (System.nanoTime() - launchNanos) / 1_000_000.0;
+    }
+}
@@ -0,0 +1,183 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Prepares each registered SQL string once per physical connection and hands the same statement back on
+// every later use. Closing a cached statement only checks it back in; it is really closed when the pool
+// discards its connection. Statements still checked out when a connection is returned are counted as leaks.
+class StatementCache {
+
+    private final Set<String> cacheableSql;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong bypasses = new AtomicLong();
+    private final AtomicLong leaks = new AtomicLong();
+
+    StatementCache(Collection<String> cacheableSql) {
+        this.cacheableSql = new HashSet<>(cacheableSql);
+    }
+
+    boolean isCacheable(String sql) {
+        return cacheableSql.contains(sql);
+    }
+
+    ConnectionStatements forConnection(Connection physical) {
+        return new ConnectionStatements(physical);
+    }
+
+    void recordLeaks(int count) {
+        if (count > 0) {
+            leaks.addAndGet(count);
+            System.err.println("Statement cache: " + count + " statement(s) not closed before the connection was returned");
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getLeaks() {
+        return leaks.get();
+    }
+
+    public String getStats() {
+        long lookups = hits.get() + misses.get();
+        return String.format("statements=%d, hits=%d, misses=%d, hitRate=%.1f%%, bypasses=%d, leaks=%d",
+            cacheableSql.size(), hits.get(), misses.get(), lookups == 0 ? 0 : 100.0 * hits.get() / lookups,
+            bypasses.get(), leaks.get());
+    }
+
+    // Statements prepared on one physical connection. Only used by whoever holds that connection.
+    class ConnectionStatements {
+        private final Connection physical;
+        private final Map<String, PreparedStatement> prepared = new HashMap<>();
+        private final Map<String, CheckOutHandler> checkedOut = new HashMap<>();
+
+        ConnectionStatements(Connection physical) {
+            this.physical = physical;
+        }
+
+        PreparedStatement checkOut(String sql, int autoGeneratedKeys) throws SQLException {
+            String key = autoGeneratedKeys + ":" + sql;
+            if (checkedOut.containsKey(key)) {
+                // Same SQL already in use on this connection; give the caller a private statement
+                bypasses.incrementAndGet();
+                return physical.prepareStatement(sql, autoGeneratedKeys);
+            }
+
+            PreparedStatement statement = prepared.get(key);
+            if (statement == null) {
+                misses.incrementAndGet();
+                statement = physical.prepareStatement(sql, autoGeneratedKeys);
+                prepared.put(key, statement);
+            } else {
+                hits.incrementAndGet();
+            }
+            CheckOutHandler handler = new CheckOutHandler(key, statement);
+            checkedOut.put(key, handler);
+            return (PreparedStatement) Proxy.newProxyInstance(
+                PreparedStatement.class.getClassLoader(),
+                new Class<?>[] { PreparedStatement.class },
+                handler);
+        }
+
+        // Checks in statements the caller forgot to close and returns how many there were
+        int reclaimLeaked() {
+            int leaked = 0;
+            for (CheckOutHandler handler : new ArrayList<>(checkedOut.values())) {
+                leaked++;
+                try {
+                    handler.checkIn();
+                } catch (SQLException e) {
+                    // Leave it to the pool's validation to discard a broken connection
+                }
+            }
+            return leaked;
+        }
+
+        void closeAll() {
+            for (PreparedStatement statement : prepared.values()) {
+                try {
+                    statement.close();
+                } catch (SQLException e) {
+                    // Connection is being discarded anyway
+                }
+            }
+            prepared.clear();
+            checkedOut.clear();
+        }
+
+        // Wraps a cached statement for one use; close() returns it to the cache
+        private class CheckOutHandler implements InvocationHandler {
+            private final String key;
+            private final PreparedStatement statement;
+            private final List<ResultSet> openResults = new ArrayList<>();
+            private boolean checkedIn = false;
+
+            CheckOutHandler(String key, PreparedStatement statement) {
+                this.key = key;
+                this.statement = statement;
+            }
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                if (name.equals("close")) {
+                    checkIn();
+                    return null;
+                }
+                if (name.equals("isClosed")) {
+                    return checkedIn;
+                }
+                if (name.equals("equals")) {
+                    return proxy == args[0];
+                }
+                if (name.equals("hashCode")) {
+                    return System.identityHashCode(proxy);
+                }
+                if (checkedIn) {
+                    throw new SQLException("Statement has already been closed");
+                }
+                try {
+                    Object result = method.invoke(statement, args);
+                    if (result instanceof ResultSet) {
+                        openResults.add((ResultSet) result);
+                    }
+                    return result;
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+
+            private void checkIn() throws SQLException {
+                if (checkedIn) {
+                    return;
+                }
+                checkedIn = true;
+                checkedOut.remove(key);
+                for (ResultSet rs : openResults) {
+                    rs.close();
+                }
+                openResults.clear();
+                statement.clearParameters();
+            }
+        }
+    }
+}
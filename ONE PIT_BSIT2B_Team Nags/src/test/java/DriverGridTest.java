@@ -0,0 +1,130 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Ring search of the driver grid against a scan of every driver. Cells of 1/8 degree keep cell edges
+// exact in binary, so a driver can sit exactly on one.
+class DriverGridTest {
+
+    private static final double CELL = 0.125;
+    // Centre of a cell
+    private static final double PICKUP_LAT = 8.0625;
+    private static final double PICKUP_LON = 123.8125;
+
+    private static int nextId = 1;
+
+    @Test
+    void returnsEveryDriverWhenKExceedsTheDrivers() {
+        DriverGrid grid = new DriverGrid(CELL);
+        List<RideAssistGUIwithDriver.Driver> drivers = new ArrayList<>();
+        drivers.add(driver(grid, PICKUP_LAT + 0.01, PICKUP_LON));
+        drivers.add(driver(grid, PICKUP_LAT + 0.2, PICKUP_LON - 0.1));
+        drivers.add(driver(grid, PICKUP_LAT - 0.4, PICKUP_LON + 0.3));
+
+        List<DriverGrid.Match> found = grid.nearest(PICKUP_LAT, PICKUP_LON, 10, 500);
+        assertEquals(ids(scan(drivers, PICKUP_LAT, PICKUP_LON, 10, 500)), ids(found));
+        assertEquals(3, found.size());
+    }
+
+    @Test
+    void findsADriverExactlyOnARingEdgeBeforeAFartherOneInsideTheRing() {
+        DriverGrid grid = new DriverGrid(CELL);
+        // In the pickup's own cell, near its far corner
+        RideAssistGUIwithDriver.Driver corner = driver(grid, PICKUP_LAT - 0.0624, PICKUP_LON - 0.0624);
+        // On the edge between the pickup's cell and the ring around it, straight north
+        RideAssistGUIwithDriver.Driver edge = driver(grid, 8.125, PICKUP_LON);
+
+        List<DriverGrid.Match> found = grid.nearest(PICKUP_LAT, PICKUP_LON, 1, 500);
+        assertEquals(1, found.size());
+        assertEquals(edge.id, found.get(0).driver.id);
+
+        found = grid.nearest(PICKUP_LAT, PICKUP_LON, 2, 500);
+        assertEquals(edge.id, found.get(0).driver.id);
+        assertEquals(corner.id, found.get(1).driver.id);
+    }
+
+    @Test
+    void leavesOutDriversBeyondMaxKm() {
+        DriverGrid grid = new DriverGrid(CELL);
+        RideAssistGUIwithDriver.Driver near = driver(grid, PICKUP_LAT + 0.01, PICKUP_LON);
+        RideAssistGUIwithDriver.Driver far = driver(grid, PICKUP_LAT + 0.3, PICKUP_LON);
+        double farKm = Places.distanceKm(PICKUP_LAT, PICKUP_LON, far.latitude, far.longitude);
+
+        List<DriverGrid.Match> found = grid.nearest(PICKUP_LAT, PICKUP_LON, 5, farKm - 0.001);
+        assertEquals(1, found.size());
+        assertEquals(near.id, found.get(0).driver.id);
+
+        found = grid.nearest(PICKUP_LAT, PICKUP_LON, 5, farKm + 0.001);
+        assertEquals(2, found.size());
+        assertEquals(far.id, found.get(1).driver.id);
+
+        assertTrue(grid.nearest(PICKUP_LAT, PICKUP_LON, 5, 0.5).isEmpty());
+    }
+
+    @Test
+    void matchesAScanOfEveryDriver() {
+        Random random = new Random(7);
+        DriverGrid grid = new DriverGrid(CELL);
+        List<RideAssistGUIwithDriver.Driver> drivers = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            drivers.add(driver(grid, PICKUP_LAT + (random.nextDouble() - 0.5) * 2, PICKUP_LON + (random.nextDouble() - 0.5) * 2));
+        }
+        int[] ks = { 1, 3, 10, 500 };
+        double[] maxKms = { 2, 15, 60, 500 };
+        for (int p = 0; p < 50; p++) {
+            double latitude = PICKUP_LAT + (random.nextDouble() - 0.5) * 2;
+            double longitude = PICKUP_LON + (random.nextDouble() - 0.5) * 2;
+            for (int k : ks) {
+                for (double maxKm : maxKms) {
+                    assertEquals(ids(scan(drivers, latitude, longitude, k, maxKm)),
+                        ids(grid.nearest(latitude, longitude, k, maxKm)),
+                        "k=" + k + " maxKm=" + maxKm + " at " + latitude + "," + longitude);
+                }
+            }
+        }
+    }
+
+    private static RideAssistGUIwithDriver.Driver driver(DriverGrid grid, double latitude, double longitude) {
+        int id = nextId++;
+        RideAssistGUIwithDriver.Driver driver =
+            new RideAssistGUIwithDriver.Driver(id, "Driver " + id, "Tricycle", "50-100", "driver" + id, "pass");
+        driver.latitude = latitude;
+        driver.longitude = longitude;
+        grid.update(driver);
+        return driver;
+    }
+
+    // What nearest() should return, by distance to every driver
+    private static List<DriverGrid.Match> scan(List<RideAssistGUIwithDriver.Driver> drivers, double latitude,
+                                               double longitude, int k, double maxKm) {
+        List<DriverGrid.Match> matches = new ArrayList<>();
+        for (RideAssistGUIwithDriver.Driver driver : drivers) {
+            double distance = Places.distanceKm(latitude, longitude, driver.latitude, driver.longitude);
+            if (distance <= maxKm) {
+                matches.add(new DriverGrid.Match(driver, distance));
+            }
+        }
+        Collections.sort(matches, new Comparator<DriverGrid.Match>() {
+            @Override
+            public int compare(DriverGrid.Match a, DriverGrid.Match b) {
+                return Double.compare(a.distanceKm, b.distanceKm);
+            }
+        });
+        return matches.size() > k ? matches.subList(0, k) : matches;
+    }
+
+    private static List<Integer> ids(List<DriverGrid.Match> matches) {
+        List<Integer> ids = new ArrayList<>();
+        for (DriverGrid.Match match : matches) {
+            ids.add(match.driver.id);
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,124 @@
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+// Ride transitions through the real LocalDispatch on the embedded in-memory database, as DispatchFixture
+// sets it up for the benchmarks.
+class LocalDispatchTest {
+
+    private static ConnectionPool pool;
+    private static LocalDispatch dispatch;
+    private static int passengerId;
+
+    @BeforeAll
+    static void setUp() throws Exception {
+        DatabaseConfig database = DatabaseConfig.memory("dispatch-test");
+        database.loadDriver();
+        pool = new ConnectionPool(database.url, database.user, database.password, 1, 4, 2000, 60000, 0);
+        pool.setStatementCache(new StatementCache(RideSql.CACHED));
+        pool.start();
+        RideAssistGUIwithDriver.pool = pool;
+        DriverStatsWriter.start(pool);
+        try (Connection connection = pool.getConnection()) {
+            SchemaMigrator.migrate(connection);
+            PreparedStatement pstmt = connection.prepareStatement(RideSql.INSERT_PASSENGER,
+                Statement.RETURN_GENERATED_KEYS);
+            pstmt.setString(1, "Test Passenger");
+            pstmt.setString(2, "09170000000");
+            pstmt.setString(3, "pass");
+            pstmt.executeUpdate();
+            ResultSet generatedKeys = pstmt.getGeneratedKeys();
+            generatedKeys.next();
+            passengerId = generatedKeys.getInt(1);
+            generatedKeys.close();
+            pstmt.close();
+        }
+        dispatch = new LocalDispatch();
+        RideAssistGUIwithDriver.dispatch = dispatch;
+    }
+
+    @AfterAll
+    static void tearDown() throws SQLException {
+        DriverStatsWriter.shutdown();
+        try (Connection connection = pool.getConnection()) {
+            Statement stmt = connection.createStatement();
+            stmt.execute("DROP ALL OBJECTS");
+            stmt.close();
+        }
+        pool.close();
+    }
+
+    @Test
+    void completingOrRatingARideTwiceCountsItOnce() throws Exception {
+        RideAssistGUIwithDriver.Driver driver = dispatch.addDriver("Twice", "Tricycle", "50-100", "twice", "pass");
+        RideAssistGUIwithDriver.RideRequest ride =
+            dispatch.requestRide(passengerId, "Test Passenger", "09170000000", "Plaza", "Port");
+        assertEquals(DispatchCore.ClaimResult.CLAIMED, dispatch.acceptRide(ride.id, driver.id));
+        assertNotNull(dispatch.completeRide(driver.id));
+
+        // A stale copy back in the registry, as DeltaSync or a second desktop could leave it
+        RideAssistGUIwithDriver.activeRides.add(ride);
+        assertNull(dispatch.completeRide(driver.id));
+        RideAssistGUIwithDriver.activeRides.remove(ride);
+
+        assertNotNull(dispatch.rateRide(ride.id, 4));
+        RideAssistGUIwithDriver.ridesAwaitingRating.add(ride);
+        assertNull(dispatch.rateRide(ride.id, 2));
+        RideAssistGUIwithDriver.ridesAwaitingRating.remove(ride);
+
+        try (Connection connection = pool.getConnection()) {
+            DriverStatsRollup.Totals totals = DriverStatsRollup.load(connection).get(driver.id);
+            assertEquals(1, totals.rideCount);
+            assertEquals(ride.fare, totals.earnings, 0.001);
+            assertEquals(1, totals.ratingCount);
+            assertEquals(4, totals.ratingSum);
+
+            LocalDateTime now = LocalDateTime.now();
+            EarningsBuckets.Totals earnings =
+                EarningsBuckets.range(connection, driver.id, now.minusDays(1), now.plusHours(1));
+            assertEquals(1, earnings.rides);
+            assertEquals(ride.fare, earnings.earnings, 0.001);
+        }
+    }
+
+    @Test
+    void claimingARideRequestedElsewhereMakesItActive() throws Exception {
+        RideAssistGUIwithDriver.Driver driver = dispatch.addDriver("Remote", "Tricycle", "50-100", "remote", "pass");
+        int rideId;
+        // Inserted as another desktop would, so it is not in this process's pending registry
+        try (Connection connection = pool.getConnection()) {
+            PreparedStatement pstmt = connection.prepareStatement(RideSql.INSERT_RIDE, Statement.RETURN_GENERATED_KEYS);
+            pstmt.setInt(1, passengerId);
+            pstmt.setString(2, "Plaza");
+            pstmt.setString(3, "Port");
+            pstmt.setInt(4, 60);
+            Places.setCoordinate(pstmt, 5, Double.NaN);
+            Places.setCoordinate(pstmt, 6, Double.NaN);
+            pstmt.executeUpdate();
+            ResultSet generatedKeys = pstmt.getGeneratedKeys();
+            generatedKeys.next();
+            rideId = generatedKeys.getInt(1);
+            generatedKeys.close();
+            pstmt.close();
+        }
+
+        assertEquals(DispatchCore.ClaimResult.CLAIMED, dispatch.acceptRide(rideId, driver.id));
+        RideAssistGUIwithDriver.RideRequest ride = RideAssistGUIwithDriver.activeRides.get(rideId);
+        assertNotNull(ride);
+        assertEquals("ACCEPTED", ride.status);
+        assertEquals("Remote", ride.driverAssigned);
+        assertSame(ride, RideAssistGUIwithDriver.activeRides.findByDriver(driver.id));
+    }
+}
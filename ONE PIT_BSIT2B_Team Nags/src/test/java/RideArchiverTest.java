@@ -0,0 +1,166 @@
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+// Offsets into the archive on the embedded in-memory database. 1000 old rides in segments of 600 give,
+// newest first, a segment of blocks 256 + 144 and then one of 256 + 256 + 88.
+class RideArchiverTest {
+
+    private static final int RIDES = 1000;
+    private static final int SEGMENT_RIDES = 600;
+
+    private static ConnectionPool pool;
+    private static File archiveDir;
+    // Archived ride ids, newest first, as read() returns them
+    private static final List<Integer> newestFirst = new ArrayList<>();
+
+    @BeforeAll
+    static void setUp() throws Exception {
+        DatabaseConfig database = DatabaseConfig.memory("archive-test");
+        database.loadDriver();
+        pool = new ConnectionPool(database.url, database.user, database.password, 1, 4, 2000, 60000, 0);
+        pool.setStatementCache(new StatementCache(RideSql.CACHED));
+        pool.start();
+        RideAssistGUIwithDriver.pool = pool;
+        try (Connection connection = pool.getConnection()) {
+            SchemaMigrator.migrate(connection);
+            Statement stmt = connection.createStatement();
+            stmt.executeUpdate("INSERT INTO passengers (full_name, phone_number, password) VALUES ('Old', '09170000001', 'pass')");
+            // As if the earnings backfill had finished, so every old ride can be archived
+            stmt.executeUpdate("DELETE FROM earnings_backfill");
+            stmt.close();
+
+            connection.setAutoCommit(false);
+            PreparedStatement pstmt = connection.prepareStatement("INSERT INTO rides (passenger_id, from_location, " +
+                "to_location, fare, status, rating, created_at, completed_at) " +
+                "VALUES ((SELECT MIN(id) FROM passengers), 'Plaza', 'Port', ?, 'RATED', 5, ?, ?)");
+            LocalDateTime first = LocalDateTime.now().minusYears(2);
+            for (int i = 0; i < RIDES; i++) {
+                Timestamp at = Timestamp.valueOf(first.plusMinutes(i));
+                pstmt.setInt(1, 50 + i % 100);
+                pstmt.setTimestamp(2, at);
+                pstmt.setTimestamp(3, at);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+            pstmt.close();
+            connection.commit();
+            connection.setAutoCommit(true);
+
+            stmt = connection.createStatement();
+            ResultSet rs = stmt.executeQuery("SELECT id FROM rides ORDER BY id DESC");
+            while (rs.next()) {
+                newestFirst.add(rs.getInt(1));
+            }
+            rs.close();
+            stmt.close();
+        }
+
+        archiveDir = Files.createTempDirectory("ride-archive-test").toFile();
+        System.setProperty("ride.archive.dir", archiveDir.getPath());
+        System.setProperty("ride.archive.ageDays", "1");
+        System.setProperty("ride.archive.segmentRides", String.valueOf(SEGMENT_RIDES));
+        System.setProperty("ride.archive.intervalMs", "0");
+        System.setProperty("ride.archive.refreshMs", "0");
+        RideArchiver.start(pool);
+        RideArchiver.archiveOldRides();
+    }
+
+    @AfterAll
+    static void tearDown() throws SQLException {
+        RideArchiver.shutdown();
+        for (String property : new String[] { "dir", "ageDays", "segmentRides", "intervalMs", "refreshMs" }) {
+            System.clearProperty("ride.archive." + property);
+        }
+        File[] files = archiveDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        archiveDir.delete();
+        try (Connection connection = pool.getConnection()) {
+            Statement stmt = connection.createStatement();
+            stmt.execute("DROP ALL OBJECTS");
+            stmt.close();
+        }
+        pool.close();
+    }
+
+    @Test
+    void everyOldRideIsArchivedInTwoSegments() throws Exception {
+        assertEquals(RIDES, RideArchiver.count());
+        try (Connection connection = pool.getConnection()) {
+            Statement stmt = connection.createStatement();
+            ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM archive_segments WHERE committed = TRUE");
+            rs.next();
+            assertEquals(2, rs.getInt(1));
+            rs.close();
+            rs = stmt.executeQuery("SELECT COUNT(*) FROM rides");
+            rs.next();
+            assertEquals(0, rs.getInt(1));
+            rs.close();
+            stmt.close();
+        }
+    }
+
+    @Test
+    void readStartingMidBlockCrossesBlocksAndSegments() throws Exception {
+        // From inside the newest segment's first block, across its second block into the older segment
+        assertRead(100, 400);
+        // The last ride of a block, then the first of the next
+        assertRead(255, 2);
+        // The last ride of the newest segment, then the first of the older one
+        assertRead(399, 2);
+        // Starting on a block boundary in the older segment
+        assertRead(656, 300);
+        // Running off the end
+        assertRead(990, 50);
+        assertEquals(0, RideArchiver.read(RIDES, 20).size());
+    }
+
+    @Test
+    void readMatchesTheRidesAtEveryOffset() throws Exception {
+        for (int skip = 0; skip <= RIDES; skip += 37) {
+            assertRead(skip, 21);
+        }
+    }
+
+    @Test
+    void findsTheFirstAndLastRideOfEveryBlock() throws Exception {
+        int[] blockEdges = { 0, 255, 256, 399, 400, 655, 656, 911, 912, 999 };
+        for (int position : blockEdges) {
+            int rideId = newestFirst.get(position);
+            RideHistory.Entry entry = RideArchiver.find(rideId);
+            assertNotNull(entry, "ride " + rideId + " at position " + position);
+            assertEquals(rideId, entry.rideId);
+        }
+        assertNull(RideArchiver.find(newestFirst.get(0) + 1));
+        assertNull(RideArchiver.find(newestFirst.get(RIDES - 1) - 1));
+    }
+
+    private static void assertRead(int skip, int limit) throws Exception {
+        List<Integer> expected = newestFirst.subList(Math.min(skip, RIDES), Math.min(skip + limit, RIDES));
+        List<Integer> read = new ArrayList<>();
+        for (RideHistory.Entry entry : RideArchiver.read(skip, limit)) {
+            read.add(entry.rideId);
+        }
+        assertEquals(expected, read, "read(" + skip + ", " + limit + ")");
+    }
+}
@@ -0,0 +1,178 @@
+import benchmarks.DispatchOperations;
+
+import javax.swing.table.TableModel;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.List;
+
+// Application state for DispatchBenchmark: the real LocalDispatch, registries, statement cache and
+// schema, on the embedded in-memory database instead of the XAMPP server.
+public class DispatchFixture implements DispatchOperations {
+
+    static final int PASSENGERS = 100;
+
+    private static final String[] PLACES = {
+        "City Hall", "Public Market", "Port", "Plaza", "Lower Lamac", "Mobod", "Taboc Norte", "Canubay",
+        "Villaflor", "Talairon", "Layawan", "Pines"
+    };
+    private static final String INSERT_HISTORY_RIDE = "INSERT INTO rides " +
+        "(passenger_id, driver_id, from_location, to_location, fare, status, rating, created_at) " +
+        "VALUES (?, ?, ?, ?, ?, 'RATED', ?, ?)";
+
+    private ConnectionPool pool;
+    // Kept out of the open rides, so the lifecycle benchmark always finds it free
+    private RideAssistGUIwithDriver.Driver lifecycleDriver;
+    private int driverCount;
+
+    @Override
+    public void setUp(int driverCount, int historyRides, int openRides) throws Exception {
+        this.driverCount = driverCount;
+        DatabaseConfig database = DatabaseConfig.memory("benchmark");
+        database.loadDriver();
+        pool = new ConnectionPool(database.url, database.user, database.password, 1, 8, 2000, 60000, 0);
+        pool.setStatementCache(new StatementCache(RideSql.CACHED));
+        pool.start();
+        RideAssistGUIwithDriver.pool = pool;
+        DataAccess.start(pool);
+        DriverStatsWriter.start(pool);
+        try (Connection connection = pool.getConnection()) {
+            SchemaMigrator.migrate(connection);
+            addPassengers(connection);
+        }
+
+        LocalDispatch dispatch = new LocalDispatch();
+        RideAssistGUIwithDriver.dispatch = dispatch;
+        for (int i = 0; i < driverCount; i++) {
+            RideAssistGUIwithDriver.Driver driver = dispatch.addDriver("Driver " + i, "Tricycle", "50-100",
+                "driver" + i, "pass" + i);
+            dispatch.setDriverLocation(driver.id, 8.46 + (i % 50) * 0.001, 123.77 + (i / 50 % 50) * 0.001);
+            if (i == 0) {
+                lifecycleDriver = driver;
+            }
+        }
+        try (Connection connection = pool.getConnection()) {
+            addHistory(connection, historyRides);
+            // The history rows skip the ride transitions that keep the rollup current
+            DriverStatsRollup.rebuild(connection);
+        }
+        // Every other open ride is accepted by its own driver
+        List<RideAssistGUIwithDriver.Driver> drivers = dispatch.drivers();
+        for (int i = 0; i < openRides; i++) {
+            RideAssistGUIwithDriver.RideRequest ride = dispatch.requestRide(1 + i % PASSENGERS, "Passenger " + i,
+                "0917" + i, PLACES[i % PLACES.length], PLACES[(i + 5) % PLACES.length]);
+            int driverIndex = 1 + i / 2;
+            if (i % 2 == 1 && driverIndex < drivers.size()) {
+                dispatch.acceptRide(ride.id, drivers.get(driverIndex).id);
+            }
+        }
+    }
+
+    private static void addPassengers(Connection connection) throws SQLException {
+        PreparedStatement pstmt = connection.prepareStatement(RideSql.INSERT_PASSENGER);
+        for (int i = 0; i < PASSENGERS; i++) {
+            pstmt.setString(1, "Passenger " + i);
+            pstmt.setString(2, "0917" + i);
+            pstmt.setString(3, "pass" + i);
+            pstmt.addBatch();
+        }
+        pstmt.executeBatch();
+        pstmt.close();
+    }
+
+    private void addHistory(Connection connection, int historyRides) throws SQLException {
+        long start = System.currentTimeMillis() - historyRides * 60_000L;
+        PreparedStatement pstmt = connection.prepareStatement(INSERT_HISTORY_RIDE);
+        for (int i = 0; i < historyRides; i++) {
+            pstmt.setInt(1, 1 + i % PASSENGERS);
+            pstmt.setInt(2, lifecycleDriver.id + i % driverCount);
+            pstmt.setString(3, PLACES[i % PLACES.length]);
+            pstmt.setString(4, PLACES[(i + 3) % PLACES.length]);
+            pstmt.setInt(5, 40 + i % 60);
+            pstmt.setInt(6, 1 + i % 5);
+            pstmt.setTimestamp(7, new Timestamp(start + i * 60_000L));
+            pstmt.addBatch();
+            if (i % 1000 == 999) {
+                pstmt.executeBatch();
+            }
+        }
+        pstmt.executeBatch();
+        pstmt.close();
+    }
+
+    @Override
+    public void tearDown() {
+        DataAccess.shutdown();
+        DriverStatsWriter.shutdown();
+        try (Connection connection = pool.getConnection()) {
+            Statement stmt = connection.createStatement();
+            stmt.execute("DROP ALL OBJECTS");
+            stmt.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        pool.close();
+    }
+
+    @Override
+    public int passengerCount() {
+        return PASSENGERS;
+    }
+
+    @Override
+    public Object newRideRequest(int passenger) {
+        return new RideAssistGUIwithDriver.RideRequest("Passenger " + passenger, "0917" + passenger,
+            PLACES[passenger % PLACES.length], PLACES[(passenger + 5) % PLACES.length], 1 + passenger % PASSENGERS);
+    }
+
+    @Override
+    public Object rideLifecycle(int passenger) throws Exception {
+        DispatchCore dispatch = RideAssistGUIwithDriver.dispatch;
+        RideAssistGUIwithDriver.RideRequest ride = dispatch.requestRide(1 + passenger % PASSENGERS,
+            "Passenger " + passenger, "0917" + passenger, PLACES[passenger % PLACES.length],
+            PLACES[(passenger + 5) % PLACES.length]);
+        if (dispatch.acceptRide(ride.id, lifecycleDriver.id) != DispatchCore.ClaimResult.CLAIMED) {
+            throw new IllegalStateException("Ride " + ride.id + " was not claimed");
+        }
+        dispatch.completeRide(lifecycleDriver.id);
+        return dispatch.rateRide(ride.id, 1 + passenger % 5);
+    }
+
+    @Override
+    public Object driverById(int driver) {
+        return RideAssistGUIwithDriver.drivers.getById(lifecycleDriver.id + driver % driverCount);
+    }
+
+    @Override
+    public Object driverLogin(int driver) throws Exception {
+        int index = driver % driverCount;
+        return RideAssistGUIwithDriver.dispatch.driverLogin("driver" + index, "pass" + index);
+    }
+
+    @Override
+    public List<?> ridesForPassenger(int passenger) throws Exception {
+        return RideAssistGUIwithDriver.dispatch.ridesForPassenger(1 + passenger % PASSENGERS);
+    }
+
+    @Override
+    public List<?> historyPage(int pageNumber, boolean cached) throws Exception {
+        if (!cached) {
+            RideAssistGUIwithDriver.rideHistory.invalidate();
+        }
+        try (Connection connection = pool.getConnection()) {
+            return RideAssistGUIwithDriver.rideHistory.getPage(connection, pageNumber).entries;
+        }
+    }
+
+    @Override
+    public TableModel allRequestsTable() throws Exception {
+        return RideAssistGUIwithDriver.allRequestsTableModel(RideAssistGUIwithDriver.openRides());
+    }
+
+    @Override
+    public String driverStatisticsReport() throws Exception {
+        return RideAssistGUIwithDriver.driverStatisticsReport(RideAssistGUIwithDriver.loadDriverSummaries());
+    }
+}
@@ -0,0 +1,113 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.swing.table.TableModel;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Dispatch hot paths against an in-memory database, for numbers before and after a change:
+//
+//   mvn -B package
+//   java -jar benchmarks/target/benchmarks.jar DispatchBenchmark -rf json -rff before.json
+//
+// Each benchmark gets a fresh JVM and database filled according to the @Param sizes.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DispatchBenchmark {
+
+    @Param({"50", "500"})
+    int drivers;
+
+    @Param({"10000"})
+    int historyRides;
+
+    @Param({"200"})
+    int openRides;
+
+    // Uncached, page 0 is the keyset first page and page 9 a single OFFSET read, since invalidate() also
+    // forgets where earlier pages ended
+    @Param({"0", "9"})
+    int historyPage;
+
+    private DispatchOperations dispatch;
+    // Spreads lookups over passengers and drivers instead of hitting one entry
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dispatch = (DispatchOperations) Class.forName("DispatchFixture").getDeclaredConstructor().newInstance();
+        dispatch.setUp(drivers, historyRides, openRides);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dispatch.tearDown();
+    }
+
+    private int next() {
+        next = (next + 1) & 0xffff;
+        return next;
+    }
+
+    @Benchmark
+    public Object newRideRequest() {
+        return dispatch.newRideRequest(next());
+    }
+
+    @Benchmark
+    public Object rideLifecycle() throws Exception {
+        return dispatch.rideLifecycle(next());
+    }
+
+    @Benchmark
+    public Object driverById() {
+        return dispatch.driverById(next());
+    }
+
+    @Benchmark
+    public Object driverLogin() throws Exception {
+        return dispatch.driverLogin(next());
+    }
+
+    @Benchmark
+    public List<?> rideStatusForPassenger() throws Exception {
+        return dispatch.ridesForPassenger(next());
+    }
+
+    @Benchmark
+    public List<?> historyPageCached() throws Exception {
+        return dispatch.historyPage(historyPage, true);
+    }
+
+    @Benchmark
+    public List<?> historyPageFromDatabase() throws Exception {
+        return dispatch.historyPage(historyPage, false);
+    }
+
+    @Benchmark
+    public TableModel allRequestsTable() throws Exception {
+        return dispatch.allRequestsTable();
+    }
+
+    @Benchmark
+    public String driverStatisticsReport() throws Exception {
+        return dispatch.driverStatisticsReport();
+    }
+}
@@ -0,0 +1,40 @@
+package benchmarks;
+
+import javax.swing.table.TableModel;
+import java.util.List;
+
+// The dispatch operations DispatchBenchmark measures. The application lives in the default package,
+// which code in a named package cannot refer to, and JMH only accepts benchmarks in a named package,
+// so the operations are implemented by DispatchFixture next to the application classes and reached
+// through this interface.
+public interface DispatchOperations {
+
+    // Opens an in-memory database and fills it with the given number of drivers, finished rides in the
+    // history and open (pending or accepted) rides
+    void setUp(int driverCount, int historyRides, int openRides) throws Exception;
+
+    void tearDown();
+
+    int passengerCount();
+
+    // A ride request built in memory, fare quote included, without touching the database
+    Object newRideRequest(int passenger);
+
+    // One ride through request, accept, complete and rate, each written to the database
+    Object rideLifecycle(int passenger) throws Exception;
+
+    Object driverById(int driver);
+
+    Object driverLogin(int driver) throws Exception;
+
+    // What the passenger's Ride Status screen loads
+    List<?> ridesForPassenger(int passenger) throws Exception;
+
+    // Ride history page entries, served from the page cache or read from the database
+    List<?> historyPage(int pageNumber, boolean cached) throws Exception;
+
+    // Admin screens: the open requests table and the driver statistics report
+    TableModel allRequestsTable() throws Exception;
+
+    String driverStatisticsReport() throws Exception;
+}